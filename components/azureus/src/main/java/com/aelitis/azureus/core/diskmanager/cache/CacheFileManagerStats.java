@@ -74,6 +74,22 @@ CacheFileManagerStats
 	public long
 	getFileWriteCount();
 	
+		// reads that found nothing usable in cache and went to the file
+	
+	public long
+	getCacheMissCount();
+	
+		// entries flushed out to make room for new data, and how long that took
+	
+	public long
+	getEvictionCount();
+	
+	public long
+	getAverageEvictionFlushMicros();
+	
+	public long
+	getMaxEvictionFlushMicros();
+	
 		// returns the number of bytes in the requested range that are in cache
 	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths);
@@ -51,6 +51,11 @@ CacheEntry
 	protected int				entry_type;
 	protected int				usage_count;
 	
+		// the queue of the CacheEntryIndex holding this entry and the bytes read from it
+	
+	protected int				queue;
+	protected long				bytes_read;
+	
 	/**
 	 * Constructs a dummy cache entry used to search in a Set 
 	 * @param offset
@@ -0,0 +1,520 @@
+/*
+ * Created on 18-Oct-2026
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (C) 2026 FrostWire(TM), All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gudy.azureus2.core3.util.AEMonitor;
+
+/**
+ * The cache entries of the manager, split in stripes so that writers to different
+ * parts of the cache don't contend on one monitor.
+ *
+ * Each stripe follows the 2Q replacement policy. New entries are on probation in
+ * FIFO order and only move to the protected LRU queue once they are read again,
+ * so a scan over many pieces (seeding lots of torrents, a recheck) can't push out
+ * the pieces that peers keep asking for. Probation is split between read-ahead
+ * buffers, which are clean and cost nothing to drop, and write-back buffers, which
+ * have to be flushed to disk anyway. A read-ahead that gets evicted is remembered
+ * for a while, if the same data is read ahead again it goes straight to the
+ * protected queue.
+ *
+ * Entries are striped by file and region, so the data of a piece is always in the
+ * same stripe.
+ */
+
+public class
+CacheEntryIndex
+{
+	protected static final int	Q_NONE			= 0;
+	protected static final int	Q_READ_AHEAD	= 1;
+	protected static final int	Q_WRITE_BACK	= 2;
+	protected static final int	Q_PROTECTED		= 3;
+
+		// probation is evicted first once it holds more than 1/4 of a stripe (2Q's Kin)
+
+	private static final int	PROBATION_SHARE	= 4;
+
+	private static final int	GHOST_MAX		= 1024;
+
+		// 4MB regions of a file share a stripe
+
+	private static final int	REGION_SHIFT	= 22;
+
+	private final Stripe[]		stripes;
+
+	protected
+	CacheEntryIndex(
+		int		num_stripes )
+	{
+		stripes	= new Stripe[ num_stripes ];
+
+		for (int i=0;i<num_stripes;i++){
+
+			stripes[i] = new Stripe( i );
+		}
+	}
+
+	private Stripe
+	getStripe(
+		CacheEntry	entry )
+	{
+		int	h = System.identityHashCode( entry.getFile()) ^ (int)( entry.getFilePosition() >>> REGION_SHIFT );
+
+		h ^= ( h >>> 16 );
+
+		return( stripes[ ( h & 0x7fffffff ) % stripes.length ]);
+	}
+
+	protected void
+	add(
+		CacheEntry	entry )
+	{
+		getStripe( entry ).add( entry );
+	}
+
+		/**
+		 * Records a read of the entry
+		 * @param length the number of bytes read from it
+		 * @return false if the entry isn't in the index
+		 */
+
+	protected boolean
+	used(
+		CacheEntry	entry,
+		int			length )
+	{
+		return( getStripe( entry ).used( entry, length ));
+	}
+
+	protected boolean
+	remove(
+		CacheEntry	entry )
+	{
+		return( getStripe( entry ).remove( entry ));
+	}
+
+	protected boolean
+	contains(
+		CacheEntry	entry )
+	{
+		return( getStripe( entry ).contains( entry ));
+	}
+
+		/**
+		 * @return the entry to flush to make room, from the fullest stripe, null if the cache is empty
+		 */
+
+	protected CacheEntry
+	getVictim()
+	{
+		boolean[]	tried = new boolean[ stripes.length ];
+
+		for (int attempt=0;attempt<stripes.length;attempt++){
+
+			Stripe	fullest = null;
+
+			for (int i=0;i<stripes.length;i++){
+
+				if ( !tried[i] && stripes[i].bytes > 0 ){
+
+					if ( fullest == null || stripes[i].bytes > fullest.bytes ){
+
+						fullest = stripes[i];
+					}
+				}
+			}
+
+			if ( fullest == null ){
+
+				return( null );
+			}
+
+			CacheEntry	victim = fullest.getVictim();
+
+			if ( victim != null ){
+
+				return( victim );
+			}
+
+				// emptied since we looked at it
+
+			tried[ fullest.index ] = true;
+		}
+
+		return( null );
+	}
+
+	protected int
+	size()
+	{
+		int	size = 0;
+
+		for (int i=0;i<stripes.length;i++){
+
+			size += stripes[i].size();
+		}
+
+		return( size );
+	}
+
+	protected List<CacheEntry>
+	getEntries()
+	{
+		List<CacheEntry>	entries = new ArrayList<CacheEntry>();
+
+		for (int i=0;i<stripes.length;i++){
+
+			stripes[i].getEntries( entries );
+		}
+
+		return( entries );
+	}
+
+	private static class
+	Stripe
+	{
+		private final int			index;
+		private final AEMonitor		this_mon;
+
+			// probation queues in insertion order, protected in access order
+
+		private final LinkedHashMap<CacheEntry,CacheEntry>	read_ahead	= new LinkedHashMap<CacheEntry,CacheEntry>();
+		private final LinkedHashMap<CacheEntry,CacheEntry>	write_back	= new LinkedHashMap<CacheEntry,CacheEntry>();
+		private final LinkedHashMap<CacheEntry,CacheEntry>	hot			= new LinkedHashMap<CacheEntry,CacheEntry>( 64, 0.75f, true );
+
+		private final LinkedHashMap<GhostKey,GhostKey>		ghosts		=
+			new LinkedHashMap<GhostKey,GhostKey>()
+			{
+				protected boolean
+				removeEldestEntry(
+					Map.Entry<GhostKey,GhostKey> eldest )
+				{
+					return( size() > GHOST_MAX );
+				}
+			};
+
+		private long				probation_bytes;
+		private volatile long		bytes;
+
+		private
+		Stripe(
+			int		_index )
+		{
+			index		= _index;
+			this_mon	= new AEMonitor( "CacheEntryIndex:" + _index );
+		}
+
+		private void
+		add(
+			CacheEntry	entry )
+		{
+			try{
+				this_mon.enter();
+
+				if ( entry.getType() == CacheEntry.CT_READ_AHEAD && ghosts.remove( new GhostKey( entry )) != null ){
+
+						// dropped not long ago and wanted again
+
+					hot.put( entry, entry );
+
+					entry.queue = Q_PROTECTED;
+
+				}else if ( entry.getType() == CacheEntry.CT_READ_AHEAD ){
+
+					read_ahead.put( entry, entry );
+
+					entry.queue = Q_READ_AHEAD;
+
+					probation_bytes += entry.getLength();
+
+				}else{
+
+					write_back.put( entry, entry );
+
+					entry.queue = Q_WRITE_BACK;
+
+					probation_bytes += entry.getLength();
+				}
+
+				bytes += entry.getLength();
+
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+
+		private boolean
+		used(
+			CacheEntry	entry,
+			int			length )
+		{
+			try{
+				this_mon.enter();
+
+				entry.bytes_read += length;
+
+				switch( entry.queue ){
+
+					case Q_PROTECTED:{
+
+						return( hot.get( entry ) != null );
+					}
+					case Q_READ_AHEAD:{
+
+						if ( !read_ahead.containsKey( entry )){
+
+							return( false );
+						}
+
+							// reading through a read-ahead is what it was made for, it is only
+							// hot once some of its data has been read twice
+
+						if ( entry.bytes_read > entry.getLength()){
+
+							promote( read_ahead, entry );
+						}
+
+						return( true );
+					}
+					case Q_WRITE_BACK:{
+
+						if ( !write_back.containsKey( entry )){
+
+							return( false );
+						}
+
+							// data we wrote being read back, typically a piece we are uploading
+
+						promote( write_back, entry );
+
+						return( true );
+					}
+					default:{
+
+						return( false );
+					}
+				}
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+
+		private void
+		promote(
+			Map<CacheEntry,CacheEntry>	from,
+			CacheEntry					entry )
+		{
+			from.remove( entry );
+
+			probation_bytes -= entry.getLength();
+
+			hot.put( entry, entry );
+
+			entry.queue = Q_PROTECTED;
+		}
+
+		private boolean
+		remove(
+			CacheEntry	entry )
+		{
+			try{
+				this_mon.enter();
+
+				boolean	removed;
+
+				switch( entry.queue ){
+
+					case Q_PROTECTED:{
+
+						removed = hot.remove( entry ) != null;
+
+						break;
+					}
+					case Q_READ_AHEAD:{
+
+						removed = read_ahead.remove( entry ) != null;
+
+						if ( removed ){
+
+							probation_bytes -= entry.getLength();
+
+							ghosts.put( new GhostKey( entry ), null );
+						}
+
+						break;
+					}
+					case Q_WRITE_BACK:{
+
+						removed = write_back.remove( entry ) != null;
+
+						if ( removed ){
+
+							probation_bytes -= entry.getLength();
+						}
+
+						break;
+					}
+					default:{
+
+						removed = false;
+					}
+				}
+
+				if ( removed ){
+
+					bytes -= entry.getLength();
+
+					entry.queue = Q_NONE;
+				}
+
+				return( removed );
+
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+
+		private boolean
+		contains(
+			CacheEntry	entry )
+		{
+			try{
+				this_mon.enter();
+
+				return( read_ahead.containsKey( entry ) || write_back.containsKey( entry ) || hot.containsKey( entry ));
+
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+
+		private CacheEntry
+		getVictim()
+		{
+			try{
+				this_mon.enter();
+
+				if ( probation_bytes > bytes / PROBATION_SHARE || hot.isEmpty()){
+
+						// unused read-ahead first, it is clean so dropping it costs no I/O
+
+					if ( !read_ahead.isEmpty()){
+
+						return( read_ahead.keySet().iterator().next());
+					}
+
+					if ( !write_back.isEmpty()){
+
+						return( write_back.keySet().iterator().next());
+					}
+				}
+
+				if ( !hot.isEmpty()){
+
+						// don't use get() here, it would reorder
+
+					return( hot.keySet().iterator().next());
+				}
+
+				return( null );
+
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+
+		private int
+		size()
+		{
+			try{
+				this_mon.enter();
+
+				return( read_ahead.size() + write_back.size() + hot.size());
+
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+
+		private void
+		getEntries(
+			List<CacheEntry>	entries )
+		{
+			try{
+				this_mon.enter();
+
+				entries.addAll( read_ahead.keySet());
+				entries.addAll( write_back.keySet());
+				entries.addAll( hot.keySet());
+
+			}finally{
+
+				this_mon.exit();
+			}
+		}
+	}
+
+	private static class
+	GhostKey
+	{
+			// no reference to the file, the key must not keep a closed file alive. Two
+			// files with the same identity hash only cost a wrong promotion
+
+		private final int		file_id;
+		private final long		offset;
+
+		private
+		GhostKey(
+			CacheEntry	entry )
+		{
+			file_id	= System.identityHashCode( entry.getFile());
+			offset	= entry.getFilePosition();
+		}
+
+		public int
+		hashCode()
+		{
+			return( file_id ^ (int)( offset ^ ( offset >>> 32 )));
+		}
+
+		public boolean
+		equals(
+			Object	o )
+		{
+			if ( !( o instanceof GhostKey )){
+
+				return( false );
+			}
+
+			GhostKey	other = (GhostKey)o;
+
+			return( file_id == other.file_id && offset == other.offset );
+		}
+	}
+}
@@ -29,6 +29,7 @@ package com.aelitis.azureus.core.diskmanager.cache.impl;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.logging.LogEvent;
@@ -53,6 +54,8 @@ CacheFileManagerImpl
 	
 	public static final int		STATS_UPDATE_FREQUENCY		= 1*1000;	// 1 sec
 	public static final long	DIRTY_CACHE_WRITE_MAX_AGE	= 120*1000;	// 2 mins
+	
+	public static final int		CACHE_STRIPES				= 16;
 		
 	static{
 		if ( DEBUG ){
@@ -113,7 +116,7 @@ CacheFileManagerImpl
 	protected long		cache_files_not_smaller_than;
 	
 	protected long		cache_minimum_free_size;
-	protected long		cache_space_free;
+	protected AtomicLong	cache_space_free	= new AtomicLong();
 
 	private long	cache_file_id_next	= 0;
 	
@@ -124,24 +127,31 @@ CacheFileManagerImpl
 	protected WeakHashMap		cache_files			= new WeakHashMap();
 	protected WeakHashMap		updated_cache_files	= null;
 	
-		// access order
+		// striped, with its own replacement order
 	
-	protected LinkedHashMap		cache_entries = new LinkedHashMap(1024, 0.75f, true );
+	protected CacheEntryIndex	cache_entries = new CacheEntryIndex( CACHE_STRIPES );
 	
 	protected CacheFileManagerStatsImpl	stats;
 	
 
 	protected Map	torrent_to_cache_file_map	= new LightHashMap();
 	
-	protected long				cache_bytes_written;
-	protected long				cache_bytes_read;
-	protected long				file_bytes_written;
-	protected long				file_bytes_read;
+		// counters don't take the manager monitor, they are updated by all the disk threads
+	
+	protected AtomicLong		cache_bytes_written	= new AtomicLong();
+	protected AtomicLong		cache_bytes_read	= new AtomicLong();
+	protected AtomicLong		file_bytes_written	= new AtomicLong();
+	protected AtomicLong		file_bytes_read		= new AtomicLong();
+	
+	protected AtomicLong		cache_read_count	= new AtomicLong();
+	protected AtomicLong		cache_write_count	= new AtomicLong();
+	protected AtomicLong		file_read_count		= new AtomicLong();
+	protected AtomicLong		file_write_count	= new AtomicLong();
 	
-	protected long				cache_read_count;
-	protected long				cache_write_count;
-	protected long				file_read_count;
-	protected long				file_write_count;
+	protected AtomicLong		cache_miss_count	= new AtomicLong();
+	protected AtomicLong		eviction_count		= new AtomicLong();
+	protected AtomicLong		eviction_flush_time	= new AtomicLong();	// nanos
+	protected volatile long		eviction_flush_max;						// nanos
 	
 	protected AEMonitor			this_mon	= new AEMonitor( "CacheFileManager" );
 	
@@ -200,7 +210,7 @@ CacheFileManagerImpl
 		
 		cache_minimum_free_size	= cache_size/4;
 		
-		cache_space_free		= cache_size;
+		cache_space_free.set( cache_size );
 		
 		stats = new CacheFileManagerStatsImpl( this );
 		
@@ -365,35 +375,39 @@ CacheFileManagerImpl
 		
 		while( !ok ){
 			
-				// musn't invoke synchronised CacheFile methods while holding manager lock as this
+				// musn't invoke synchronised CacheFile methods while holding an index lock as this
 				// can cause deadlocks (as CacheFile calls manager methods with locks)
 			
 			CacheEntry	oldest_entry	= null;
 			
-			try{
-				this_mon.enter();
+			long	free = cache_space_free.get();
 			
-				if ( length < cache_space_free || cache_space_free == cache_size ){
+			if ( length < free || free == cache_size ){
 				
-					ok	= true;
+				ok	= true;
+				
+			}else{
+				
+				oldest_entry = cache_entries.getVictim();
+				
+				if ( oldest_entry == null ){
 					
-				}else{
+						// all released meanwhile
 					
-					oldest_entry = (CacheEntry)cache_entries.keySet().iterator().next();
+					ok	= true;
 				}
-			}finally{
-				
-				this_mon.exit();
 			}
 			
 			if ( !ok ){
 				
 				log	= true;
 				
-				long	old_free	= cache_space_free;
+				long	old_free	= cache_space_free.get();
 			
 				CacheFileWithCache	oldest_file = oldest_entry.getFile();
 				
+				long	flush_start = System.nanoTime();
+				
 				try{
 					
 					oldest_file.flushCache( oldest_entry.getFilePosition(), true, cache_minimum_free_size );
@@ -412,9 +426,21 @@ CacheFileManagerImpl
 						
 						throw( e );
 					}
+				}finally{
+					
+					long	flush_time = System.nanoTime() - flush_start;
+					
+					eviction_count.incrementAndGet();
+					
+					eviction_flush_time.addAndGet( flush_time );
+					
+					if ( flush_time > eviction_flush_max ){
+						
+						eviction_flush_max = flush_time;
+					}
 				}
 				
-				long	flushed = cache_space_free - old_free;
+				long	flushed = cache_space_free.get() - old_free;
 				
 				if (Logger.isEnabled()) {
 					TOTorrentFile tf = file.getTorrentFile();
@@ -424,23 +450,13 @@ CacheFileManagerImpl
 									+ oldest_file.getName()));
 				}
 				
-				if ( flushed == 0 ){
+				if ( flushed <= 0 && cache_entries.contains( oldest_entry )){
 				
-					try{
-						this_mon.enter();
-						
-						if (	cache_entries.size() > 0 &&
-								(CacheEntry)cache_entries.keySet().iterator().next() == oldest_entry ){
-							
-								// hmm, something wrong with cache as the flush should have got rid
-								// of at least the oldest entry
-							
-							throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
-						}
-					}finally{
-						
-						this_mon.exit();
-					}
+						// hmm, something wrong with cache as the flush should have got rid
+						// of at least the chosen entry. Other threads can use the space we
+						// free so only a victim still cached means trouble
+					
+					throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
 				}
 			}
 		}
@@ -452,8 +468,8 @@ CacheFileManagerImpl
 			TOTorrent torrent = tf == null ? null : tf.getTorrent();
 
 			Logger.log(new LogEvent(torrent, LOGID, "DiskCache: cr="
-					+ cache_bytes_read + ",cw=" + cache_bytes_written + ",fr="
-					+ file_bytes_read + ",fw=" + file_bytes_written));
+					+ cache_bytes_read.get() + ",cw=" + cache_bytes_written.get() + ",fr="
+					+ file_bytes_read.get() + ",fw=" + file_bytes_written.get()));
 		}
 			
 		return( entry );
@@ -498,30 +514,23 @@ CacheFileManagerImpl
       						updated_cache_files	= null;
       					}
 
-      					if ( cache_entries.size() > 0 ){
-      						
-      						Iterator it = cache_entries.keySet().iterator();
-      						
-      						while( it.hasNext()){
-      							
-      							CacheEntry	entry = (CacheEntry)it.next();
-      								
-      							// System.out.println( "oldest entry = " + ( now - entry.getLastUsed()));
-      							
-      							if ( entry.isDirty()){
-      								
-      								dirty_files.add( entry.getFile());
-      							}
-      						}
-      					}
-      					
-      					// System.out.println( "cache file = " + cache_files.size() + ", torrent map = " + torrent_to_cache_file_map.size());
-      					
       				}finally{
       					
       					this_mon.exit();
       				}
       				
+      					// the index locks its stripes one at a time
+      				
+      				for ( CacheEntry entry: cache_entries.getEntries()){
+      					
+      					if ( entry.isDirty()){
+      						
+      						dirty_files.add( entry.getFile());
+      					}
+      				}
+      				
+      				// System.out.println( "cache file = " + cache_files.size() + ", torrent map = " + torrent_to_cache_file_map.size());
+      				
       				Iterator	it = dirty_files.iterator();
       				
       				while( it.hasNext()){
@@ -573,89 +582,76 @@ CacheFileManagerImpl
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
+		cache_space_free.addAndGet( -new_entry.getLength());
+		
+			// 	System.out.println( "Total cache space = " + cache_space_free );
+	
+		cache_entries.add( new_entry );
+		
+		if ( DEBUG ){
 			
-			cache_space_free	-= new_entry.getLength();
+			CacheFileWithCache	file	= new_entry.getFile();
+							
+			long	total_cache_size	= 0;
 			
-				// 	System.out.println( "Total cache space = " + cache_space_free );
-		
-			cache_entries.put( new_entry, new_entry );
+			int		my_count = 0;
+
+			Iterator<CacheEntry> it = cache_entries.getEntries().iterator();
 			
-			if ( DEBUG ){
+			while( it.hasNext()){
 				
-				CacheFileWithCache	file	= new_entry.getFile();
-								
-				long	total_cache_size	= 0;
+				CacheEntry	entry = it.next();
 				
-				int		my_count = 0;
-
-				Iterator it = cache_entries.keySet().iterator();
+				total_cache_size	+= entry.getLength();
 				
-				while( it.hasNext()){
-					
-					CacheEntry	entry = (CacheEntry)it.next();
-					
-					total_cache_size	+= entry.getLength();
+				if ( entry.getFile() == file ){
 					
-					if ( entry.getFile() == file ){
-						
-						my_count++;
-					}
-				}
-			
-				if ( my_count != file.cache.size()){
-					
-					Debug.out( "Cache inconsistency: my count = " + my_count + ", file = " + file.cache.size());
-					
-					throw( new CacheFileManagerException( null, "Cache inconsistency: counts differ"));
-					
-				}else{
-					
-					//System.out.println( "Cache: file_count = " + my_count );
+					my_count++;
 				}
+			}
+		
+			if ( my_count != file.cache.size()){
 				
-				if ( total_cache_size != cache_size - cache_space_free ){
-					
-					Debug.out( "Cache inconsistency: used_size = " + total_cache_size + ", free = " + cache_space_free + ", size = " + cache_size );
-					
-					throw( new CacheFileManagerException( null, "Cache inconsistency: sizes differ"));
-					
-				}else{
-					
-					//System.out.println( "Cache: usage = " + total_cache_size );
-				}
+				Debug.out( "Cache inconsistency: my count = " + my_count + ", file = " + file.cache.size());
+				
+				throw( new CacheFileManagerException( null, "Cache inconsistency: counts differ"));
+				
+			}else{
+				
+				//System.out.println( "Cache: file_count = " + my_count );
 			}
-		}finally{
 			
-			this_mon.exit();
+			if ( total_cache_size != cache_size - cache_space_free.get()){
+				
+				Debug.out( "Cache inconsistency: used_size = " + total_cache_size + ", free = " + cache_space_free.get() + ", size = " + cache_size );
+				
+				throw( new CacheFileManagerException( null, "Cache inconsistency: sizes differ"));
+				
+			}else{
+				
+				//System.out.println( "Cache: usage = " + total_cache_size );
+			}
 		}
 	}
 	
 	protected void
 	cacheEntryUsed(
-		CacheEntry		entry )
+		CacheEntry		entry,
+		int				length )
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
+			// note that this updates the replacement order of the entry
 		
-				// note that the "get" operation update the MRU in cache_entries
+		if ( !cache_entries.used( entry, length )){
 			
-			if ( cache_entries.get( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on usage" );
-				
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
-				
-			}else{
-				
-				entry.used();
-			}
-		}finally{
+			Debug.out( "Cache inconsistency: entry missing on usage" );
 			
-			this_mon.exit();
+			throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
+			
+		}else{
+			
+			entry.used();
 		}
 	}
 	
@@ -667,37 +663,30 @@ CacheFileManagerImpl
 	{
 		entry.getBuffer().returnToPool();
 		
-		try{
-			this_mon.enter();
-			
-			cache_space_free	+= entry.getLength();
+		cache_space_free.addAndGet( entry.getLength());
+		
+		if ( !cache_entries.remove( entry )){
 			
-			if ( cache_entries.remove( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on removal" );
+			Debug.out( "Cache inconsistency: entry missing on removal" );
 
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
-			}
+			throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
+		}
 
-			/*
-			if ( 	entry.getType() == CacheEntry.CT_READ_AHEAD ){
-				
-				if ( entry.getUsageCount() < 2 ){
-				
-					System.out.println( "ra: not used" );
-				
-				}else{
-				
-					System.out.println( "ra: used" );
-				}
-			}
-			*/
+		/*
+		if ( 	entry.getType() == CacheEntry.CT_READ_AHEAD ){
 			
-			// System.out.println( "Total cache space = " + cache_space_free );
-		}finally{
+			if ( entry.getUsageCount() < 2 ){
 			
-			this_mon.exit();
+				System.out.println( "ra: not used" );
+			
+			}else{
+			
+				System.out.println( "ra: used" );
+			}
 		}
+		*/
+		
+		// System.out.println( "Total cache space = " + cache_space_free );
 	}
 	
 	protected long
@@ -709,7 +698,7 @@ CacheFileManagerImpl
 	protected long
 	getCacheUsed()
 	{
-		long free = cache_space_free;
+		long free = cache_space_free.get();
 		
 		if ( free < 0 ){
 			
@@ -723,115 +712,114 @@ CacheFileManagerImpl
 	cacheBytesWritten(
 		long		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_written	+= num;
-			
-			cache_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_written.addAndGet( num );
+		
+		cache_write_count.incrementAndGet();
 	}
 	
 	protected void
 	cacheBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_read	+= num;
-			
-			cache_read_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_read.addAndGet( num );
+		
+		cache_read_count.incrementAndGet();
+	}
+	
+	protected void
+	cacheReadMiss()
+	{
+		cache_miss_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesWritten(
 		long	num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_written	+= num;
-			
-			file_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_written.addAndGet( num );
+		
+		file_write_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_read	+= num;
-			
-			file_read_count++;
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_read.addAndGet( num );
+		
+		file_read_count.incrementAndGet();
 	}
 	
 	protected long
 	getBytesWrittenToCache()
 	{
-		return( cache_bytes_written );
+		return( cache_bytes_written.get());
 	}
 	
 	protected long
 	getBytesWrittenToFile()
 	{
-		return( file_bytes_written );
+		return( file_bytes_written.get());
 	}
 	
 	protected long
 	getBytesReadFromCache()
 	{
-		return( cache_bytes_read );
+		return( cache_bytes_read.get());
 	}
 	
 	protected long
 	getBytesReadFromFile()
 	{
-		return( file_bytes_read );
+		return( file_bytes_read.get());
 	}
 	
 	public long
 	getCacheReadCount()
 	{
-		return( cache_read_count );
+		return( cache_read_count.get());
 	}
 	
 	public long
 	getCacheWriteCount()
 	{
-		return( cache_write_count );
+		return( cache_write_count.get());
 	}
 	
 	public long
 	getFileReadCount()
 	{
-		return( file_read_count );
+		return( file_read_count.get());
 	}
 	
 	public long
 	getFileWriteCount()
 	{
-		return( file_write_count );
+		return( file_write_count.get());
+	}
+	
+	public long
+	getCacheMissCount()
+	{
+		return( cache_miss_count.get());
+	}
+	
+	public long
+	getEvictionCount()
+	{
+		return( eviction_count.get());
+	}
+	
+	public long
+	getEvictionFlushTime()
+	{
+		return( eviction_flush_time.get());
+	}
+	
+	public long
+	getEvictionFlushMaxTime()
+	{
+		return( eviction_flush_max );
 	}
 	
 	protected void
@@ -963,22 +951,14 @@ CacheFileManagerImpl
 		try{
 			writer.indent();
 			
-			Iterator it;
-			
-				// grab a copy to avoid potential deadlock as we never take the manager monitor
+				// grab a copy to avoid potential deadlock as we never take an index lock
 				// and then the file's own monitor, always the other way around
 			
-			try{
-				this_mon.enter();
-
-				it = new ArrayList( cache_entries.keySet()).iterator();
-
-			}finally{
-				
-				this_mon.exit();
-			}
+			List<CacheEntry>	entries = cache_entries.getEntries();
+			
+			Iterator it = entries.iterator();
 			
-			writer.println( "Entries = " + cache_entries.size());
+			writer.println( "Entries = " + entries.size());
 							
 			Set	files = new HashSet();
 			
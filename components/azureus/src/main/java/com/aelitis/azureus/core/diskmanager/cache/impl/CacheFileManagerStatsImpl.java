@@ -195,6 +195,37 @@ CacheFileManagerStatsImpl
 		return( manager.getFileWriteCount());
 	}
 	
+	public long
+	getCacheMissCount()
+	{
+		return( manager.getCacheMissCount());
+	}
+	
+	public long
+	getEvictionCount()
+	{
+		return( manager.getEvictionCount());
+	}
+	
+	public long
+	getAverageEvictionFlushMicros()
+	{
+		long	count = manager.getEvictionCount();
+		
+		if ( count == 0 ){
+			
+			return( 0 );
+		}
+		
+		return( manager.getEvictionFlushTime() / count / 1000 );
+	}
+	
+	public long
+	getMaxEvictionFlushMicros()
+	{
+		return( manager.getEvictionFlushMaxTime() / 1000 );
+	}
+	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths)
 	{
 		return manager.getBytesInCache( torrent, absoluteOffsets, lengths);
@@ -356,7 +356,7 @@ CacheFileWithCache
 								
 								file_buffer.put( SS_CACHE, entry_buffer );
 									
-								manager.cacheEntryUsed( entry );
+								manager.cacheEntryUsed( entry, available );
 								
 							}finally{
 								
@@ -404,6 +404,11 @@ CacheFileWithCache
 					if (TRACE)
 						Logger.log(new LogEvent(torrent, LOGID,
 								"cacheRead: cache use fails, reverting to plain read"));
+					
+					if ( !recursive ){
+						
+						manager.cacheReadMiss();
+					}
 								
 						// reset in case we've done some partial reads
 						
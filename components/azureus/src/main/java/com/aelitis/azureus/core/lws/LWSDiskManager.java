@@ -533,6 +533,18 @@ LWSDiskManager
 		return( -1 );
 	}
 	
+	public long
+	getRecheckRate()
+	{
+		return( 0 );
+	}
+	
+	public long
+	getRecheckETA()
+	{
+		return( -1 );
+	}
+	
 	public boolean 
 	checkBlockConsistencyForWrite(
 		String				originator,
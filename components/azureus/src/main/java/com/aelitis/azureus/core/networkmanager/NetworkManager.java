@@ -30,6 +30,7 @@ import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.config.ParameterListener;
 import org.gudy.azureus2.core3.download.DownloadManager;
 import org.gudy.azureus2.core3.global.GlobalManagerListener;
+import org.gudy.azureus2.core3.util.AEMonitor;
 import org.gudy.azureus2.core3.util.Debug;
 
 import com.aelitis.azureus.core.AzureusCore;
@@ -138,8 +139,12 @@ public class NetworkManager {
   private final List<WriteController> 	write_controllers;
   private final List<ReadController> 	read_controllers;
   
+  	// held while entities are removed from or moved between controllers
+  
+  private final AEMonitor	controllers_mon = new AEMonitor( "NetworkManager:controllers" );
+  
   {
-	 int	num_read = COConfigurationManager.getIntParameter( "network.control.read.processor.count" );
+	 int	num_read = getProcessorCount( "network.control.read.processor.count" );
 	 
 	 read_controllers = new ArrayList<ReadController>(num_read);
 	 
@@ -148,7 +153,19 @@ public class NetworkManager {
 		 read_controllers.add( new ReadController());
 	 }
 	 
-	 int	num_write = COConfigurationManager.getIntParameter( "network.control.write.processor.count" );
+	 	// controller 0 keeps the entities with no partition, only the others share their load
+	 
+	 if ( num_read > 2 ){
+		 
+		 ReadController[] shards = read_controllers.subList( 1, num_read ).toArray( new ReadController[num_read-1] );
+		 
+		 for ( ReadController controller: shards ){
+			 
+			 controller.setShards( shards, controllers_mon );
+		 }
+	 }
+	 
+	 int	num_write = getProcessorCount( "network.control.write.processor.count" );
 	 
 	 write_controllers = new ArrayList<WriteController>(num_write);
 	 
@@ -156,6 +173,29 @@ public class NetworkManager {
 		 
 		 write_controllers.add( new WriteController());
 	 }
+	 
+	 	// controller 0 keeps the entities with no partition, only the others share their load
+	 
+	 if ( num_write > 2 ){
+		 
+		 WriteController[] shards = write_controllers.subList( 1, num_write ).toArray( new WriteController[num_write-1] );
+		 
+		 for ( WriteController controller: shards ){
+			 
+			 controller.setShards( shards, controllers_mon );
+		 }
+	 }
+  }
+  
+  private static int
+  getProcessorCount(
+	String	name )
+  {
+	  int	count = COConfigurationManager.getIntParameter( name );
+	  
+	  	// 0 means one per core
+	  
+	  return( count > 0 ? count : Runtime.getRuntime().availableProcessors());
   }
   
   
@@ -410,8 +450,20 @@ public class NetworkManager {
 		  
 	  }else{
 		  
-		  WriteController controller = write_controllers.get((partition_id%(write_controllers.size()-1))+1 );
+		  	// the least busy of the shards, the controllers even them out later if needed
+		  
+		  WriteController controller = write_controllers.get( 1 );
 
+		  for (int i=2;i<write_controllers.size();i++){
+			  
+			  WriteController c = write_controllers.get( i );
+			  
+			  if ( c.getEntityCount() < controller.getEntityCount()){
+				  
+				  controller = c;
+			  }
+		  }
+		  
 		  controller.addWriteEntity( entity );
 	  }
   }
@@ -425,8 +477,14 @@ public class NetworkManager {
 	  if ( write_controllers.size() == 1 ){
 		  write_controllers.get(0).removeWriteEntity( entity );
 	  }else{
-		  for (WriteController write_controller: write_controllers ){
-			  write_controller.removeWriteEntity( entity );
+		  try{
+			  controllers_mon.enter();
+			  
+			  for (WriteController write_controller: write_controllers ){
+				  write_controller.removeWriteEntity( entity );
+			  }
+		  }finally{
+			  controllers_mon.exit();
 		  }
 	  }
   }
@@ -443,8 +501,20 @@ public class NetworkManager {
 		  
 	  }else{
 		  
-		  ReadController controller = read_controllers.get((partition_id%(read_controllers.size()-1))+1 );
+		  	// the least busy of the shards, the controllers even them out later if needed
+		  
+		  ReadController controller = read_controllers.get( 1 );
 
+		  for (int i=2;i<read_controllers.size();i++){
+			  
+			  ReadController c = read_controllers.get( i );
+			  
+			  if ( c.getEntityCount() < controller.getEntityCount()){
+				  
+				  controller = c;
+			  }
+		  }
+		  
 		  controller.addReadEntity( entity );
 	  }
   }
@@ -458,8 +528,14 @@ public class NetworkManager {
 	  if ( read_controllers.size() == 1 ){
 		  read_controllers.get(0).removeReadEntity( entity );
 	  }else{
-		  for (ReadController read_controller: read_controllers ){
-			  read_controller.removeReadEntity( entity );
+		  try{
+			  controllers_mon.enter();
+			  
+			  for (ReadController read_controller: read_controllers ){
+				  read_controller.removeReadEntity( entity );
+			  }
+		  }finally{
+			  controllers_mon.exit();
 		  }
 	  }
   }  
@@ -45,6 +45,9 @@ public class ReadController implements AzureusCoreStatsProvider{
 	private static int 		IDLE_SLEEP_TIME  	= 50;
 	private static boolean	AGGRESIVE_READ		= false;
 	
+	private static final int	REBALANCE_PERIOD	= 1000;
+	private static final int	MAX_REBALANCE_MOVES	= 16;
+	
 	static{
 		COConfigurationManager.addAndFireParameterListeners(
 			new String[]{
@@ -81,6 +84,12 @@ public class ReadController implements AzureusCoreStatsProvider{
 
   private int			entity_count;
   
+  private volatile ReadController[]	shards;
+  private AEMonitor					shards_mon;
+  private long						last_rebalance;
+  private long						idle_time;
+  private volatile boolean			idle;
+  
   public ReadController() {
      
     //start read handler processing
@@ -218,9 +227,7 @@ public class ReadController implements AzureusCoreStatsProvider{
           check_high_first = false;
           if( !doHighPriorityRead() ) {
             if( !doNormalPriorityRead() ) {
-            	if ( read_waiter.waitForEvent( IDLE_SLEEP_TIME )){
-            		wait_count++;
-            	}
+            	waitForEvent();
             }
           }
         }
@@ -228,9 +235,7 @@ public class ReadController implements AzureusCoreStatsProvider{
           check_high_first = true;
           if( !doNormalPriorityRead() ) {
             if( !doHighPriorityRead() ) {
-            	if ( read_waiter.waitForEvent( IDLE_SLEEP_TIME )){
-            		wait_count++;
-            	}
+            	waitForEvent();
             }
           }
         }
@@ -238,9 +243,100 @@ public class ReadController implements AzureusCoreStatsProvider{
       catch( Throwable t ) {
         Debug.out( "readProcessorLoop() EXCEPTION: ", t );
       }
+      
+      if ( shards != null ){
+    	  
+    	  long	now = SystemTime.getMonotonousTime();
+    	  
+    	  if ( now - last_rebalance >= REBALANCE_PERIOD ){
+    		  
+    		  try{
+    			  rebalance( now - last_rebalance );
+    			  
+    		  }catch( Throwable t ){
+    			  
+    			  Debug.out( "rebalance() EXCEPTION: ", t );
+    		  }
+    		  
+    		  last_rebalance = now;
+    	  }
+      }
     }
   }
   
+  private void
+  waitForEvent()
+  {
+	  long	start = SystemTime.getMonotonousTime();
+	  
+	  if ( read_waiter.waitForEvent( IDLE_SLEEP_TIME )){
+		  wait_count++;
+	  }
+	  
+	  idle_time += SystemTime.getMonotonousTime() - start;
+  }
+  
+  	/**
+  	 * Called by the processor thread between reads, so none of our entities is being
+  	 * processed. If we were busy all the period while another shard sat idle, we hand
+  	 * it some of our entities. An entity only ever belongs to one shard so it is never
+  	 * processed by two threads at once.
+  	 */
+  
+  private void
+  rebalance(
+	long	period )
+  {
+	  long	idle_millis = idle_time;
+	  
+	  idle_time = 0;
+	  
+	  idle = idle_millis * 4 >= period;
+	  
+	  if ( idle_millis * 10 > period ){
+		  
+		  return;
+	  }
+	  
+	  ReadController	target = null;
+	  
+	  for ( ReadController shard: shards ){
+		  
+		  if ( shard != this && shard.idle ){
+			  
+			  if ( target == null || shard.getEntityCount() < target.getEntityCount()){
+				  
+				  target = shard;
+			  }
+		  }
+	  }
+	  
+	  if ( target == null ){
+		  
+		  return;
+	  }
+	  
+	  try{
+		  shards_mon.enter();
+		  
+		  ArrayList ref = normal_priority_entities;
+		  
+		  int	moves = Math.min( MAX_REBALANCE_MOVES, ( ref.size() - target.normal_priority_entities.size()) / 2 );
+		  
+		  for ( int i=0; i<moves; i++ ){
+			  
+			  RateControlledEntity entity = (RateControlledEntity)ref.get( ref.size() - 1 - i );
+			  
+			  removeReadEntity( entity );
+			  
+			  target.addReadEntity( entity );
+		  }
+	  }finally{
+		  
+		  shards_mon.exit();
+	  }
+  }
+  
   
   private boolean 
   doNormalPriorityRead() 
@@ -280,9 +376,7 @@ public class ReadController implements AzureusCoreStatsProvider{
 					  
 					  	// force a wait
 					  
-					  if ( read_waiter.waitForEvent( IDLE_SLEEP_TIME )){
-		            		wait_count++;
-					  }
+					  waitForEvent();
 					  
 					  return( false);
 				  }
@@ -398,4 +492,19 @@ public class ReadController implements AzureusCoreStatsProvider{
   {
 	  return( entity_count );
   }
+  
+  /**
+   * Lets this controller move entities to the other ones when it can't keep up alone.
+   * @param _shards the read controllers of the partitioned entities, including this one but not the
+   * one of the entities with no partition
+   * @param _shards_mon held while entities are removed from or moved between them
+   */
+  public void
+  setShards(
+	ReadController[]	_shards,
+	AEMonitor			_shards_mon )
+  {
+	  shards_mon	= _shards_mon;
+	  shards		= _shards;
+  }
 }
@@ -42,6 +42,9 @@ public class WriteController implements AzureusCoreStatsProvider{
 	private static int 		IDLE_SLEEP_TIME  	= 50;
 	private static boolean	AGGRESIVE_WRITE		= false;
 	private static int		BOOSTER_GIFT 		= 5*1024;
+	
+	private static final int	REBALANCE_PERIOD	= 1000;
+	private static final int	MAX_REBALANCE_MOVES	= 16;
 
 	static{
 		COConfigurationManager.addAndFireParameterListeners(
@@ -92,6 +95,12 @@ public class WriteController implements AzureusCoreStatsProvider{
   
   private int	entity_count = 0;
   
+  private volatile WriteController[]	shards;
+  private AEMonitor						shards_mon;
+  private long							last_rebalance;
+  private long							idle_time;
+  private volatile boolean				idle;
+  
   /**
    * Create a new write controller.
    */
@@ -246,9 +255,7 @@ public class WriteController implements AzureusCoreStatsProvider{
           check_high_first = false;
           if( !doHighPriorityWrite() ) {
             if( !doNormalPriorityWrite() ) {
-              if ( write_waiter.waitForEvent( IDLE_SLEEP_TIME )){
-            	  wait_count++;
-              }
+              waitForEvent();
             }
           }
         }
@@ -256,9 +263,7 @@ public class WriteController implements AzureusCoreStatsProvider{
           check_high_first = true;
           if( !doNormalPriorityWrite() ) {
             if( !doHighPriorityWrite() ) {
-            	if ( write_waiter.waitForEvent( IDLE_SLEEP_TIME )){
-            		wait_count++;
-            	}
+            	waitForEvent();
             }
           }
         }
@@ -266,6 +271,19 @@ public class WriteController implements AzureusCoreStatsProvider{
       catch( Throwable t ) {
         Debug.out( "writeProcessorLoop() EXCEPTION: ", t );
       }
+      
+      if ( shards != null && process_loop_time - last_rebalance >= REBALANCE_PERIOD ){
+    	  
+    	  try{
+    		  rebalance( process_loop_time - last_rebalance );
+    		  
+    	  }catch( Throwable t ){
+    		  
+    		  Debug.out( "rebalance() EXCEPTION: ", t );
+    	  }
+    	  
+    	  last_rebalance = process_loop_time;
+      }
             
       if ( process_loop_time - last_check > 5000 ){
     	  
@@ -345,6 +363,79 @@ public class WriteController implements AzureusCoreStatsProvider{
   }
   
   
+  private void
+  waitForEvent()
+  {
+	  long	start = SystemTime.getMonotonousTime();
+	  
+	  if ( write_waiter.waitForEvent( IDLE_SLEEP_TIME )){
+		  wait_count++;
+	  }
+	  
+	  idle_time += SystemTime.getMonotonousTime() - start;
+  }
+  
+  	/**
+  	 * Called by the processor thread between writes, so none of our entities is being
+  	 * processed. If we were busy all the period while another shard sat idle, we hand
+  	 * it some of our normal priority entities. An entity only ever belongs to one shard
+  	 * so it is never processed by two threads at once.
+  	 */
+  
+  private void
+  rebalance(
+	long	period )
+  {
+	  long	idle_millis = idle_time;
+	  
+	  idle_time = 0;
+	  
+	  idle = idle_millis * 4 >= period;
+	  
+	  if ( idle_millis * 10 > period ){
+		  
+		  return;
+	  }
+	  
+	  WriteController	target = null;
+	  
+	  for ( WriteController shard: shards ){
+		  
+		  if ( shard != this && shard.idle ){
+			  
+			  if ( target == null || shard.getEntityCount() < target.getEntityCount()){
+				  
+				  target = shard;
+			  }
+		  }
+	  }
+	  
+	  if ( target == null ){
+		  
+		  return;
+	  }
+	  
+	  try{
+		  shards_mon.enter();
+		  
+		  ArrayList<RateControlledEntity> ref = normal_priority_entities;
+		  
+		  int	moves = Math.min( MAX_REBALANCE_MOVES, ( ref.size() - target.normal_priority_entities.size()) / 2 );
+		  
+		  for ( int i=0; i<moves; i++ ){
+			  
+			  RateControlledEntity entity = ref.get( ref.size() - 1 - i );
+			  
+			  removeWriteEntity( entity );
+			  
+			  target.addWriteEntity( entity );
+		  }
+	  }finally{
+		  
+		  shards_mon.exit();
+	  }
+  }
+  
   private boolean 
   doNormalPriorityWrite() 
   {
@@ -664,4 +755,19 @@ public class WriteController implements AzureusCoreStatsProvider{
   {
 	  return( entity_count );
   }
+  
+  /**
+   * Lets this controller move entities to the other ones when it can't keep up alone.
+   * @param _shards the write controllers of the partitioned entities, including this one but not the
+   * one of the entities with no partition
+   * @param _shards_mon held while entities are removed from or moved between them
+   */
+  public void
+  setShards(
+	WriteController[]	_shards,
+	AEMonitor			_shards_mon )
+  {
+	  shards_mon	= _shards_mon;
+	  shards		= _shards;
+  }
 }
@@ -180,6 +180,10 @@ implements PiecePicker
 	/** the priority for starting each piece/base priority for resuming */
 	private int[]				startPriorities;
 
+	/** ascending numbers of the undone pieces with a start priority, null when a piece went undone since */
+	private volatile int[]		neededPieces;
+	private volatile long		neededPiecesChange;
+
 	protected volatile boolean	hasNeededUndonePiece;
 	protected volatile long		neededUndonePieceChange;
 
@@ -1075,8 +1079,12 @@ implements PiecePicker
 		priorityFileChange =filePriorityChange;
 		priorityAvailChange =availabilityChange;
 
+		final long		neededChange	=neededPiecesChange;
+
 		boolean			foundPieceToDownload =false;
 		final int[]		newPriorities   =new int[nbPieces];
+		int[]			newNeeded		=new int[64];
+		int				nbNeeded		=0;
 
 		// locals are a tiny bit faster
 		final boolean firstPiecePriorityL =firstPiecePriority;
@@ -1181,10 +1189,19 @@ implements PiecePicker
 				}
 
 				newPriorities[i] =startPriority;
+
+				if (startPriority >=0)
+				{
+					if (nbNeeded ==newNeeded.length)
+						newNeeded =Arrays.copyOf(newNeeded, Math.min(nbPieces, nbNeeded *2));
+					newNeeded[nbNeeded++] =i;
+				}
 			}
 		} catch (Throwable e)
 		{
 			Debug.printStackTrace(e);
+
+			newNeeded =null;
 		}
 
 		if (foundPieceToDownload !=hasNeededUndonePiece)
@@ -1194,6 +1211,21 @@ implements PiecePicker
 		}
 
 		startPriorities =newPriorities;
+
+		// a piece that went undone while we were computing isn't in the list, leave it to the full scan
+		try
+		{	availabilityMon.enter();
+		neededPieces =newNeeded ==null ||neededChange !=neededPiecesChange ?null :Arrays.copyOf(newNeeded, nbNeeded);
+		} finally {availabilityMon.exit();}
+	}
+
+	/**
+	 * @return the position of the first entry of the ascending pieces that is >= pieceNumber
+	 */
+	protected static int firstNeededPiece(final int[] pieces, final int pieceNumber)
+	{
+		final int pos =Arrays.binarySearch(pieces, pieceNumber);
+		return pos >=0 ?pos :-pos -1;
 	}
 
 
@@ -1717,8 +1749,18 @@ implements PiecePicker
         }
         
 			// Try to continue a piece already loaded, according to priority
+        	// only the pieces we need are looked at, done and unwanted ones have nothing to
+        	// offer, without a current index fall back to everything the peer has
+        
+        final int[]	candidates =neededPieces;
+        final int	cEnd =candidates ==null ?endI +1 :candidates.length;
         
-        for (i =startI; i <=endI; i++){
+        for (int c =candidates ==null ?startI :firstNeededPiece(candidates, startI); c <cEnd; c++){
+        
+        	i =candidates ==null ?c :candidates[c];
+        	
+        	if (i >endI)
+        		break;
         
         		// is the piece available from this peer?
         	
@@ -2781,6 +2823,8 @@ implements PiecePicker
 				else
 					availabilityDrift++;
 				availabilityChange++;
+				neededPiecesChange++;
+				neededPieces =null;
 				} finally {availabilityMon.exit();}
 				nbPiecesDone--;
 				if (dmPiece.calcNeeded() &&!hasNeededUndonePiece)
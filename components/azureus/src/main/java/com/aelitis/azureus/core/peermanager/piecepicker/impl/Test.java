@@ -0,0 +1,377 @@
+/*
+ * Created on 18-Oct-2026
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (C) 2026 FrostWire(TM), All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.aelitis.azureus.core.peermanager.piecepicker.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.disk.DiskManager;
+import org.gudy.azureus2.core3.disk.DiskManagerFileInfo;
+import org.gudy.azureus2.core3.disk.DiskManagerPiece;
+import org.gudy.azureus2.core3.peer.PEPeer;
+import org.gudy.azureus2.core3.peer.PEPeerStats;
+import org.gudy.azureus2.core3.peer.PEPiece;
+import org.gudy.azureus2.core3.peer.impl.PEPeerControl;
+import org.gudy.azureus2.core3.peer.impl.PEPeerTransport;
+
+import com.aelitis.azureus.core.peermanager.piecepicker.util.BitFlags;
+
+/**
+ * Times PiecePickerImpl.getRequestCandidate() walking every piece the peer has
+ * against walking the needed pieces index, late in a large download. The picker
+ * runs on stub peers and disk manager, with no piece started.
+ *
+ * Usage: Test [pieces] [percent done] [peers]
+ */
+
+public class
+Test
+{
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	nb_pieces		= args.length > 0?Integer.parseInt( args[0] ):100000;
+		int	percent_done	= args.length > 1?Integer.parseInt( args[1] ):99;
+		int	nb_peers		= args.length > 2?Integer.parseInt( args[2] ):200;
+
+		new Test( nb_pieces, percent_done, nb_peers ).run();
+	}
+
+	private final Random			random = new Random(0);
+
+	private final PiecePickerImpl	picker;
+	private final PEPeerTransport[]	peers;
+	private final int[]				needed_pieces;
+
+	private final Method			get_request_candidate;
+	private final Field				needed_pieces_field;
+
+		// sum of every pick, so the walks can't be optimised away
+
+	private long					checksum;
+
+	protected
+	Test(
+		int		nb_pieces,
+		int		percent_done,
+		int		nb_peers )
+
+		throws Exception
+	{
+		final boolean[]	done = new boolean[nb_pieces];
+
+		int[]	needed		= new int[nb_pieces];
+		int		nb_needed	= 0;
+
+		for (int i=0;i<nb_pieces;i++){
+
+			if ( random.nextInt( 100 ) < percent_done ){
+
+				done[i] = true;
+
+			}else{
+
+				needed[nb_needed++] = i;
+			}
+		}
+
+		needed_pieces = Arrays.copyOf( needed, nb_needed );
+
+		final DiskManagerPiece[]	dm_pieces = new DiskManagerPiece[nb_pieces];
+
+		for (int i=0;i<nb_pieces;i++){
+
+			Map<String,Object>	answers = new HashMap<String,Object>();
+
+			answers.put( "getPieceNumber", i );
+			answers.put( "isDone", done[i] );
+			answers.put( "isDownloadable", !done[i] );
+			answers.put( "isNeeded", !done[i] );
+			answers.put( "calcNeeded", !done[i] );
+
+			dm_pieces[i] = stub( DiskManagerPiece.class, answers );
+		}
+
+			// most peers are seeds or nearly so by the end of a download
+
+		peers = new PEPeerTransport[nb_peers];
+
+		PEPeerStats	stats = stub( PEPeerStats.class, new HashMap<String,Object>());
+
+		for (int i=0;i<nb_peers;i++){
+
+			BitFlags	flags = new BitFlags( nb_pieces );
+
+			int	percent = 50 + random.nextInt( 51 );
+
+			for (int j=0;j<nb_pieces;j++){
+
+				if ( random.nextInt( 100 ) < percent ){
+
+					flags.set( j );
+				}
+			}
+
+			Map<String,Object>	answers = new HashMap<String,Object>();
+
+			answers.put( "getPeerState", PEPeer.TRANSFERING );
+			answers.put( "getAvailable", flags );
+			answers.put( "getStats", stats );
+			answers.put( "getIp", "10.0.0." + i );
+			answers.put( "getLastPiece", -1 );
+
+			peers[i] = stub( PEPeerTransport.class, answers );
+		}
+
+		Map<String,Object>	dm_answers = new HashMap<String,Object>();
+
+		dm_answers.put( "getPieces", dm_pieces );
+		dm_answers.put( "getNbPieces", nb_pieces );
+		dm_answers.put( "getFiles", new DiskManagerFileInfo[0] );
+
+		Map<String,Object>	pc_answers = new HashMap<String,Object>();
+
+		pc_answers.put( "getDiskManager", stub( DiskManager.class, dm_answers ));
+		pc_answers.put( "getPieces", new PEPiece[nb_pieces] );
+		pc_answers.put( "getPeers", Collections.unmodifiableList( new ArrayList<PEPeerTransport>( Arrays.asList( peers ))));
+
+		picker = new PiecePickerImpl( stub( PEPeerControl.class, pc_answers ));
+
+			// as computeBasePriorities() leaves them, done pieces have no start priority. Needed
+			// ones get distinct priorities so every walk has a single best candidate and the
+			// random choice among equal ones doesn't get in the way of the comparison
+
+		int[]	priorities = new int[nb_needed];
+
+		for (int i=0;i<nb_needed;i++){
+
+			priorities[i] = i;
+		}
+
+		for (int i=nb_needed-1;i>0;i--){
+
+			int	j	= random.nextInt( i + 1 );
+			int	t	= priorities[i];
+
+			priorities[i]	= priorities[j];
+			priorities[j]	= t;
+		}
+
+		int[]	start_priorities = new int[nb_pieces];
+
+		Arrays.fill( start_priorities, Integer.MIN_VALUE );
+
+		for (int i=0;i<nb_needed;i++){
+
+			start_priorities[needed_pieces[i]] = priorities[i];
+		}
+
+		Field	start_priorities_field = PiecePickerImpl.class.getDeclaredField( "startPriorities" );
+
+		start_priorities_field.setAccessible( true );
+
+		start_priorities_field.set( picker, start_priorities );
+
+		needed_pieces_field = PiecePickerImpl.class.getDeclaredField( "neededPieces" );
+
+		needed_pieces_field.setAccessible( true );
+
+		get_request_candidate = PiecePickerImpl.class.getDeclaredMethod( "getRequestCandidate", PEPeerTransport.class );
+
+		get_request_candidate.setAccessible( true );
+
+		System.out.println(
+				"pieces=" + nb_pieces + ", needed=" + nb_needed + ", peers=" + nb_peers );
+	}
+
+	protected void
+	run()
+
+		throws Exception
+	{
+			// same pick both ways, or the comparison is meaningless
+
+		for (int i=0;i<peers.length;i++){
+
+			setCandidates( null );
+
+			int	full	= pick( peers[i] );
+
+			setCandidates( needed_pieces );
+
+			int	indexed	= pick( peers[i] );
+
+			if ( full != indexed ){
+
+				System.out.println( "peer " + i + ": full walk picked " + full + ", index picked " + indexed );
+
+				return;
+			}
+		}
+
+		for (int round=0;round<5;round++){
+
+			System.out.println(
+					"round " + round +
+					": full walk " + time( null ) + " picks/sec" +
+					", needed index " + time( needed_pieces ) + " picks/sec" );
+		}
+
+		System.out.println( "checksum " + checksum );
+	}
+
+	protected void
+	setCandidates(
+		int[]	candidates )
+
+		throws Exception
+	{
+			// a null index makes the picker fall back to the full walk
+
+		needed_pieces_field.set( picker, candidates );
+	}
+
+	protected long
+	time(
+		int[]	candidates )
+
+		throws Exception
+	{
+		setCandidates( candidates );
+
+		long	picks	= 0;
+		long	start	= System.nanoTime();
+
+		while( System.nanoTime() - start < 1000*1000*1000L ){
+
+			for (int i=0;i<peers.length;i++){
+
+				checksum += pick( peers[i] );
+			}
+
+			picks += peers.length;
+		}
+
+		long	elapsed = System.nanoTime() - start;
+
+		return( picks * 1000*1000*1000L / elapsed );
+	}
+
+	protected int
+	pick(
+		PEPeerTransport	peer )
+
+		throws Exception
+	{
+		return(((Integer)get_request_candidate.invoke( picker, peer )).intValue());
+	}
+
+		/**
+		 * An implementation of the interface answering the given methods by name, and
+		 * every other method with the default value of its return type
+		 */
+
+	private static <T> T
+	stub(
+		final Class<T>				type,
+		final Map<String,Object>	answers )
+	{
+		return( type.cast( Proxy.newProxyInstance(
+			type.getClassLoader(),
+			new Class[]{ type },
+			new InvocationHandler()
+			{
+				public Object
+				invoke(
+					Object		proxy,
+					Method		method,
+					Object[]	args )
+				{
+					String	name = method.getName();
+
+					if ( answers.containsKey( name )){
+
+						return( answers.get( name ));
+					}
+
+					if ( name.equals( "equals" ) && args != null && args.length == 1 ){
+
+						return( proxy == args[0] );
+
+					}else if ( name.equals( "hashCode" ) && args == null ){
+
+						return( System.identityHashCode( proxy ));
+
+					}else if ( name.equals( "toString" ) && args == null ){
+
+						return( type.getSimpleName());
+					}
+
+					Class<?>	ret = method.getReturnType();
+
+					if ( !ret.isPrimitive() || ret == void.class ){
+
+						return( null );
+
+					}else if ( ret == boolean.class ){
+
+						return( false );
+
+					}else if ( ret == char.class ){
+
+						return((char)0 );
+
+					}else if ( ret == float.class ){
+
+						return( 0f );
+
+					}else if ( ret == double.class ){
+
+						return( 0d );
+
+					}else if ( ret == long.class ){
+
+						return( 0L );
+
+					}else if ( ret == byte.class ){
+
+						return((byte)0 );
+
+					}else if ( ret == short.class ){
+
+						return((short)0 );
+					}
+
+					return( 0 );
+				}
+			})));
+	}
+}
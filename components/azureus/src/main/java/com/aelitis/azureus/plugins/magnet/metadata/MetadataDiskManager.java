@@ -214,6 +214,16 @@ public class MetadataDiskManager implements DiskManager {
         return 0;
     }
 
+    @Override
+    public long getRecheckRate() {
+        return 0;
+    }
+
+    @Override
+    public long getRecheckETA() {
+        return -1;
+    }
+
     @Override
     public int getCacheMode() {
         return 0;
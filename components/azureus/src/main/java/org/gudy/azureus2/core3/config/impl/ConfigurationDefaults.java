@@ -455,6 +455,7 @@ public class ConfigurationDefaults {
     def.put( "Alert on close", FALSE );
     def.put( "diskmanager.friendly.hashchecking", FALSE );
     def.put( "diskmanager.hashchecking.smallestfirst", TRUE );    
+    def.put( "diskmanager.hashchecking.perdevice", TRUE );
     def.put( "Default Start Torrents Stopped", FALSE);
     def.put( "Server Enable UDP", TRUE); // this actually means the UDP tracker client
     def.put( "diskmanager.perf.cache.enable", TRUE);
@@ -510,8 +511,8 @@ public class ConfigurationDefaults {
     def.put( "network.control.write.aggressive", FALSE );
     def.put( "network.control.read.idle.time", new Long(50));
     def.put( "network.control.read.aggressive", FALSE );
-    def.put( "network.control.read.processor.count", new Long(1));
-    def.put( "network.control.write.processor.count", new Long(1));
+    def.put( "network.control.read.processor.count", ZERO );	// one per core
+    def.put( "network.control.write.processor.count", ZERO );
     def.put( "peermanager.schedule.time", new Long(100));
     def.put( "enable_small_osx_fonts", TRUE );
     def.put( "Play Download Finished Announcement", FALSE);
@@ -243,6 +243,22 @@ DiskManager
 	
 	public int 
 	getCompleteRecheckStatus();
+	
+		/**
+		 * returns the read rate of the recheck in progress in bytes/sec, 0 if none
+		 * @return
+		 */
+	
+	public long
+	getRecheckRate();
+	
+		/**
+		 * returns the estimated seconds until the recheck in progress is done, -1 if unknown
+		 * @return
+		 */
+	
+	public long
+	getRecheckETA();
   
 		/**
 		 * method for checking that the block details are sensible
@@ -1752,6 +1752,20 @@ DiskManagerImpl
       return ( checker.getCompleteRecheckStatus());
     }
 
+    public long getRecheckRate()
+    {
+      DiskManagerRecheckInstance inst = recheck_scheduler.getInstance( this );
+
+      return ( inst == null ? 0 : inst.getRate());
+    }
+
+    public long getRecheckETA()
+    {
+      DiskManagerRecheckInstance inst = recheck_scheduler.getInstance( this );
+
+      return ( inst == null ? -1 : inst.getETA());
+    }
+
 	public void
 	setPieceCheckingEnabled(
 		boolean		enabled )
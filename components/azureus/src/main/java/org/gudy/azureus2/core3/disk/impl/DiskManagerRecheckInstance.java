@@ -22,27 +22,58 @@
 
 package org.gudy.azureus2.core3.disk.impl;
 
+import org.gudy.azureus2.core3.util.SystemTime;
+
 public class 
 DiskManagerRecheckInstance 
 {
+		// pieces queued ahead of the one being hashed, so the disk keeps reading sequentially
+	
+	private static final int	READ_AHEAD_BYTES	= 4*1024*1024;
+	private static final int	READ_AHEAD_MIN		= 2;
+	private static final int	READ_AHEAD_MAX		= 16;
+	
 	private DiskManagerRecheckScheduler	scheduler;
+	private DiskManagerHelper			helper;
+	private String						device;
+	private long						size;
 	private long						metric;
 	private int							piece_length;
 	private boolean						low_priority;
 	
+	private volatile long				start_time	= -1;
+	private volatile long				bytes_permitted;
+	
 	protected
 	DiskManagerRecheckInstance(
 		DiskManagerRecheckScheduler	_scheduler,
+		DiskManagerHelper			_helper,
+		String						_device,
 		long						_size,
 		int							_piece_length,
 		boolean						_low_priority )
 	{
 		scheduler		= _scheduler;
+		helper			= _helper;
+		device			= _device;
+		size			= _size;
 		metric			= (_low_priority?0:0x7000000000000000L) + _size;
 		piece_length	= _piece_length;
 		low_priority	= _low_priority;
 	}
 	
+	protected DiskManagerHelper
+	getHelper()
+	{
+		return( helper );
+	}
+	
+	protected String
+	getDevice()
+	{
+		return( device );
+	}
+	
 	protected long
 	getMetric()
 	{
@@ -61,6 +92,71 @@ DiskManagerRecheckInstance
 		return( low_priority );
 	}
 	
+		/**
+		 * @return how many pieces to have outstanding with the checker at a time
+		 */
+	
+	public int
+	getReadAheadPieces()
+	{
+		int	pieces = READ_AHEAD_BYTES / Math.max( 1, piece_length );
+		
+		return( Math.max( READ_AHEAD_MIN, Math.min( READ_AHEAD_MAX, pieces )));
+	}
+	
+	protected void
+	permitted()
+	{
+		if ( start_time == -1 ){
+			
+			start_time = SystemTime.getMonotonousTime();
+		}
+		
+		bytes_permitted += piece_length;
+	}
+	
+		/**
+		 * @return bytes per second read since the recheck got going, 0 while it is still queued
+		 */
+	
+	public long
+	getRate()
+	{
+		long	start = start_time;
+		
+		if ( start == -1 ){
+			
+			return( 0 );
+		}
+		
+		long	elapsed = SystemTime.getMonotonousTime() - start;
+		
+		if ( elapsed <= 0 ){
+			
+			return( 0 );
+		}
+		
+		return( bytes_permitted * 1000 / elapsed );
+	}
+	
+		/**
+		 * @return estimated seconds left, -1 if unknown. Pieces that don't need checking are
+		 * skipped without being counted so this is an upper bound
+		 */
+	
+	public long
+	getETA()
+	{
+		long	rate = getRate();
+		
+		if ( rate <= 0 ){
+			
+			return( -1 );
+		}
+		
+		return( Math.max( 0, size - bytes_permitted ) / rate );
+	}
+	
 	public boolean
 	getPermission()
 	{
@@ -22,6 +22,9 @@
 
 package org.gudy.azureus2.core3.disk.impl;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -30,13 +33,26 @@ import java.util.List;
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.config.ParameterListener;
 import org.gudy.azureus2.core3.util.AEMonitor;
+import org.gudy.azureus2.core3.util.Constants;
+import org.gudy.azureus2.core3.util.Debug;
 import org.gudy.azureus2.core3.util.RealTimeInfo;
+import org.gudy.azureus2.core3.util.SystemTime;
+
+	/**
+	 * Rechecks are queued per storage device. The first instance on each device gets
+	 * to run, so torrents on different disks are checked at the same time while the
+	 * ones sharing a disk still read one after the other rather than seeking between
+	 * each other's files.
+	 */
 
 public class 
 DiskManagerRecheckScheduler 
 {
+	private static final long	MOUNTS_REFRESH_PERIOD	= 60*1000;
+	
 	private static boolean 	friendly_hashing;
 	private static boolean 	smallest_first;
+	private static boolean 	per_device;
 
     static{
     	
@@ -47,18 +63,24 @@ DiskManagerRecheckScheduler
     	    {
     	   	      friendly_hashing 	= COConfigurationManager.getBooleanParameter( "diskmanager.friendly.hashchecking" );
     	   	      smallest_first	= COConfigurationManager.getBooleanParameter( "diskmanager.hashchecking.smallestfirst" ); 
+    	   	      per_device		= COConfigurationManager.getBooleanParameter( "diskmanager.hashchecking.perdevice" ); 
     	    }
     	 };
 
  		COConfigurationManager.addAndFireParameterListeners(
  				new String[]{
  					"diskmanager.friendly.hashchecking",
- 					"diskmanager.hashchecking.smallestfirst" },
+ 					"diskmanager.hashchecking.smallestfirst",
+ 					"diskmanager.hashchecking.perdevice" },
  				param_listener );
     }
     
-	private List		instances		= new ArrayList();
-	private AEMonitor	instance_mon	= new AEMonitor( "DiskManagerRecheckScheduler" );
+	private static List<String>	mount_points;
+	private static long			mount_points_time;
+	private static AEMonitor	class_mon	= new AEMonitor( "DiskManagerRecheckScheduler:class" );
+	
+	private List<DiskManagerRecheckInstance>	instances		= new ArrayList<DiskManagerRecheckInstance>();
+	private AEMonitor							instance_mon	= new AEMonitor( "DiskManagerRecheckScheduler" );
 	
 	
 	public DiskManagerRecheckInstance
@@ -66,12 +88,16 @@ DiskManagerRecheckScheduler
 		DiskManagerHelper	helper,
 		boolean				low_priority )
 	{
+		String	device = getDevice( helper.getSaveLocation());
+		
 		try{
 			instance_mon.enter();
 			
 			DiskManagerRecheckInstance	res = 
 				new DiskManagerRecheckInstance( 
 						this, 
+						helper,
+						device,
 						helper.getTorrent().getSize(),
 						(int)helper.getTorrent().getPieceLength(),
 						low_priority );
@@ -82,14 +108,14 @@ DiskManagerRecheckScheduler
 				
 				Collections.sort(
 						instances,
-						new Comparator()
+						new Comparator<DiskManagerRecheckInstance>()
 						{
 							public int
 							compare(
-								Object	o1,
-								Object	o2 )
+								DiskManagerRecheckInstance	o1,
+								DiskManagerRecheckInstance	o2 )
 							{
-								long	comp = ((DiskManagerRecheckInstance)o1).getMetric() - ((DiskManagerRecheckInstance)o2).getMetric();
+								long	comp = o1.getMetric() - o2.getMetric();
 								
 								if ( comp < 0 ){
 									
@@ -114,6 +140,53 @@ DiskManagerRecheckScheduler
 		}
 	}
 	
+		/**
+		 * @return the recheck in progress or queued for the disk manager, null if none
+		 */
+	
+	public DiskManagerRecheckInstance
+	getInstance(
+		DiskManagerHelper	helper )
+	{
+		try{
+			instance_mon.enter();
+			
+			for ( DiskManagerRecheckInstance instance: instances ){
+				
+				if ( instance.getHelper() == helper ){
+					
+					return( instance );
+				}
+			}
+			
+			return( null );
+			
+		}finally{
+			
+			instance_mon.exit();
+		}
+	}
+	
+	protected boolean
+	isFirstOnDevice(
+		DiskManagerRecheckInstance	instance )
+	{
+		for ( DiskManagerRecheckInstance other: instances ){
+			
+			if ( other == instance ){
+				
+				return( true );
+			}
+			
+			if ( !per_device || other.getDevice().equals( instance.getDevice())){
+				
+				return( false );
+			}
+		}
+		
+		return( false );
+	}
+	
 	protected boolean
 	getPermission(
 		DiskManagerRecheckInstance	instance )
@@ -124,7 +197,7 @@ DiskManagerRecheckScheduler
 		try{
 			instance_mon.enter();
 
-			if ( instances.get(0) == instance ){
+			if ( isFirstOnDevice( instance )){
 					    
 				boolean	low_priority = instance.isLowPriority();
 				
@@ -157,6 +230,8 @@ DiskManagerRecheckScheduler
 	  				}
 					
 		            result	= true;
+		            
+		            instance.permitted();
 				}
 			}
 		}finally{
@@ -190,4 +265,140 @@ DiskManagerRecheckScheduler
 			instance_mon.exit();
 		}	
 	}
+	
+		/**
+		 * Works out which storage device a path lives on, without java.nio.file the best we
+		 * can do is the drive on Windows, the mount point from /proc/mounts on Linux and the
+		 * volume on OSX. Different partitions of one disk look like different devices.
+		 */
+	
+	protected static String
+	getDevice(
+		File		file )
+	{
+		if ( file == null ){
+			
+			return( "" );
+		}
+		
+		String	path;
+		
+		try{
+			path = file.getCanonicalPath();
+			
+		}catch( Throwable e ){
+			
+			path = file.getAbsolutePath();
+		}
+		
+		if ( Constants.isWindows ){
+			
+			if ( path.startsWith( "\\\\" )){
+				
+					// \\server\share
+				
+				int	pos = path.indexOf( '\\', 2 );
+				
+				if ( pos != -1 ){
+					
+					pos = path.indexOf( '\\', pos + 1 );
+				}
+				
+				return(( pos == -1 ? path : path.substring( 0, pos )).toLowerCase());
+			}
+			
+			return( path.length() >= 2 && path.charAt(1) == ':' ? path.substring( 0, 2 ).toUpperCase() : "" );
+			
+		}else if ( Constants.isOSX ){
+			
+			if ( path.startsWith( "/Volumes/" )){
+				
+				int	pos = path.indexOf( '/', 9 );
+				
+				return( pos == -1 ? path : path.substring( 0, pos ));
+			}
+			
+			return( "/" );
+		}
+		
+		String	device = "/";
+		
+		for ( String mount: getMountPoints()){
+			
+			if ( mount.length() > device.length() && ( path.equals( mount ) || path.startsWith( mount + "/" ))){
+				
+				device = mount;
+			}
+		}
+		
+		return( device );
+	}
+	
+	private static List<String>
+	getMountPoints()
+	{
+		try{
+			class_mon.enter();
+			
+			long	now = SystemTime.getMonotonousTime();
+			
+			if ( mount_points == null || now - mount_points_time > MOUNTS_REFRESH_PERIOD ){
+				
+				List<String>	mounts = new ArrayList<String>();
+				
+				File	proc_mounts = new File( "/proc/mounts" );
+				
+				if ( Constants.isLinux && proc_mounts.canRead()){
+					
+					BufferedReader	br = null;
+					
+					try{
+						br = new BufferedReader( new FileReader( proc_mounts ));
+						
+						while( true ){
+							
+							String	line = br.readLine();
+							
+							if ( line == null ){
+								
+								break;
+							}
+							
+							String[]	bits = line.split( " " );
+							
+							if ( bits.length > 1 ){
+								
+									// spaces in mount points are escaped as \040
+								
+								mounts.add( bits[1].replace( "\\040", " " ));
+							}
+						}
+					}catch( Throwable e ){
+						
+						Debug.out( e );
+						
+					}finally{
+						
+						if ( br != null ){
+							
+							try{
+								br.close();
+								
+							}catch( Throwable e ){
+							}
+						}
+					}
+				}
+				
+				mount_points		= mounts;
+				mount_points_time	= now;
+			}
+			
+			return( mount_points );
+			
+		}finally{
+			
+			class_mon.exit();
+		}
+	}
 }
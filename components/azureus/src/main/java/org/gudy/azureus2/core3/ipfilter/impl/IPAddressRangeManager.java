@@ -45,13 +45,13 @@ IPAddressRangeManager
 
 	protected ArrayList entries = new ArrayList();
 	
-	protected long		total_span;
-	
-	protected boolean	rebuild_required;
-	protected long		last_rebuild_time;
-	
-	protected IpRange[] mergedRanges = new IpRange[0];
-	
+	protected volatile boolean	rebuild_required;
+	protected long				last_rebuild_time;
+
+		// immutable once published, lookups use it without taking the monitor
+
+	protected volatile RangeTable	table = new RangeTable( new IpRange[0] );
+
 	protected AEMonitor	this_mon	= new AEMonitor( "IPAddressRangeManager" );
 
 	protected
@@ -104,26 +104,14 @@ IPAddressRangeManager
 			return( null );
 		}
 		
-		try{
-			this_mon.enter();
-			
-			long address_long = addressToInt( ip );
-			
-			if ( address_long < 0 ){
-				
-				address_long += 0x100000000L;
-			}
-			
-			Object res = isInRange( address_long );
-			
-			// LGLogger.log( "IPAddressRangeManager: checking '" + ip + "' against " + entries.size() + "/" + merged_entries.length + " -> " + res );
-			
-			return( res );
-						
-		}finally{
+		long address_long = addressToInt( ip );
+		
+		if ( address_long < 0 ){
 			
-			this_mon.exit();
+			address_long += 0x100000000L;
 		}
+		
+		return( isInRange( address_long ));
 	}
 	
 	public Object
@@ -137,126 +125,26 @@ IPAddressRangeManager
 			return( null );
 		}
 		
-		try{
-			this_mon.enter();
-			
-			long address_long = addressToInt( ip );
-			
-			if ( address_long < 0 ){
-				
-				address_long += 0x100000000L;
-			}
-			
-			Object res = isInRange( address_long );
-			
-			// LGLogger.log( "IPAddressRangeManager: checking '" + ip + "' against " + entries.size() + "/" + merged_entries.length + " -> " + res );
-			
-			return( res );
-						
-		}finally{
+		long address_long = addressToInt( ip );
+		
+		if ( address_long < 0 ){
 			
-			this_mon.exit();
+			address_long += 0x100000000L;
 		}
+		
+		return( isInRange( address_long ));
 	}
 	
 	protected Object
 	isInRange(
 		long	address_long )
 	{
-		try{
-			this_mon.enter();
+		if ( rebuild_required ){
 			
 			checkRebuild();
-			
-			if ( mergedRanges.length == 0 ){
-				
-				return( null );
-			}
-				
-				// assisted binary chop 
-			
-			int	bottom 	= 0;
-			int	top		= mergedRanges.length-1;
-			
-			int	current	= -1;
-			
-			while( top >= 0 && bottom < mergedRanges.length && bottom <= top){
-				
-				current = (bottom+top)/2;
-				
-				IpRange	e = mergedRanges[current];
-				
-				long	this_start 	= e.getStartIpLong();
-				long 	this_end	= e.getMergedEndLong();
-				
-				if ( address_long == this_start ){
-					
-					break;
-					
-				}else if ( address_long > this_start ){
-					
-					if ( address_long <= this_end ){
-						
-						break;
-					}
-					
-						// lies to the right of this entry
-					
-					bottom	= current + 1;
-					
-				}else if ( address_long == this_end ){
-					
-					break;
-					
-				}else{
-					// < this_end
-					
-					if ( address_long >= this_start ){
-						
-						break;
-					}
-					
-					top = current - 1;
-				}
-			}
-			
-			if ( top >= 0 && bottom < mergedRanges.length && bottom <= top ){
-	
-				IpRange	e = mergedRanges[current];
-			
-				if ( address_long <= e.getEndIpLong()){
-					
-					return( e );
-				}
-				
-				IpRange[]	merged = e.getMergedEntries();
-				
-				if ( merged == null ){
-					
-					Debug.out( "IPAddressRangeManager: inconsistent merged details - no entries" );
-					
-					return( null );
-				}
-				
-				for (int i=0;i<merged.length;i++){
-					
-					IpRange	me = merged[i];
-					
-					if ( me.getStartIpLong() <= address_long && me.getEndIpLong() >= address_long ){
-						
-						return( me );
-					}
-				}
-				
-				Debug.out( "IPAddressRangeManager: inconsistent merged details - entry not found" );
-			}
-			
-			return( null );
-			
-		}finally{
-			
-			this_mon.exit();
 		}
+		
+		return( table.lookup( address_long ));
 	}
 	
 	protected int
@@ -287,17 +175,18 @@ IPAddressRangeManager
 		
 			if ( rebuild_required ){
 				
-					// with substantial numbers of filters (e.g. 80,000) rebuilding
-					// is a slow process. Therefore prevent frequent rebuilds at the 
-					// cost of delaying the effect of the change 
+					// rebuilding sorts all the filters (e.g. 300,000 for a large block
+					// list). Prevent frequent rebuilds at the cost of delaying the
+					// effect of the change 
 				
 				long	now = SystemTime.getCurrentTime();
 				
 				long	secs_since_last_build = (now - last_rebuild_time)/1000;
 				
-					// allow one second per 2000 entries
+					// allow one second per 20000 entries, the table is built with a
+					// primitive sort
 				
-				if ( secs_since_last_build > entries.size()/2000 ){
+				if ( secs_since_last_build > entries.size()/20000 ){
 					
 					last_rebuild_time	= now;
 					
@@ -323,138 +212,158 @@ IPAddressRangeManager
 		
 		entries.toArray(ents);
 		
-		for (int i=0;i<ents.length;i++){
-			
-			ents[i].resetMergeInfo();
-		}
+		table = new RangeTable( ents );
 		
-			// sort based on start address
-		
-		Arrays.sort( 
-			ents,
-			new Comparator()
-			{
-				public int 
-				compare(
-					Object o1, 
-					Object o2 )
-				{
-					IpRange	e1 = (IpRange)o1;
-					IpRange 	e2 = (IpRange)o2;
-					
-					long diff = e1.getStartIpLong() - e2.getStartIpLong();
-					if (diff == 0) {
-						diff = e2.getEndIpLong() - e1.getEndIpLong();
-					}
+		if (Logger.isEnabled())
+			Logger.log(new LogEvent(LOGID, "IPAddressRangeManager: rebuilding "
+					+ entries.size() + " entries ends"));
 
-					return signum(diff);
-				}
-				
-				public boolean 
-				equals(Object obj)
-				{
-					return( false );
-				}
-			});
+	}
+
+	protected long
+	getTotalSpan()
+	{
+		checkRebuild();
 		
-			// now merge overlapping ranges
+		return( table.total_span );
+	}
+	
+	/**
+	 * The ranges sorted on start address in parallel primitive arrays, a lookup is a
+	 * binary chop over an int[] and only touches an IpRange when it hits. Addresses
+	 * are stored with the sign bit flipped so that signed int order is address order.
+	 * 
+	 * Overlapping ranges are not merged, instead cover[i] is the index of the range
+	 * with the highest end address amongst ranges 0..i. Any range containing an
+	 * address starts at or before it, so if the last range starting at or before
+	 * the address doesn't contain it its cover is the only other candidate.
+	 */
+	
+	protected static class
+	RangeTable
+	{
+		private final int[]			starts;
+		private final int[]			ends;
+		private final int[]			cover;
+		private final IpRange[]		ranges;
 		
-		List me = new ArrayList( ents.length );
+		protected final long		total_span;
 		
-		for (int i=0;i<ents.length;i++){
+		protected
+		RangeTable(
+			IpRange[]	ents )
+		{
+			int	num = ents.length;
+			
+				// sort on start address with a primitive sort, the index of the entry
+				// rides along in the low 32 bits
 			
-			IpRange	entry = ents[i];
+			long[]	keys = new long[num];
 			
-			if ( entry.getMerged()){
+			for (int i=0;i<num;i++){
 				
-				continue;
+				keys[i] = ((long)( (int)ents[i].getStartIpLong() ^ 0x80000000 ) << 32 ) | i;
 			}
 			
-			me.add( entry );
+			Arrays.sort( keys );
 			
-			int	pos = i+1;
+			starts	= new int[num];
+			ends	= new int[num];
+			cover	= new int[num];
+			ranges	= new IpRange[num];
 			
-			while( pos < ents.length ){
+			long	span		= 0;
+			long	span_start	= -1;
+			long	span_end	= -1;
+			
+			for (int i=0;i<num;i++){
+				
+				IpRange	e = ents[(int)keys[i]];
 				
-				long	end_pos = entry.getMergedEndLong();
+				long	start	= e.getStartIpLong();
+				long	end		= e.getEndIpLong();
 				
-				IpRange	e2 = ents[pos++];
+				ranges[i]	= e;
+				starts[i]	= (int)start ^ 0x80000000;
+				ends[i]		= (int)end ^ 0x80000000;
 				
-				if (!e2.getMerged()){
+				cover[i] = ( i > 0 && ends[cover[i-1]] > ends[i] )?cover[i-1]:i;
+				
+				if ( end < start ){
 					
-					if ( end_pos >= e2.getStartIpLong()){
-						
-						e2.setMerged();
-						
-						if ( e2.getEndIpLong() > end_pos ){
-							
-							entry.setMergedEnd( e2.getEndIpLong() );
-							
-							entry.addMergedEntry( e2 );
-						}
-					}else{
+					continue;
+				}
+				
+					// span is inclusive and counts overlapping ranges once
+				
+				if ( start > span_end ){
+					
+					if ( span_end >= 0 ){
 						
-						break;
-					}	
+						span += ( span_end - span_start ) + 1;
+					}
+					
+					span_start	= start;
+					span_end	= end;
+					
+				}else if ( end > span_end ){
+					
+					span_end	= end;
 				}
 			}
-		}
-		
-		/*
-		for (int i=0;i<ents.length;i++){
 			
-			entry	e = ents[i];
+			if ( span_end >= 0 ){
+				
+				span += ( span_end - span_start ) + 1;
+			}
 			
-			System.out.println( Long.toHexString(e.getStart()) + " - " + Long.toHexString(e.getEnd()) + ": " + e.getMerged() + "/" + Long.toHexString(e.getMergedEnd()));
+			total_span	= span;
 		}
-		*/
-		
-		mergedRanges = new IpRange[me.size()];
-		
-		me.toArray( mergedRanges );
 		
-		total_span	= 0;
-		
-		for (int i=0;i<mergedRanges.length;i++){
+		protected IpRange
+		lookup(
+			long	address_long )
+		{
+			int	address	= (int)address_long ^ 0x80000000;
 			
-			IpRange	e = mergedRanges[i];
+				// find the last range starting at or before the address
 			
-				// span is inclusive
+			int	bottom	= 0;
+			int	top		= starts.length - 1;
 			
-			long	span = ( e.getMergedEndLong() - e.getStartIpLong()) + 1;
+			while( bottom <= top ){
+				
+				int	current = ( bottom + top ) >>> 1;
+				
+				if ( starts[current] <= address ){
+					
+					bottom	= current + 1;
+					
+				}else{
+					
+					top		= current - 1;
+				}
+			}
 			
-			total_span	+= span;
-		}
-			//	System.out.println( "non_merged = " + merged_entries.length );
-		
-		if (Logger.isEnabled())
-			Logger.log(new LogEvent(LOGID, "IPAddressRangeManager: rebuilding "
-					+ entries.size() + " entries ends"));
-
-	}
-	
-	/**
-	 * @param diff
-	 * @return
-	 */
-	protected int signum(long diff) {
-		if (diff > 0) {
-			return 1;
-		}
-		
-		if (diff < 0) {
-			return -1;
+			if ( top < 0 ){
+				
+				return( null );
+			}
+			
+			if ( ends[top] >= address ){
+				
+				return( ranges[top] );
+			}
+			
+			int	widest = cover[top];
+			
+			if ( ends[widest] >= address ){
+				
+				return( ranges[widest] );
+			}
+			
+			return( null );
 		}
-
-		return 0;
-	}
-
-	protected long
-	getTotalSpan()
-	{
-		checkRebuild();
-		
-		return( total_span );
 	}
 	
 	
@@ -516,20 +425,45 @@ IPAddressRangeManager
 		System.out.println( "Total span = " + manager.getTotalSpan());
 		*/
 		
-		Random r = new Random();
+			// random ranges plus one wide range overlapping thousands of them, checked
+			// against a brute force search and then timed
+
+		Random r = new Random( 1 );
+
+		int	num_ranges = 300000;
+
+		IpRange[]	ranges = new IpRange[num_ranges+1];
 
-		for (int i=0;i<1000000;i++){
+		for (int i=0;i<num_ranges;i++){
 			
-			int	ip1 	= r.nextInt( 0x0fffffff );
+			int	ip1 	= r.nextInt();
 	
-			int	ip2 	= ip1 + r.nextInt( 255 );
+			int	ip2 	= ip1 + r.nextInt( 2000 );
+			
+				// don't wrap past 255.255.255.255
+			
+			if ( ( ip2 ^ 0x80000000 ) < ( ip1 ^ 0x80000000 )){
+				
+				ip2 = ip1;
+			}
 			
-			String	start 	= PRHelpers.intToAddress( ip1 );
-			String	end		= PRHelpers.intToAddress( ip2 );
+			ranges[i] = new IpRangeImpl("test_" + i, ip1, ip2, true );
 			
-			manager.addRange( new IpRangeImpl("test_" + i, start, end, true ));
+			manager.addRange( ranges[i] );
 		}
 		
+		try{
+			ranges[num_ranges] = new IpRangeImpl("wide", PRHelpers.addressToInt( "10.0.0.0" ), PRHelpers.addressToInt( "20.0.0.0" ), true );
+			
+		}catch( UnknownHostException e ){
+			
+			Debug.printStackTrace( e );
+			
+			return;
+		}
+		
+		manager.addRange( ranges[num_ranges] );
+		
 		/*
 		for (int i=0;i<100000;i++){
 			
@@ -540,28 +474,66 @@ IPAddressRangeManager
 		}
 		*/
 		
-		int	num 	= 0;
-		int	hits	= 0;
+		long	start = System.currentTimeMillis();
 		
+		System.out.println( "Total span = " + manager.getTotalSpan() + ", rebuild took " + ( System.currentTimeMillis() - start ) + "ms" );
 		
-		while(true){
+		int	mismatches	= 0;
+		
+		for (int i=0;i<3000;i++){
 			
-			if ( num % 1000 == 0 ){
-				
-				System.out.println( num + "/" + hits );
+			long	address = r.nextInt() & 0xffffffffL;
+			
+			IpRange	res = (IpRange)manager.isInRange( address );
+			
+			boolean	hit = false;
+			
+			for (int j=0;j<ranges.length;j++){
 				
+				if ( ranges[j].getStartIpLong() <= address && ranges[j].getEndIpLong() >= address ){
+					
+					hit	= true;
+					
+					break;
+				}
 			}
 			
-			num++;
+			if ( ( res != null ) != hit ){
+				
+				mismatches++;
+				
+			}else if ( res != null && ( res.getStartIpLong() > address || res.getEndIpLong() < address )){
+				
+				mismatches++;
+			}
+		}
 		
-			int	ip 	= r.nextInt();
-
-			Object	res = manager.isInRange( ip );
+		System.out.println( "Mismatches against brute force = " + mismatches );
+		
+		for (int round=0;round<5;round++){
+		
+			int	num 	= 0;
+			int	hits	= 0;
+			
+			start = System.currentTimeMillis();
 			
-			if ( res != null ){
+			while( num < 10000000 ){
 				
-				hits++;
+				num++;
+			
+				long	address = r.nextInt() & 0xffffffffL;
+	
+				Object	res = manager.isInRange( address );
+				
+				if ( res != null ){
+					
+					hits++;
+				}
 			}
+			
+			long	elapsed = Math.max( 1, System.currentTimeMillis() - start );
+			
+			System.out.println( num + "/" + hits + ": " + ( num * 1000L / elapsed ) + " lookups/sec" );
 		}
 	}
 
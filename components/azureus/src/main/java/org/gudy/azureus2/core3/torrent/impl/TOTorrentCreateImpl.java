@@ -321,6 +321,13 @@ TOTorrentCreateImpl
 		}
 	}
 	
+	public void
+	hashRate(
+		long	bytes_per_second )
+	{
+		report( "Torrent.create.progress.hashrate", DisplayFormatters.formatByteCountToKiBEtcPerSec( bytes_per_second ));
+	}
+	
 	protected long
 	calculateNumberOfPieces(
 		File				_file,
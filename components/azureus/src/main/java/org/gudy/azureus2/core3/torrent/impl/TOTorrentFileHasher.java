@@ -25,21 +25,47 @@ package org.gudy.azureus2.core3.torrent.impl;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import org.gudy.azureus2.core3.torrent.*;
 import org.gudy.azureus2.core3.util.*;
 
+	/**
+	 * Reads the files on the calling thread into a small ring of piece buffers and
+	 * hands each full piece to the ConcurrentHasher, so reading and hashing overlap
+	 * and pieces are hashed on all cores. The optional per-file and overall hashes
+	 * need the data in order and are still computed by the reader.
+	 */
+
 public class 
 TOTorrentFileHasher 
 {
+		// upper bound of memory held by pieces waiting for a hasher
+	
+	private static final int	RING_MAX_BYTES		= 64*1024*1024;
+	
+	private static final long	RATE_REPORT_PERIOD	= 1000;
+	
 	protected boolean	do_other_per_file_hash;
 	protected int		piece_length;
 	
-	protected Vector	pieces = new Vector();
+		// piece hashes by piece number, null until hashed
+	
+	protected List<byte[]>	pieces = new ArrayList<byte[]>();
 	
-	protected byte[]	buffer;
-	protected int		buffer_pos;
+	protected ByteBuffer	buffer;
+	
+	protected int						ring_size;
+	protected List<ByteBuffer>			ring_free	= new ArrayList<ByteBuffer>();
+	protected AESemaphore				ring_sem;
+	protected AEMonitor					this_mon	= new AEMonitor( "TOTorrentFileHasher" );
+	
+	protected int						pieces_hashed;
+	protected long						bytes_hashed;
+	protected long						rate_bytes;
+	protected long						rate_time;
 	 
 	protected SHA1Hasher					overall_sha1_hash;
 	protected ED2KHasher					overall_ed2k_hash;
@@ -52,7 +78,7 @@ TOTorrentFileHasher
 	
 	protected TOTorrentFileHasherListener	listener;
 		
-	protected boolean						cancelled;
+	protected volatile boolean				cancelled;
 	
 	protected
 	TOTorrentFileHasher(
@@ -71,9 +97,176 @@ TOTorrentFileHasher
 		piece_length			= _piece_length;
 		listener				= _listener;
 		
-		buffer = new byte[piece_length];
+			// enough buffers to keep every hasher busy while the next piece is read
+		
+		int	procs = Math.max( 1, Runtime.getRuntime().availableProcessors());
+		
+		ring_size = Math.max( 2, Math.min( procs + 2, RING_MAX_BYTES / piece_length ));
+		
+		ring_sem = new AESemaphore( "TOTorrentFileHasher:ring", ring_size );
+		
+		rate_time = SystemTime.getMonotonousTime();
 	}
+	
+	protected ByteBuffer
+	allocateBuffer()
+	{
+			// the ed2k hasher only takes arrays, so the other hashes need heap buffers.
+			// Without them the file channel reads straight into direct memory
 		
+		if ( overall_sha1_hash != null || do_other_per_file_hash ){
+			
+			return( ByteBuffer.allocate( piece_length ));
+			
+		}else{
+			
+			return( ByteBuffer.allocateDirect( piece_length ));
+		}
+	}
+	
+	protected ByteBuffer
+	getFreeBuffer()
+	
+		throws TOTorrentException
+	{
+		while( !ring_sem.reserve( 250 )){
+			
+			if ( cancelled ){
+				
+				throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
+												TOTorrentException.RT_CANCELLED ));
+			}
+		}
+		
+		try{
+			this_mon.enter();
+			
+			if ( ring_free.size() > 0 ){
+				
+				return( ring_free.remove( ring_free.size() - 1 ));
+			}
+		}finally{
+			
+			this_mon.exit();
+		}
+		
+		return( allocateBuffer());
+	}
+	
+	protected void
+	hashPiece()
+	{
+		final ByteBuffer	piece	= buffer;
+		
+		buffer	= null;
+		
+		piece.flip();
+		
+		final int	length = piece.remaining();
+		
+		if ( overall_sha1_hash != null ){
+			
+			overall_sha1_hash.update( piece.array(), piece.arrayOffset(), length );
+			overall_ed2k_hash.update( piece.array(), piece.arrayOffset(), length );
+		}
+		
+		final int	piece_number;
+		
+		try{
+			this_mon.enter();
+			
+			piece_number = pieces.size();
+			
+			pieces.add( null );
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+		
+		ConcurrentHasher.getSingleton().addRequest(
+			piece,
+			new ConcurrentHasherRequestListener()
+			{
+				public void
+				complete(
+					ConcurrentHasherRequest	request )
+				{
+					pieceHashed( piece_number, length, request.getResult(), piece );
+				}
+			},
+			false );
+	}
+	
+	protected void
+	pieceHashed(
+		int			piece_number,
+		int			length,
+		byte[]		hash,
+		ByteBuffer	piece )
+	{
+		try{
+			this_mon.enter();
+			
+			pieces.set( piece_number, hash );
+			
+			bytes_hashed += length;
+			
+				// report in piece order whatever order the hashers finish in
+			
+			int	old_hashed = pieces_hashed;
+			
+			while( pieces_hashed < pieces.size() && pieces.get( pieces_hashed ) != null ){
+				
+				pieces_hashed++;
+			}
+			
+			if ( listener != null ){
+				
+				if ( pieces_hashed > old_hashed ){
+					
+					listener.pieceHashed( pieces_hashed );
+				}
+				
+				long	now = SystemTime.getMonotonousTime();
+				
+				if ( now - rate_time >= RATE_REPORT_PERIOD ){
+					
+					listener.hashRate(( bytes_hashed - rate_bytes ) * 1000 / ( now - rate_time ));
+					
+					rate_bytes	= bytes_hashed;
+					rate_time	= now;
+				}
+			}
+			
+			piece.clear();
+			
+			ring_free.add( piece );
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+		
+		ring_sem.release();
+	}
+	
+	protected void
+	waitForHashers()
+	{
+			// every buffer back in the ring means every submitted piece is done
+		
+		for (int i=0;i<ring_size;i++){
+			
+			ring_sem.reserve();
+		}
+		
+		for (int i=0;i<ring_size;i++){
+			
+			ring_sem.release();
+		}
+	}
+	
 	long
 	add(
 		File		_file )
@@ -82,7 +275,7 @@ TOTorrentFileHasher
 	{
 		long		file_length = 0;
 		
-		InputStream is = null;
+		FileInputStream is = null;
 		
 		SHA1Hasher	sha1_hash		= null;
 		ED2KHasher	ed2k_hash		= null;
@@ -94,7 +287,9 @@ TOTorrentFileHasher
 				ed2k_hash		= new ED2KHasher();
 			}
 			
-			is = new BufferedInputStream(new FileInputStream( _file ), 65536);
+			is = new FileInputStream( _file );
+			
+			FileChannel	channel = is.getChannel();
 
 			while(true){
 	
@@ -104,43 +299,30 @@ TOTorrentFileHasher
 													TOTorrentException.RT_CANCELLED ));
 				}
 				
-				int	len = is.read( buffer, buffer_pos, piece_length - buffer_pos );
+				if ( buffer == null ){
+					
+					buffer = getFreeBuffer();
+				}
+				
+				int	buffer_pos = buffer.position();
+				
+				int	len = channel.read( buffer );
 				
 				if ( len > 0 ){
 					
 					if ( do_other_per_file_hash ){
 						
-						sha1_hash.update( buffer, buffer_pos, len );
-						ed2k_hash.update( buffer, buffer_pos, len );
+						sha1_hash.update( buffer.array(), buffer.arrayOffset() + buffer_pos, len );
+						ed2k_hash.update( buffer.array(), buffer.arrayOffset() + buffer_pos, len );
 					}
 					
-					
 					file_length += len;
 					
-					buffer_pos += len;
-					
-					if ( buffer_pos == piece_length ){
-						
-						// hash this piece
-						
-						byte[] hash = new SHA1Hasher().calculateHash(buffer);
-
-						if ( overall_sha1_hash != null ){
-							
-							overall_sha1_hash.update( buffer );
-							overall_ed2k_hash.update( buffer );
-						}
-						
-						pieces.add( hash );
-						
-						if ( listener != null ){
-							
-							listener.pieceHashed( pieces.size() );
-						}
+					if ( !buffer.hasRemaining()){
 						
-						buffer_pos = 0;					
+						hashPiece();
 					}
-				}else{
+				}else if ( len < 0 ){
 					
 					break;
 				}		
@@ -191,27 +373,31 @@ TOTorrentFileHasher
 		throws TOTorrentException
 	{
 		try{
-			if ( buffer_pos > 0 ){
-								
-				byte[] rem = new byte[buffer_pos];
-				
-				System.arraycopy( buffer, 0, rem, 0, buffer_pos );
+			if ( buffer != null ){
 				
-				pieces.addElement(new SHA1Hasher().calculateHash(rem));
+				if ( buffer.position() > 0 ){
 				
-				if ( overall_sha1_hash != null ){
+					hashPiece();
 					
-					overall_sha1_hash.update( rem );
-					overall_ed2k_hash.update( rem );
-				}
-				
-				if ( listener != null ){
-							
-					listener.pieceHashed( pieces.size() );
+				}else{
+					
+					try{
+						this_mon.enter();
+					
+						ring_free.add( buffer );
+						
+					}finally{
+						
+						this_mon.exit();
+					}
+					
+					buffer = null;
+					
+					ring_sem.release();
 				}
-				
-				buffer_pos = 0;
 			}
+			
+			waitForHashers();
 		
 			if ( overall_sha1_hash != null && sha1_digest == null ){
 				
@@ -219,11 +405,29 @@ TOTorrentFileHasher
 				ed2k_digest	= overall_ed2k_hash.getDigest();
 			}
 			
-			byte[][] res = new byte[pieces.size()][];
-		
-			pieces.copyInto( res );
-		
-			return( res );
+			try{
+				this_mon.enter();
+			
+				byte[][] res = pieces.toArray( new byte[pieces.size()][] );
+				
+				for (int i=0;i<res.length;i++){
+					
+					if ( res[i] == null ){
+						
+						throw( new TOTorrentException( 	"TOTorrentFileHasher: piece " + i + " not hashed",
+														TOTorrentException.RT_HASH_FAILS ));
+					}
+				}
+				
+				return( res );
+				
+			}finally{
+				
+				this_mon.exit();
+			}
+		}catch( TOTorrentException e ){
+			
+			throw( e );
 			
 		}catch( Throwable e ){
 			
@@ -231,7 +435,7 @@ TOTorrentFileHasher
 											TOTorrentException.RT_READ_FAILS ));
 		}
 	}
-	
+
 	protected byte[]
 	getED2KDigest()
 	
@@ -27,4 +27,12 @@ TOTorrentFileHasherListener
 	public void
 	pieceHashed(
 		int		piece_number );
+	
+		/**
+		 * @param bytes_per_second hashing throughput since the previous report
+		 */
+	
+	public void
+	hashRate(
+		long	bytes_per_second );
 }
@@ -0,0 +1,61 @@
+/*
+ * Created on 18-Oct-2026
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (C) 2026 FrostWire(TM), All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Events of {@link BDecoderView#parse(ByteBuffer, BDecoderListener)}, in document order.
+ */
+
+public interface
+BDecoderListener
+{
+	public void
+	dictionaryStart();
+
+		/**
+		 * @return false to skip the value of this key, no events are raised for it
+		 */
+
+	public boolean
+	dictionaryKey(
+		String		key );
+
+	public void
+	dictionaryEnd();
+
+	public void
+	listStart();
+
+	public void
+	listEnd();
+
+	public void
+	integer(
+		long		value );
+
+		/**
+		 * @param value a read-only slice of the input, only valid during the call
+		 */
+
+	public void
+	string(
+		ByteBuffer	value );
+}
@@ -0,0 +1,803 @@
+/*
+ * Created on 18-Oct-2026
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (C) 2026 FrostWire(TM), All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Lazy decoding of bencoded data held in a ByteBuffer. Unlike {@link BDecoder} nothing
+ * is copied up front: each dictionary and list only records where its values are, a
+ * value is decoded the first time it is asked for. Finding the values checks them, so
+ * the whole data is checked when the view is built, and a nested dictionary or list
+ * walks its entries again the first time it is read. Strings are stepped over by their
+ * length, never read.
+ * Values have the same types as with BDecoder (Long, byte[], Map, List) so the maps
+ * can be handed to existing code, but they are read-only. Strings can also be read
+ * in place with {@link #getBytes(Map, String)}, so reading the name and file list of
+ * a torrent never allocates its piece table.
+ *
+ * The buffer must not change while views over it are in use.
+ */
+
+public class
+BDecoderView
+{
+	private static final int	MAX_NESTING		= 256;
+
+	public static Map<String,Object>
+	decode(
+		ByteBuffer	buffer )
+
+		throws IOException
+	{
+		ByteBuffer	buf = buffer.slice();
+
+		if ( !buf.hasRemaining()){
+
+			throw( new BEncodingException( "BDecoder: zero length file" ));
+		}
+
+		if ( buf.get( 0 ) != 'd' ){
+
+			throw( new BEncodingException( "BDecoder: top level isn't a Map" ));
+		}
+
+			// checks the whole map while finding its values
+
+		return( new LazyMap( buf, 0 ));
+	}
+
+	public static Map<String,Object>
+	decode(
+		File		file )
+
+		throws IOException
+	{
+		RandomAccessFile	raf = new RandomAccessFile( file, "r" );
+
+		try{
+			FileChannel	channel = raf.getChannel();
+
+			long	size = channel.size();
+
+			if ( size > Integer.MAX_VALUE ){
+
+				throw( new BEncodingException( "BDecoder: file too large" ));
+			}
+
+				// read rather than mapped, a mapping keeps the file locked on Windows until
+				// it is collected so the caller couldn't delete it
+
+			ByteBuffer	buffer = ByteBuffer.allocate((int)size );
+
+			while( buffer.hasRemaining() && channel.read( buffer ) >= 0 ){
+			}
+
+			buffer.flip();
+
+			return( decode( buffer ));
+
+		}finally{
+
+			raf.close();
+		}
+	}
+
+		/**
+		 * Raises events for the bencoded value at the buffer's position, without building
+		 * any objects for it
+		 */
+
+	public static void
+	parse(
+		ByteBuffer			buffer,
+		BDecoderListener	listener )
+
+		throws IOException
+	{
+		ByteBuffer	buf = buffer.slice();
+
+		if ( !buf.hasRemaining()){
+
+			throw( new BEncodingException( "BDecoder: zero length file" ));
+		}
+
+		parse( buf, 0, 0, listener );
+	}
+
+		/**
+		 * @return the string value of the key as a read-only slice of the underlying buffer,
+		 * null if the map isn't a view, the key is missing or the value isn't a string
+		 */
+
+	public static ByteBuffer
+	getBytes(
+		Map			map,
+		String		key )
+	{
+		if ( !( map instanceof LazyMap )){
+
+			return( null );
+		}
+
+		LazyMap	lazy = (LazyMap)map;
+
+		int	index = lazy.indexOf( key );
+
+		if ( index == -1 || !isDigit( lazy.buf.get( lazy.starts[index] ))){
+
+			return( null );
+		}
+
+		try{
+			int	colon = colon( lazy.buf, lazy.starts[index] );
+
+			return( slice( lazy.buf, colon + 1, lazy.ends[index] ));
+
+		}catch( BEncodingException e ){
+
+				// checked when the view was built
+
+			throw( new IllegalStateException( e ));
+		}
+	}
+
+		/**
+		 * @return the bencoded form of the value of the key as a read-only slice of the
+		 * underlying buffer, null if the map isn't a view or the key is missing
+		 */
+
+	public static ByteBuffer
+	getEncoded(
+		Map			map,
+		String		key )
+	{
+		if ( !( map instanceof LazyMap )){
+
+			return( null );
+		}
+
+		LazyMap	lazy = (LazyMap)map;
+
+		int	index = lazy.indexOf( key );
+
+		if ( index == -1 ){
+
+			return( null );
+		}
+
+		return( slice( lazy.buf, lazy.starts[index], lazy.ends[index] ));
+	}
+
+	private static ByteBuffer
+	slice(
+		ByteBuffer	buf,
+		int			start,
+		int			end )
+	{
+		ByteBuffer	dup = buf.asReadOnlyBuffer();
+
+		dup.limit( end );
+		dup.position( start );
+
+		return( dup.slice());
+	}
+
+	private static boolean
+	isDigit(
+		byte		b )
+	{
+		return( b >= '0' && b <= '9' );
+	}
+
+	private static byte
+	byteAt(
+		ByteBuffer	buf,
+		int			pos )
+
+		throws BEncodingException
+	{
+		if ( pos >= buf.limit()){
+
+			throw( new BEncodingException( "BDecoder: unexpected end of data" ));
+		}
+
+		return( buf.get( pos ));
+	}
+
+		/**
+		 * @return the position of the ':' ending the length of the string at pos
+		 */
+
+	private static int
+	colon(
+		ByteBuffer	buf,
+		int			pos )
+
+		throws BEncodingException
+	{
+		int	start = pos;
+
+		while( true ){
+
+			byte	b = byteAt( buf, pos );
+
+			if ( b == ':' ){
+
+				if ( pos == start ){
+
+					throw( new BEncodingException( "BDecoder: missing string length" ));
+				}
+
+				return( pos );
+			}
+
+			if ( !isDigit( b ) || pos - start > 10 ){
+
+				throw( new BEncodingException( "BDecoder: invalid string length" ));
+			}
+
+			pos++;
+		}
+	}
+
+		/**
+		 * @return the position after the string at pos
+		 */
+
+	private static int
+	skipString(
+		ByteBuffer	buf,
+		int			pos )
+
+		throws BEncodingException
+	{
+		int		colon	= colon( buf, pos );
+
+		long	length	= 0;
+
+		for (int i=pos;i<colon;i++){
+
+			length = length*10 + ( buf.get(i) - '0' );
+		}
+
+		long	end = colon + 1 + length;
+
+		if ( end > buf.limit()){
+
+			throw( new BEncodingException( "BDecoder: string length " + length + " beyond end of data" ));
+		}
+
+		return((int)end );
+	}
+
+	private static String
+	getKey(
+		ByteBuffer	buf,
+		int			pos,
+		int			end )
+
+		throws BEncodingException
+	{
+		int	colon = colon( buf, pos );
+
+		byte[]	bytes = new byte[ end - colon - 1 ];
+
+		for (int i=0;i<bytes.length;i++){
+
+			bytes[i] = buf.get( colon + 1 + i );
+		}
+
+		return( StringInterner.intern( new String( bytes, Constants.BYTE_CHARSET )));
+	}
+
+		/**
+		 * @return the position of the 'e' ending the integer at pos, which must be an 'i'
+		 */
+
+	private static int
+	integerEnd(
+		ByteBuffer	buf,
+		int			pos )
+
+		throws BEncodingException
+	{
+		int	start = ++pos;
+
+		if ( byteAt( buf, pos ) == '-' ){
+
+			pos++;
+		}
+
+		while( byteAt( buf, pos ) != 'e' ){
+
+			if ( !isDigit( buf.get( pos )) || pos - start > 19 ){
+
+				throw( new BEncodingException( "BDecoder: invalid integer" ));
+			}
+
+			pos++;
+		}
+
+		if ( pos == start || ( pos == start + 1 && buf.get( start ) == '-' )){
+
+			throw( new BEncodingException( "BDecoder: invalid integer" ));
+		}
+
+		return( pos );
+	}
+
+	private static long
+	getInteger(
+		ByteBuffer	buf,
+		int			pos,
+		int			end )
+
+		throws BEncodingException
+	{
+		pos++;
+
+		boolean	negative = buf.get( pos ) == '-';
+
+		if ( negative ){
+
+			pos++;
+		}
+
+		long	value = 0;
+
+		for (int i=pos;i<end;i++){
+
+			int	digit = buf.get(i) - '0';
+
+			if ( value > ( Long.MAX_VALUE - digit ) / 10 ){
+
+				throw( new BEncodingException( "BDecoder: integer out of range" ));
+			}
+
+			value = value*10 + digit;
+		}
+
+		return( negative?-value:value );
+	}
+
+		/**
+		 * Checks the value at pos
+		 * @return the position after it
+		 */
+
+	private static int
+	skip(
+		ByteBuffer	buf,
+		int			pos,
+		int			nesting )
+
+		throws BEncodingException
+	{
+		if ( nesting > MAX_NESTING ){
+
+			throw( new BEncodingException( "BDecoder: nesting too deep" ));
+		}
+
+		byte	b = byteAt( buf, pos );
+
+		switch( b ){
+
+			case 'i':{
+
+				int	end = integerEnd( buf, pos );
+
+				getInteger( buf, pos, end );
+
+				return( end + 1 );
+			}
+			case 'l':{
+
+				pos++;
+
+				while( byteAt( buf, pos ) != 'e' ){
+
+					pos = skip( buf, pos, nesting + 1 );
+				}
+
+				return( pos + 1 );
+			}
+			case 'd':{
+
+				pos++;
+
+				while( byteAt( buf, pos ) != 'e' ){
+
+					pos = skipString( buf, pos );
+
+					pos = skip( buf, pos, nesting + 1 );
+				}
+
+				return( pos + 1 );
+			}
+			default:{
+
+				if ( isDigit( b )){
+
+					return( skipString( buf, pos ));
+				}
+
+				throw( new BEncodingException( "BDecoder: unknown command '" + b + "'" ));
+			}
+		}
+	}
+
+	private static int
+	parse(
+		ByteBuffer			buf,
+		int					pos,
+		int					nesting,
+		BDecoderListener	listener )
+
+		throws BEncodingException
+	{
+		if ( nesting > MAX_NESTING ){
+
+			throw( new BEncodingException( "BDecoder: nesting too deep" ));
+		}
+
+		byte	b = byteAt( buf, pos );
+
+		switch( b ){
+
+			case 'i':{
+
+				int	end = integerEnd( buf, pos );
+
+				listener.integer( getInteger( buf, pos, end ));
+
+				return( end + 1 );
+			}
+			case 'l':{
+
+				listener.listStart();
+
+				pos++;
+
+				while( byteAt( buf, pos ) != 'e' ){
+
+					pos = parse( buf, pos, nesting + 1, listener );
+				}
+
+				listener.listEnd();
+
+				return( pos + 1 );
+			}
+			case 'd':{
+
+				listener.dictionaryStart();
+
+				pos++;
+
+				while( byteAt( buf, pos ) != 'e' ){
+
+					int	key_end = skipString( buf, pos );
+
+					if ( listener.dictionaryKey( getKey( buf, pos, key_end ))){
+
+						pos = parse( buf, key_end, nesting + 1, listener );
+
+					}else{
+
+						pos = skip( buf, key_end, nesting + 1 );
+					}
+				}
+
+				listener.dictionaryEnd();
+
+				return( pos + 1 );
+			}
+			default:{
+
+				if ( isDigit( b )){
+
+					int	end = skipString( buf, pos );
+
+					listener.string( slice( buf, colon( buf, pos ) + 1, end ));
+
+					return( end );
+				}
+
+				throw( new BEncodingException( "BDecoder: unknown command '" + b + "'" ));
+			}
+		}
+	}
+
+		/**
+		 * Decodes a value that was checked by skip()
+		 */
+
+	private static Object
+	getValue(
+		ByteBuffer	buf,
+		int			start,
+		int			end )
+	{
+		try{
+			byte	b = buf.get( start );
+
+			switch( b ){
+
+				case 'i':{
+
+					return( Long.valueOf( getInteger( buf, start, end - 1 )));
+				}
+				case 'l':{
+
+					return( new LazyList( buf, start ));
+				}
+				case 'd':{
+
+					return( new LazyMap( buf, start ));
+				}
+				default:{
+
+					int	colon = colon( buf, start );
+
+					byte[]	bytes = new byte[ end - colon - 1 ];
+
+					ByteBuffer	dup = buf.duplicate();
+
+					dup.position( colon + 1 );
+
+					dup.get( bytes );
+
+					return( bytes );
+				}
+			}
+		}catch( BEncodingException e ){
+
+			throw( new IllegalStateException( e ));
+		}
+	}
+
+	private static class
+	LazyMap
+		extends AbstractMap<String,Object>
+	{
+		private final ByteBuffer	buf;
+
+		private String[]			keys	= new String[8];
+		private int[]				starts	= new int[8];
+		private int[]				ends	= new int[8];
+		private Object[]			values;
+		private int					size;
+
+		private
+		LazyMap(
+			ByteBuffer	_buf,
+			int			pos )
+
+			throws BEncodingException
+		{
+			buf	= _buf;
+
+			pos++;
+
+			while( byteAt( buf, pos ) != 'e' ){
+
+				int	key_end	= skipString( buf, pos );
+				int	end		= skip( buf, key_end, 0 );
+
+				if ( size == keys.length ){
+
+					keys	= Arrays.copyOf( keys, size*2 );
+					starts	= Arrays.copyOf( starts, size*2 );
+					ends	= Arrays.copyOf( ends, size*2 );
+				}
+
+				keys[size]		= getKey( buf, pos, key_end );
+				starts[size]	= key_end;
+				ends[size]		= end;
+
+				size++;
+
+				pos = end;
+			}
+
+			values = new Object[size];
+		}
+
+		private int
+		indexOf(
+			Object	key )
+		{
+			for (int i=0;i<size;i++){
+
+				if ( keys[i].equals( key )){
+
+					return( i );
+				}
+			}
+
+			return( -1 );
+		}
+
+		private synchronized Object
+		getValue(
+			int		index )
+		{
+			Object	value = values[index];
+
+			if ( value == null ){
+
+				value = values[index] = BDecoderView.getValue( buf, starts[index], ends[index] );
+			}
+
+			return( value );
+		}
+
+		public int
+		size()
+		{
+			return( size );
+		}
+
+		public boolean
+		containsKey(
+			Object	key )
+		{
+			return( indexOf( key ) != -1 );
+		}
+
+		public Object
+		get(
+			Object	key )
+		{
+			int	index = indexOf( key );
+
+			return( index == -1 ? null : getValue( index ));
+		}
+
+		public Set<Map.Entry<String,Object>>
+		entrySet()
+		{
+			return(
+				new AbstractSet<Map.Entry<String,Object>>()
+				{
+					public int
+					size()
+					{
+						return( size );
+					}
+
+					public Iterator<Map.Entry<String,Object>>
+					iterator()
+					{
+						return(
+							new Iterator<Map.Entry<String,Object>>()
+							{
+								private int	pos;
+
+								public boolean
+								hasNext()
+								{
+									return( pos < size );
+								}
+
+								public Map.Entry<String,Object>
+								next()
+								{
+									if ( pos >= size ){
+
+										throw( new NoSuchElementException());
+									}
+
+									int	index = pos++;
+
+									return( new AbstractMap.SimpleImmutableEntry<String,Object>( keys[index], getValue( index )));
+								}
+
+								public void
+								remove()
+								{
+									throw( new UnsupportedOperationException());
+								}
+							});
+					}
+				});
+		}
+	}
+
+	private static class
+	LazyList
+		extends AbstractList<Object>
+	{
+		private final ByteBuffer	buf;
+
+		private int[]				starts	= new int[8];
+		private int[]				ends	= new int[8];
+		private Object[]			values;
+		private int					size;
+
+		private
+		LazyList(
+			ByteBuffer	_buf,
+			int			pos )
+
+			throws BEncodingException
+		{
+			buf	= _buf;
+
+			pos++;
+
+			while( byteAt( buf, pos ) != 'e' ){
+
+				int	end = skip( buf, pos, 0 );
+
+				if ( size == starts.length ){
+
+					starts	= Arrays.copyOf( starts, size*2 );
+					ends	= Arrays.copyOf( ends, size*2 );
+				}
+
+				starts[size]	= pos;
+				ends[size]		= end;
+
+				size++;
+
+				pos = end;
+			}
+
+			values = new Object[size];
+		}
+
+		public int
+		size()
+		{
+			return( size );
+		}
+
+		public synchronized Object
+		get(
+			int		index )
+		{
+			if ( index < 0 || index >= size ){
+
+				throw( new IndexOutOfBoundsException( "index " + index + ", size " + size ));
+			}
+
+			Object	value = values[index];
+
+			if ( value == null ){
+
+				value = values[index] = getValue( buf, starts[index], ends[index] );
+			}
+
+			return( value );
+		}
+	}
+}
@@ -28,6 +28,7 @@ package org.gudy.azureus2.core3.util;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import com.aelitis.azureus.core.*;
@@ -2462,8 +2463,20 @@ TorrentUtils
 	  if (check.isDirectory())
 	    throw new FileIsADirectoryException("File "+filename+" is a directory.");
 	  try {
-	    TOTorrentFactory.deserialiseFromBEncodedFile(check);
-	    return true;
+	    // check the structure in place rather than building the torrent and its piece table
+	    Map meta_data = BDecoderView.decode(check);
+	    Object info = meta_data.get("info");
+	    if (!(info instanceof Map))
+	      return false;
+	    if (BDecoderView.getBytes((Map) info, "name") == null)
+	      return false;
+	    Object piece_length = ((Map) info).get("piece length");
+	    if (!(piece_length instanceof Long) || ((Long) piece_length).longValue() <= 0)
+	      return false;
+	    ByteBuffer pieces = BDecoderView.getBytes((Map) info, "pieces");
+	    if (pieces == null || pieces.remaining() % 20 != 0)
+	      return false;
+	    return ((Map) info).get("length") instanceof Long || ((Map) info).get("files") instanceof List;
 	  } catch (Throwable e) {
 	    return false;
 	  }
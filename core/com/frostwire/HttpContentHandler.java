@@ -0,0 +1,16 @@
+package com.frostwire;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the body of an http response as it arrives from the network.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public interface HttpContentHandler {
+
+    public void handle(InputStream content) throws IOException;
+}
@@ -26,6 +26,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
@@ -37,10 +46,13 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnManagerPNames;
 import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.PlainSocketFactory;
@@ -50,6 +62,7 @@ import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
@@ -59,12 +72,14 @@ import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HttpContext;
-import org.apache.http.util.EntityUtils;
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.FileUtils;
 
 /**
  * A Blocking HttpClient.
- * Use fetch() to retrieve the byte[]
+ * Use fetch() to retrieve the byte[], or the async methods to run it in
+ * a shared pool of threads. All the fetchers share a pool of kept alive
+ * connections, with a limit of connections per host.
  * 
  * @author gubatron
  * @author aldenml
@@ -74,7 +89,33 @@ public class HttpFetcher {
 
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
     private static final int DEFAULT_TIMEOUT = 10000;
+    private static final int BUFFER_SIZE = 8192;
 
+    private static final int MAX_CONNECTIONS_PER_HOST = 8;
+    private static final int MAX_TOTAL_CONNECTIONS = 200;
+
+    /**
+     * Kept alive connections are closed after this time without use.
+     */
+    private static final long IDLE_CONNECTION_TIMEOUT = 30000;
+
+    /**
+     * Threads and queued requests of the async methods. A full queue runs
+     * the request in the caller thread, slowing it down instead of dropping
+     * the request.
+     */
+    private static final int ASYNC_THREADS = 8;
+    private static final int ASYNC_QUEUE_SIZE = 256;
+
+    private static final ExecutorService ASYNC_EXECUTOR = newAsyncExecutor();
+
+    /**
+     * The request each thread is running, so another thread can abort it.
+     * Socket reads ignore interrupts.
+     */
+    private static final ConcurrentHashMap<Thread, HttpUriRequest> RUNNING_REQUESTS = new ConcurrentHashMap<Thread, HttpUriRequest>();
+
+    private static ThreadSafeClientConnManager CONNECTION_MANAGER;
     private static HttpClient DEFAULT_HTTP_CLIENT;
     private static HttpClient DEFAULT_HTTP_CLIENT_GZIP;
 
@@ -120,28 +161,18 @@ public class HttpFetcher {
 
     public Object[] fetch(boolean gzip, String referer) throws IOException {
         HttpHost httpHost = new HttpHost(_uri.getHost(), _uri.getPort());
-        HttpGet httpGet = new HttpGet(_uri);
-        httpGet.addHeader("Connection", "close");
-        if (referer != null) {
-            httpGet.addHeader("Referer", referer);
-        }
-
-        HttpParams params = httpGet.getParams();
-        HttpConnectionParams.setConnectionTimeout(params, _timeout);
-        HttpConnectionParams.setSoTimeout(params, _timeout);
-        HttpConnectionParams.setStaleCheckingEnabled(params, true);
-        HttpConnectionParams.setTcpNoDelay(params, true);
-        HttpClientParams.setRedirecting(params, true);
-        HttpProtocolParams.setUseExpectContinue(params, false);
-        HttpProtocolParams.setUserAgent(params, _userAgent);
+        HttpGet httpGet = newHttpGet(referer);
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
+        RUNNING_REQUESTS.put(Thread.currentThread(), httpGet);
+
         try {
 
             HttpResponse response = (gzip ? DEFAULT_HTTP_CLIENT_GZIP : DEFAULT_HTTP_CLIENT).execute(httpHost, httpGet);
 
             if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300) {
+                consume(response);
                 throw new IOException("bad status code, downloading file " + response.getStatusLine().getStatusCode());
             }
 
@@ -159,12 +190,8 @@ public class HttpFetcher {
             }
 
             if (response.getEntity() != null) {
-                if (gzip) {
-                    String str = EntityUtils.toString(response.getEntity());
-                    baos.write(str.getBytes());
-                } else {
-                    response.getEntity().writeTo(baos);
-                }
+                // the gzip entity inflates on write, no text decoding round trip
+                response.getEntity().writeTo(baos);
             }
 
             body = baos.toByteArray();
@@ -176,6 +203,7 @@ public class HttpFetcher {
             return new Object[] { body, date };
 
         } finally {
+            RUNNING_REQUESTS.remove(Thread.currentThread());
             try {
                 baos.close();
             } catch (IOException e) {
@@ -183,6 +211,193 @@ public class HttpFetcher {
         }
     }
 
+    /**
+     * Hands the body of the response to the handler as it arrives, without
+     * buffering it in memory.
+     */
+    public void stream(boolean gzip, HttpContentHandler handler) throws IOException {
+        HttpHost httpHost = new HttpHost(_uri.getHost(), _uri.getPort());
+        HttpGet httpGet = newHttpGet(null);
+
+        RUNNING_REQUESTS.put(Thread.currentThread(), httpGet);
+
+        try {
+            stream(httpHost, httpGet, gzip, handler);
+        } finally {
+            RUNNING_REQUESTS.remove(Thread.currentThread());
+        }
+    }
+
+    private void stream(HttpHost httpHost, HttpGet httpGet, boolean gzip, HttpContentHandler handler) throws IOException {
+        HttpResponse response = (gzip ? DEFAULT_HTTP_CLIENT_GZIP : DEFAULT_HTTP_CLIENT).execute(httpHost, httpGet);
+
+        HttpEntity entity = response.getEntity();
+
+        if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300) {
+            if (entity != null) {
+                entity.consumeContent();
+            }
+            throw new IOException("bad status code, downloading file " + response.getStatusLine().getStatusCode());
+        }
+
+        if (entity == null) {
+            throw new IOException("invalid response");
+        }
+
+        InputStream content = entity.getContent();
+        boolean ok = false;
+        try {
+            handler.handle(content);
+            ok = true;
+        } finally {
+            if (!ok) {
+                // don't read what's left of a broken response
+                httpGet.abort();
+            }
+            try {
+                // at the end of the body this hands the connection back to the pool
+                content.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Hands the body of the resource from the given offset on to the handler,
+     * with a Range request if the offset is not zero. The server can ignore
+     * the range and send the whole resource, the handler gets the offset the
+     * body actually starts at.
+     *
+     * @throws UnavailableException if the server answers 503
+     */
+    public void streamRange(long offset, HttpRangeContentHandler handler) throws IOException {
+        HttpHost httpHost = new HttpHost(_uri.getHost(), _uri.getPort());
+        HttpGet httpGet = newHttpGet(null);
+        if (offset > 0) {
+            httpGet.addHeader("Range", "bytes=" + offset + "-");
+        }
+
+        RUNNING_REQUESTS.put(Thread.currentThread(), httpGet);
+
+        try {
+            HttpResponse response = DEFAULT_HTTP_CLIENT.execute(httpHost, httpGet);
+
+            HttpEntity entity = response.getEntity();
+            int code = response.getStatusLine().getStatusCode();
+
+            long start;
+            if (code == HttpStatus.SC_OK) {
+                start = 0;
+            } else if (code == HttpStatus.SC_PARTIAL_CONTENT) {
+                start = parseContentRangeStart(response.getFirstHeader("Content-Range"));
+            } else {
+                start = -1;
+            }
+
+            if (start == -1 || (start != 0 && start != offset) || entity == null) {
+                if (entity != null) {
+                    entity.consumeContent();
+                }
+                if (code == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                    Header retryAfter = response.getFirstHeader("Retry-After");
+                    throw new UnavailableException(retryAfter != null ? retryAfter.getValue() : null);
+                }
+                throw new IOException("Unexpected response " + response.getStatusLine() + " for range at " + offset);
+            }
+
+            InputStream content = entity.getContent();
+            boolean ok = false;
+            try {
+                handler.handle(content, start);
+                ok = true;
+            } finally {
+                if (!ok) {
+                    httpGet.abort();
+                }
+                try {
+                    content.close();
+                } catch (IOException e) {
+                }
+            }
+        } finally {
+            RUNNING_REQUESTS.remove(Thread.currentThread());
+        }
+    }
+
+    private static long parseContentRangeStart(Header contentRange) {
+        // bytes <start>-<end>/<size>
+        try {
+            String s = contentRange.getValue().trim().substring("bytes ".length());
+            return Long.parseLong(s.substring(0, s.indexOf('-')).trim());
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Aborts the request the given thread is running in a fetcher, if any. The
+     * blocked read or connect of that thread fails with an IOException, which
+     * an interrupt alone doesn't achieve.
+     */
+    public static void abort(Thread thread) {
+        HttpUriRequest request = RUNNING_REQUESTS.get(thread);
+        if (request != null) {
+            request.abort();
+        }
+    }
+
+    /**
+     * Writes the body of the response to the sink as it arrives.
+     */
+    public void writeTo(boolean gzip, final OutputStream sink) throws IOException {
+        stream(gzip, new HttpContentHandler() {
+            public void handle(InputStream content) throws IOException {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = content.read(buffer)) != -1) {
+                    sink.write(buffer, 0, n);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs {@link #fetch(boolean)} in the shared pool of the fetchers.
+     * 
+     * @param listener can be null, the future has the same outcome
+     */
+    public Future<byte[]> asyncFetch(final boolean gzip, final HttpFetcherListener listener) {
+        return ASYNC_EXECUTOR.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                try {
+                    byte[] body = (byte[]) fetch(gzip)[0];
+                    if (listener != null) {
+                        listener.onSuccess(body);
+                    }
+                    return body;
+                } catch (Exception e) {
+                    if (listener != null) {
+                        listener.onError(e);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs {@link #stream(boolean, HttpContentHandler)} in the shared pool of
+     * the fetchers, errors are reported by the future.
+     */
+    public Future<?> asyncStream(final boolean gzip, final HttpContentHandler handler) {
+        return ASYNC_EXECUTOR.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                stream(gzip, handler);
+                return null;
+            }
+        });
+    }
+
     public byte[] fetch() {
         Object[] objArray = null;
         try {
@@ -201,7 +416,6 @@ public class HttpFetcher {
     public void save(File file) throws IOException {
         HttpHost httpHost = new HttpHost(_uri.getHost(), _uri.getPort());
         HttpGet httpGet = new HttpGet(_uri);
-        httpGet.addHeader("Connection", "close");
 
         HttpParams params = httpGet.getParams();
         HttpConnectionParams.setConnectionTimeout(params, _timeout);
@@ -221,6 +435,7 @@ public class HttpFetcher {
             HttpResponse response = DEFAULT_HTTP_CLIENT.execute(httpHost, httpGet);
 
             if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300) {
+                consume(response);
                 throw new IOException("bad status code, downloading file " + response.getStatusLine().getStatusCode());
             }
 
@@ -261,8 +476,10 @@ public class HttpFetcher {
 
             HttpResponse response = DEFAULT_HTTP_CLIENT.execute(httpHost, httpPost);
 
-            if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300)
+            if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300) {
+                consume(response);
                 throw new IOException("bad status code, upload file " + response.getStatusLine().getStatusCode());
+            }
 
             if (response.getEntity() != null) {
                 response.getEntity().writeTo(baos);
@@ -290,40 +507,12 @@ public class HttpFetcher {
     }
 
     public void post(File file) throws IOException {
-        HttpHost httpHost = new HttpHost(_uri.getHost(), _uri.getPort());
-        HttpPost httpPost = new HttpPost(_uri);
         FileEntity fileEntity = new FileEntity(file, "binary/octet-stream");
         fileEntity.setChunked(true);
-        httpPost.setEntity(fileEntity);
-
-        HttpParams params = httpPost.getParams();
-        HttpConnectionParams.setConnectionTimeout(params, _timeout);
-        HttpConnectionParams.setSoTimeout(params, _timeout);
-        HttpConnectionParams.setStaleCheckingEnabled(params, true);
-        HttpConnectionParams.setTcpNoDelay(params, true);
-        HttpClientParams.setRedirecting(params, true);
-        HttpProtocolParams.setUseExpectContinue(params, false);
-        HttpProtocolParams.setUserAgent(params, DEFAULT_USER_AGENT);
-
-        try {
-
-            HttpResponse response = DEFAULT_HTTP_CLIENT.execute(httpHost, httpPost);
-
-            if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300)
-                throw new IOException("bad status code, upload file " + response.getStatusLine().getStatusCode());
-
-        } catch (IOException e) {
-            throw e;
-        } catch (Exception e) {
-            new IOException("Http error: " + e.getMessage(), e);
-        } finally {
-            //
-        }
+        post(fileEntity);
     }
 
     public void post(FileEntity fileEntity) throws IOException {
-        HttpClient httpClient = setupHttpClient(false);
-        
         HttpHost httpHost = new HttpHost(_uri.getHost(), _uri.getPort());
         HttpPost httpPost = new HttpPost(_uri);
         httpPost.setEntity(fileEntity);
@@ -339,7 +528,10 @@ public class HttpFetcher {
 
         try {
 
-            HttpResponse response = httpClient.execute(httpHost, httpPost);
+            HttpResponse response = DEFAULT_HTTP_CLIENT.execute(httpHost, httpPost);
+
+            // release the connection to the pool
+            consume(response);
 
             if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300)
                 throw new IOException("bad status code, upload file " + response.getStatusLine().getStatusCode());
@@ -349,7 +541,7 @@ public class HttpFetcher {
         } catch (Exception e) {
             new IOException("Http error: " + e.getMessage(), e);
         } finally {
-            httpClient.getConnectionManager().shutdown();
+            //
         }
     }
 
@@ -358,7 +550,7 @@ public class HttpFetcher {
     }
 
     public void asyncPost(final String body, final String contentType, final HttpFetcherListener listener) {
-        Thread thread = new Thread(new Runnable() {
+        ASYNC_EXECUTOR.execute(new Runnable() {
             public void run() {
                 try {
                     byte[] post = post(body, contentType);
@@ -370,8 +562,6 @@ public class HttpFetcher {
                 }
             }
         });
-        thread.setName("HttpFetcher-asyncPost");
-        thread.start();
     }
 
     public void asyncRequest(HttpRequestInfo reqInfo, HttpFetcherListener listener) {
@@ -383,7 +573,7 @@ public class HttpFetcher {
     }
 
     private void asyncGet(final HttpFetcherListener listener) {
-        Thread thread = new Thread(new Runnable() {
+        ASYNC_EXECUTOR.execute(new Runnable() {
             public void run() {
                 byte[] fetch = fetch();
                 if (fetch == null) {
@@ -392,30 +582,64 @@ public class HttpFetcher {
                     listener.onSuccess(fetch);
                 }
             }
-
         });
-        thread.setName("HttpFetcher-asyncGet");
-        thread.start();
     }
 
-    private static void setupHttpClients() {
-        DEFAULT_HTTP_CLIENT = setupHttpClient(false);
-        DEFAULT_HTTP_CLIENT_GZIP = setupHttpClient(true);
+    private HttpGet newHttpGet(String referer) {
+        HttpGet httpGet = new HttpGet(_uri);
+        if (referer != null) {
+            httpGet.addHeader("Referer", referer);
+        }
+
+        HttpParams params = httpGet.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, _timeout);
+        HttpConnectionParams.setSoTimeout(params, _timeout);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpClientParams.setRedirecting(params, true);
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpProtocolParams.setUserAgent(params, _userAgent);
+
+        return httpGet;
     }
 
-    private static HttpClient setupHttpClient(boolean gzip) {
+    private static ExecutorService newAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 5L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE), ExecutorsHelper.daemonThreadFactory("HttpFetcher-async"), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void setupHttpClients() {
+        CONNECTION_MANAGER = setupConnectionManager();
+        DEFAULT_HTTP_CLIENT = setupHttpClient(CONNECTION_MANAGER, false);
+        DEFAULT_HTTP_CLIENT_GZIP = setupHttpClient(CONNECTION_MANAGER, true);
 
+        Timer timer = new Timer("HttpFetcher-IdleConnectionReaper", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                CONNECTION_MANAGER.closeExpiredConnections();
+                CONNECTION_MANAGER.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+        }, IDLE_CONNECTION_TIMEOUT, IDLE_CONNECTION_TIMEOUT);
+    }
+
+    private static ThreadSafeClientConnManager setupConnectionManager() {
         SSLSocketFactory.getSocketFactory().setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
         SchemeRegistry schemeRegistry = new SchemeRegistry();
         schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
         schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
         BasicHttpParams params = new BasicHttpParams();
-        params.setParameter(ConnManagerPNames.MAX_CONNECTIONS_PER_ROUTE, new ConnPerRouteBean(20));
-        params.setIntParameter(ConnManagerPNames.MAX_TOTAL_CONNECTIONS, 200);
-        ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
+        params.setParameter(ConnManagerPNames.MAX_CONNECTIONS_PER_ROUTE, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+        params.setIntParameter(ConnManagerPNames.MAX_TOTAL_CONNECTIONS, MAX_TOTAL_CONNECTIONS);
+        return new ThreadSafeClientConnManager(params, schemeRegistry);
+    }
+
+    private static HttpClient setupHttpClient(ClientConnectionManager cm, boolean gzip) {
 
         DefaultHttpClient httpClient = new DefaultHttpClient(cm, new BasicHttpParams());
-        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+        // one retry, a kept alive connection can be closed by the server at any time
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(1, false));
 
         if (gzip) {
             httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
@@ -426,6 +650,24 @@ public class HttpFetcher {
                 }
             });
 
+            httpClient.setReuseStrategy(new DefaultConnectionReuseStrategy() {
+                @Override
+                public boolean keepAlive(HttpResponse response, HttpContext context) {
+                    HttpEntity entity = response.getEntity();
+                    if (!(entity instanceof GzipDecompressingEntity)) {
+                        return super.keepAlive(response, context);
+                    }
+
+                    // the inflated body has no length, the connection is framed by the compressed one
+                    response.setEntity(((GzipDecompressingEntity) entity).getWrappedEntity());
+                    try {
+                        return super.keepAlive(response, context);
+                    } finally {
+                        response.setEntity(entity);
+                    }
+                }
+            });
+
             httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
                 public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
                     HttpEntity entity = response.getEntity();
@@ -470,6 +712,13 @@ public class HttpFetcher {
         }
     }
 
+    private static void consume(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            entity.consumeContent();
+        }
+    }
+
     private static URI convert(String uri) {
         try {
             return new URI(uri);
@@ -478,6 +727,28 @@ public class HttpFetcher {
         }
     }
 
+    /**
+     * The server answered 503, it's too busy to serve the request now.
+     */
+    public static final class UnavailableException extends IOException {
+
+        private static final long serialVersionUID = 4617412931232787493L;
+
+        private final String retryAfter;
+
+        public UnavailableException(String retryAfter) {
+            super("Service unavailable");
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return the Retry-After header of the response, or null
+         */
+        public String getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
     public static class HttpRequestInfo {
 
         private boolean _isGet;
@@ -510,6 +781,10 @@ public class HttpFetcher {
             super(entity);
         }
 
+        public HttpEntity getWrappedEntity() {
+            return wrappedEntity;
+        }
+
         @Override
         public InputStream getContent() throws IOException, IllegalStateException {
             return new GZIPInputStream(wrappedEntity.getContent());
@@ -519,5 +794,19 @@ public class HttpFetcher {
         public long getContentLength() {
             return -1;
         }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
     }
 }
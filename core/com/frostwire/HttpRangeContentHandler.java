@@ -0,0 +1,20 @@
+package com.frostwire;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the body of a range request as it arrives from the network.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public interface HttpRangeContentHandler {
+
+    /**
+     * @param offset the position in the resource the content starts at, zero
+     * if the server ignored the range
+     */
+    public void handle(InputStream content, long offset) throws IOException;
+}
@@ -24,11 +24,13 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.OSUtils;
 
 import com.limegroup.gnutella.settings.SharingSettings;
@@ -43,6 +45,11 @@ public class ImageCache {
 
     private static final Log LOG = LogFactory.getLog(ImageCache.class);
 
+    /**
+     * Downloads the images, the connections are shared with the other fetchers.
+     */
+    private static final ExecutorService LOADER = ExecutorsHelper.newFixedSizeThreadPool(4, "ImageCache-loader");
+
     private static ImageCache instance;
 
     public synchronized static ImageCache instance() {
@@ -129,8 +136,7 @@ public class ImageCache {
     }
 
     private void loadFromUrl(final URL url, final OnLoadedListener listener) {
-        // TODO: may be I must use BackgroundExecutorService
-        new Thread(new Runnable() {
+        LOADER.execute(new Runnable() {
             public void run() {
                 try {
                     BufferedImage image = null;
@@ -157,7 +163,7 @@ public class ImageCache {
                     listener.onLoaded(url, null, false, true);
                 }
             }
-        }).start();
+        });
     }
 
     private void saveToCache(URL url, BufferedImage image, long date) {
@@ -1,5 +1,9 @@
 package com.frostwire.bittorrent.websearch;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -9,8 +13,7 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.limewire.util.StringUtils;
-
+import com.frostwire.HttpContentHandler;
 import com.frostwire.HttpFetcher;
 
 /**
@@ -19,11 +22,29 @@ import com.frostwire.HttpFetcher;
  * @author gubatron
  *
  */
-public abstract class HttpWebSearchPerformer implements WebSearchPerformer {
+public abstract class HttpWebSearchPerformer implements StreamingWebSearchPerformer {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_MATCH_LENGTH = 64 * 1024;
 
     public List<WebSearchResult> search(String keywords) {
-        List<WebSearchResult> result = new ArrayList<WebSearchResult>();
-        
+        final List<WebSearchResult> result = new ArrayList<WebSearchResult>();
+
+        search(keywords, new WebSearchListener() {
+            public void onResult(WebSearchResult sr) {
+                result.add(sr);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Runs the regex over the html as it arrives from the network, reporting
+     * every result as soon as it's matched. Only the text that has not been
+     * consumed by a match is kept in memory.
+     */
+    public void search(String keywords, final WebSearchListener listener) {
         try {
             keywords = URLEncoder.encode(keywords, "UTF-8");
         } catch (UnsupportedEncodingException e) {
@@ -35,40 +56,75 @@ public abstract class HttpWebSearchPerformer implements WebSearchPerformer {
             fetcher = new HttpFetcher(getURI(keywords), HTTP_TIMEOUT);
         } catch (URISyntaxException e) {
             e.printStackTrace();
-            return result;
+            return;
         }
-        byte[] htmlBytes = fetcher.fetch();
 
-        if (htmlBytes == null) {
-            return result;
+        try {
+            fetcher.stream(false, new HttpContentHandler() {
+                public void handle(InputStream content) throws IOException {
+                    parse(new InputStreamReader(content, "UTF-8"), listener);
+                }
+            });
+        } catch (IOException e) {
+            // ignore, same as an empty response
         }
+    }
 
-        String html = StringUtils.getUTF8String(htmlBytes);
+    private void parse(Reader reader, WebSearchListener listener) throws IOException {
+        Pattern pattern = Pattern.compile(getRegex());
+
+        StringBuilder html = new StringBuilder();
+        char[] buffer = new char[READ_BUFFER_SIZE];
 
-        String regex = getRegex();
-        
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(html);
-        
-        //System.out.println(html);
-        
         int max = getMaxResults();
-        
+        int maxMatchLength = getMaxMatchLength();
+
         int i = 0;
-        
-        while (matcher.find() && i < max) {
-            try {
-                WebSearchResult sr = getNextSearchResult(matcher);
+        boolean eof = false;
+
+        while (!eof && i < max && !Thread.currentThread().isInterrupted()) {
+            int n = reader.read(buffer);
+            if (n == -1) {
+                eof = true;
+            } else {
+                html.append(buffer, 0, n);
+            }
+
+            Matcher matcher = pattern.matcher(html);
+            int consumed = 0;
+            int pending = -1;
+
+            while (i < max && matcher.find()) {
+                // more input could change this match, wait for it
+                if (!eof && matcher.hitEnd()) {
+                    pending = matcher.start();
+                    break;
+                }
+
+                consumed = matcher.end();
+
+                WebSearchResult sr = null;
+                try {
+                    sr = getNextSearchResult(matcher);
+                } catch (Exception e) {
+                    // do nothing
+                }
+
+                // outside the catch, a listener that throws stops the parse and the request
                 if (sr != null) {
-                    result.add(sr);
+                    listener.onResult(sr);
                     i++;
                 }
-            } catch (Exception e) {
-                // do nothing
+            }
+
+            // the next read only rescans from the match waiting for input, and a match
+            // can't start further back than the longest match from the end
+            int keep = Math.max(pending != -1 ? pending : consumed, html.length() - maxMatchLength);
+
+            if (keep > 0) {
+                html.delete(0, keep);
             }
         }
-        
-        return result;
     }
 
     /** Returns the URI of the search engine search command */
@@ -83,4 +139,9 @@ public abstract class HttpWebSearchPerformer implements WebSearchPerformer {
     protected int getMaxResults() {
         return Integer.MAX_VALUE;
     }
+
+    /** The longest text a single match of the regex can span */
+    protected int getMaxMatchLength() {
+        return MAX_MATCH_LENGTH;
+    }
 }
@@ -0,0 +1,14 @@
+package com.frostwire.bittorrent.websearch;
+
+/**
+ * A performer able to report every result as soon as it's parsed, instead of
+ * waiting for the whole response of the search engine.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public interface StreamingWebSearchPerformer extends WebSearchPerformer {
+
+    public void search(String keywords, WebSearchListener listener);
+}
@@ -0,0 +1,12 @@
+package com.frostwire.bittorrent.websearch;
+
+/**
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public interface WebSearchListener {
+
+    public void onResult(WebSearchResult result);
+}
@@ -103,6 +103,29 @@ public abstract class ContentProvider {
      */
     public abstract Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder);
 
+    /**
+     * Implement this to handle keyset (seek) pagination requests, the page of
+     * at most limit rows sorted after the row with the given values of the
+     * sort columns. The cost of a page doesn't depend on how deep it is.
+     * <p>
+     * The default implementation throws UnsupportedOperationException.
+     *
+     * @param uri The URI to query.
+     * @param projection The list of columns to put into the cursor.
+     * @param selection A selection criteria to apply when filtering rows.
+     * @param selectionArgs The values of the ?s in selection.
+     * @param sortColumns The columns of the sort, the last one must be unique.
+     * @param descending The direction of every sort column.
+     * @param lastValues The values of the sort columns of the last row of the
+     *      previous page, or null for the first page.
+     * @param limit The maximum number of rows.
+     * @return a Cursor or null.
+     * @see com.frostwire.database.sqlite.SQLiteQueryBuilder#querySeek
+     */
+    public Cursor querySeek(Uri uri, String[] projection, String selection, String[] selectionArgs, String[] sortColumns, boolean[] descending, String[] lastValues, int limit) {
+        throw new UnsupportedOperationException("Keyset pagination not supported by " + getClass().getName());
+    }
+
     /**
      * Implement this to handle requests for the MIME type of the data at the
      * given URI.  The returned MIME type should start with
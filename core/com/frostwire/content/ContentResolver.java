@@ -93,6 +93,36 @@ public class ContentResolver {
         }
     }
 
+    /**
+     * Query a page of the given URI using keyset (seek) pagination, resuming
+     * after the row with the given values of the sort columns instead of
+     * skipping rows, see {@link ContentProvider#querySeek}.
+     *
+     * @param lastValues the values of the sort columns of the last row of the
+     *         previous page, or null for the first page.
+     * @return A Cursor object, which is positioned before the first entry, or null
+     */
+    public final Cursor querySeek(Uri uri, String[] projection, String selection, String[] selectionArgs, String[] sortColumns, boolean[] descending, String[] lastValues, int limit) {
+        ContentProvider provider = acquireProvider(uri);
+        if (provider == null) {
+            return null;
+        }
+        try {
+            Cursor qCursor = provider.querySeek(uri, projection, selection, selectionArgs, sortColumns, descending, lastValues, limit);
+            if (qCursor == null) {
+                releaseProvider(provider);
+                return null;
+            }
+            // force query execution
+            qCursor.getCount();
+
+            return qCursor;
+        } catch (RuntimeException e) {
+            releaseProvider(provider);
+            throw e;
+        }
+    }
+
     /**
      * Inserts a row into a table at the given URL.
      *
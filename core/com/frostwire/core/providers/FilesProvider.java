@@ -166,6 +166,25 @@ public class FilesProvider extends ContentProvider {
         return c;
     }
 
+    @Override
+    public Cursor querySeek(Uri uri, String[] projection, String selection, String[] selectionArgs, String[] sortColumns, boolean[] descending, String[] lastValues, int limit) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+
+        qb.setTables(DOCUMENTS_TABLE_NAME);
+
+        switch (uriMatcher.match(uri)) {
+        case DOCUMENTS_ALL:
+            break;
+
+        default:
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        return qb.querySeek(db, projection, selection, selectionArgs, sortColumns, descending, lastValues, limit);
+    }
+
     @Override
     public String getType(Uri uri) {
         switch (uriMatcher.match(uri)) {
@@ -338,6 +357,12 @@ public class FilesProvider extends ContentProvider {
                     + DocumentsColumns.DATE_ADDED + " BIGINT," + DocumentsColumns.DATE_MODIFIED + " BIGINT," + DocumentsColumns.MIME_TYPE + " VARCHAR" + ");");
         }
 
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            // the keyset pages seek on the default sort, older databases don't have it
+            db.execSQL("CREATE INDEX IF NOT EXISTS idx_" + DOCUMENTS_TABLE_NAME + "_" + DocumentsColumns.DATE_ADDED + " ON " + DOCUMENTS_TABLE_NAME + " (" + DocumentsColumns.DATE_ADDED + ", " + DocumentsColumns._ID + ")");
+        }
+
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             LOG.warning("Upgrading documents database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
@@ -1,5 +1,8 @@
 package com.frostwire.core.providers;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 import com.frostwire.content.ContentValues;
@@ -25,6 +28,8 @@ public final class ShareFilesDB {
 
     private final DatabaseHelper databaseHelper;
 
+    private final List<ChangeListener> changeListeners;
+
     private static ShareFilesDB instance = new ShareFilesDB();
 
     public static ShareFilesDB intance() {
@@ -33,9 +38,34 @@ public final class ShareFilesDB {
 
     private ShareFilesDB() {
         databaseHelper = new DatabaseHelper(new Context());
+        changeListeners = new CopyOnWriteArrayList<ChangeListener>();
+    }
+
+    /**
+     * Registers a listener of the changes in the table. The listener first
+     * gets an insert for every row already in the table, no writes happen in
+     * between.
+     */
+    public synchronized void addChangeListener(ChangeListener listener) {
+        for (Row row : queryRows(null, null)) {
+            listener.onInsert(row.fileType, row.filePath, row.shared);
+        }
+
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * @param limit formatted as LIMIT clause, "count" or "offset, count"
+     */
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 
         qb.setTables(TABLE_NAME);
@@ -52,11 +82,25 @@ public final class ShareFilesDB {
         // Get the database and run the query
         SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
+        Cursor c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit);
 
         return c;
     }
 
+    /**
+     * Keyset pagination over the rows by id, at most limit rows with an id
+     * greater than afterId, all of them if limit is negative.
+     */
+    public Cursor querySeek(String[] projection, String selection, String[] selectionArgs, int afterId, int limit) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+
+        qb.setTables(TABLE_NAME);
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        return qb.querySeek(db, projection, selection, selectionArgs, new String[] { Columns.ID }, new boolean[] { false }, new String[] { String.valueOf(afterId) }, limit);
+    }
+
     public long insert(ContentValues initialValues) {
         ContentValues values;
 
@@ -114,26 +158,114 @@ public final class ShareFilesDB {
 
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-        return db.insert(TABLE_NAME, "", values);
+        synchronized (this) {
+            long id = db.insert(TABLE_NAME, "", values);
+
+            if (id != -1) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.onInsert(values.getAsByte(Columns.FILE_TYPE), values.getAsString(Columns.FILE_PATH), values.getAsBoolean(Columns.SHARED));
+                }
+            }
+
+            return id;
+        }
     }
 
-    public int delete(String where, String[] whereArgs) {
+    public synchronized int delete(String where, String[] whereArgs) {
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
+        List<Row> rows = changeListeners.isEmpty() ? null : queryRows(where, whereArgs);
+
         int count = db.delete(TABLE_NAME, where, whereArgs);
 
+        if (rows != null && count > 0) {
+            for (Row row : rows) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.onDelete(row.fileType, row.filePath, row.shared);
+                }
+            }
+        }
+
         return count;
     }
 
-    public int update(ContentValues values, String where, String[] whereArgs) {
+    public synchronized int update(ContentValues values, String where, String[] whereArgs) {
 
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
+        List<Row> rows = changeListeners.isEmpty() ? null : queryRows(where, whereArgs);
+
         int count = db.update(TABLE_NAME, values, where, whereArgs);
 
+        // an update is seen as the delete of the old rows and the insert of the new ones,
+        // the new state is the old one with the updated values, no need to read it back
+        if (rows != null && count > 0) {
+            Byte newFileType = values.containsKey(Columns.FILE_TYPE) ? values.getAsByte(Columns.FILE_TYPE) : null;
+            String newFilePath = values.containsKey(Columns.FILE_PATH) ? values.getAsString(Columns.FILE_PATH) : null;
+            Boolean newShared = values.containsKey(Columns.SHARED) ? values.getAsBoolean(Columns.SHARED) : null;
+
+            for (Row row : rows) {
+                byte fileType = newFileType != null ? newFileType : row.fileType;
+                String filePath = newFilePath != null ? newFilePath : row.filePath;
+                boolean shared = newShared != null ? newShared : row.shared;
+
+                for (ChangeListener listener : changeListeners) {
+                    listener.onDelete(row.fileType, row.filePath, row.shared);
+                    listener.onInsert(fileType, filePath, shared);
+                }
+            }
+        }
+
         return count;
     }
 
+    private List<Row> queryRows(String where, String[] whereArgs) {
+        List<Row> rows = new ArrayList<Row>();
+
+        Cursor c = null;
+        try {
+            c = query(new String[] { Columns.FILE_TYPE, Columns.FILE_PATH, Columns.SHARED }, where, whereArgs, Columns.ID);
+
+            int fileTypeCol = c.getColumnIndex(Columns.FILE_TYPE);
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+            int sharedCol = c.getColumnIndex(Columns.SHARED);
+
+            while (c.moveToNext()) {
+                rows.add(new Row(c.getByte(fileTypeCol), c.getString(filePathCol), c.getBoolean(sharedCol)));
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Listener of the changes in the table, called right after every write
+     * with the affected rows. Must not write to the table.
+     */
+    public interface ChangeListener {
+
+        public void onInsert(byte fileType, String filePath, boolean shared);
+
+        public void onDelete(byte fileType, String filePath, boolean shared);
+    }
+
+    private static final class Row {
+
+        public final byte fileType;
+        public final String filePath;
+        public final boolean shared;
+
+        public Row(byte fileType, String filePath, boolean shared) {
+            this.fileType = fileType;
+            this.filePath = filePath;
+            this.shared = shared;
+        }
+    }
+
     public static final class Columns {
 
         private Columns() {
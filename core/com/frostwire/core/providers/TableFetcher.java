@@ -34,6 +34,20 @@ public interface TableFetcher {
 
     public String getSortByExpression();
 
+    /**
+     * The columns of the sort for keyset pagination, the last one must be
+     * unique. A page resumes after the values of the last file of the
+     * previous one instead of skipping rows.
+     */
+    public String[] getSeekColumns();
+
+    public boolean[] getSeekDescending();
+
+    /**
+     * @return the values of the seek columns for this file
+     */
+    public String[] getSeekValues(FileDescriptor fd);
+
     public Uri getContentUri();
 
     public void prepare(Cursor cur);
@@ -69,6 +69,18 @@ public final class TableFetchers {
             return AudioColumns.DATE_ADDED + " DESC";
         }
 
+        public String[] getSeekColumns() {
+            return new String[] { AudioColumns.DATE_ADDED, AudioColumns._ID };
+        }
+
+        public boolean[] getSeekDescending() {
+            return new boolean[] { true, true };
+        }
+
+        public String[] getSeekValues(FileDescriptor fd) {
+            return new String[] { String.valueOf(fd.dateAdded), String.valueOf(fd.id) };
+        }
+
         public Uri getContentUri() {
             return MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
         }
@@ -144,6 +156,18 @@ public final class TableFetchers {
             return ImageColumns.DATE_ADDED + " DESC";
         }
 
+        public String[] getSeekColumns() {
+            return new String[] { ImageColumns.DATE_ADDED, ImageColumns._ID };
+        }
+
+        public boolean[] getSeekDescending() {
+            return new boolean[] { true, true };
+        }
+
+        public String[] getSeekValues(FileDescriptor fd) {
+            return new String[] { String.valueOf(fd.dateAdded), String.valueOf(fd.id) };
+        }
+
         public void prepare(Cursor cur) {
             idCol = cur.getColumnIndex(ImageColumns._ID);
             titleCol = cur.getColumnIndex(ImageColumns.TITLE);
@@ -197,6 +221,18 @@ public final class TableFetchers {
             return VideoColumns.DATE_ADDED + " DESC";
         }
 
+        public String[] getSeekColumns() {
+            return new String[] { VideoColumns.DATE_ADDED, VideoColumns._ID };
+        }
+
+        public boolean[] getSeekDescending() {
+            return new boolean[] { true, true };
+        }
+
+        public String[] getSeekValues(FileDescriptor fd) {
+            return new String[] { String.valueOf(fd.dateAdded), String.valueOf(fd.id) };
+        }
+
         public void prepare(Cursor cur) {
             idCol = cur.getColumnIndex(VideoColumns._ID);
             pathCol = cur.getColumnIndex(VideoColumns.DATA);
@@ -248,6 +284,18 @@ public final class TableFetchers {
             return DocumentsColumns.DATE_ADDED + " DESC";
         }
 
+        public String[] getSeekColumns() {
+            return new String[] { DocumentsColumns.DATE_ADDED, DocumentsColumns._ID };
+        }
+
+        public boolean[] getSeekDescending() {
+            return new boolean[] { true, true };
+        }
+
+        public String[] getSeekValues(FileDescriptor fd) {
+            return new String[] { String.valueOf(fd.dateAdded), String.valueOf(fd.id) };
+        }
+
         public void prepare(Cursor cur) {
             idCol = cur.getColumnIndex(DocumentsColumns._ID);
             pathCol = cur.getColumnIndex(DocumentsColumns.DATA);
@@ -299,6 +347,18 @@ public final class TableFetchers {
             return "";
         }
 
+        public String[] getSeekColumns() {
+            return new String[] { ApplicationsColumns._ID };
+        }
+
+        public boolean[] getSeekDescending() {
+            return new boolean[] { false };
+        }
+
+        public String[] getSeekValues(FileDescriptor fd) {
+            return new String[] { String.valueOf(fd.id) };
+        }
+
         public void prepare(Cursor cur) {
             idCol = cur.getColumnIndex(ApplicationsColumns._ID);
             titleCol = cur.getColumnIndex(ApplicationsColumns.TITLE);
@@ -355,6 +415,18 @@ public final class TableFetchers {
             return AudioColumns.DATE_ADDED + " DESC";
         }
 
+        public String[] getSeekColumns() {
+            return new String[] { AudioColumns.DATE_ADDED, AudioColumns._ID };
+        }
+
+        public boolean[] getSeekDescending() {
+            return new boolean[] { true, true };
+        }
+
+        public String[] getSeekValues(FileDescriptor fd) {
+            return new String[] { String.valueOf(fd.dateAdded), String.valueOf(fd.id) };
+        }
+
         public void prepare(Cursor cur) {
             idCol = cur.getColumnIndex(AudioColumns._ID);
             pathCol = cur.getColumnIndex(AudioColumns.DATA);
@@ -128,6 +128,8 @@ public abstract class SQLiteOpenHelper {
                 onCreate(db);
             }
 
+            onOpen(db);
+
             return db;
         } catch (Throwable e) {
             LOG.log(Level.SEVERE, "Error opening the database", e);
@@ -253,6 +253,142 @@ public class SQLiteQueryBuilder
         s.append(' ');
     }
 
+    /**
+     * Build the selection of a keyset (seek) page: the rows sorted after the
+     * row with the given values of the sort columns. Unlike an OFFSET, the
+     * cost of a page doesn't depend on how deep it is, as long as the sort
+     * columns are indexed. For two descending columns it looks like:
+     *
+     * a &lt;= ? AND (a &lt; ? OR (a = ? AND b &lt; ?))
+     *
+     * The leading condition only narrows the index range of the first column.
+     * Use {@link #buildSeekSelectionArgs(String[])} for the matching
+     * arguments and {@link #buildSeekSortOrder(String[], boolean[])} for the
+     * sort order.
+     *
+     * @param sortColumns the columns of the sort, the last one must be unique,
+     *   usually the _id.
+     * @param descending the direction of every sort column.
+     * @return the selection, with a ? for every value.
+     */
+    public static String buildSeekSelection(String[] sortColumns, boolean[] descending) {
+        if (sortColumns == null || sortColumns.length == 0 || descending == null || sortColumns.length != descending.length) {
+            throw new IllegalArgumentException("Every sort column needs a direction");
+        }
+
+        StringBuilder where = new StringBuilder(32 * sortColumns.length);
+
+        where.append(sortColumns[0]);
+        where.append(descending[0] ? " <= ?" : " >= ?");
+        where.append(" AND (");
+
+        for (int i = 0; i < sortColumns.length; i++) {
+            if (i > 0) {
+                where.append(" OR ");
+            }
+            where.append('(');
+            for (int j = 0; j < i; j++) {
+                where.append(sortColumns[j]);
+                where.append(" = ? AND ");
+            }
+            where.append(sortColumns[i]);
+            where.append(descending[i] ? " < ?" : " > ?");
+            where.append(')');
+        }
+
+        where.append(')');
+
+        return where.toString();
+    }
+
+    /**
+     * Expand the values of the last row of a page to the arguments of
+     * {@link #buildSeekSelection(String[], boolean[])}.
+     *
+     * @param lastValues the values of the sort columns of the last row.
+     * @return the selection arguments, in order.
+     */
+    public static String[] buildSeekSelectionArgs(String[] lastValues) {
+        int n = lastValues.length;
+        String[] args = new String[1 + n * (n + 1) / 2];
+
+        int k = 0;
+        args[k++] = lastValues[0];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                args[k++] = lastValues[j];
+            }
+        }
+
+        return args;
+    }
+
+    /**
+     * Build the sort order of a keyset (seek) page, the same columns and
+     * directions of the selection.
+     */
+    public static String buildSeekSortOrder(String[] sortColumns, boolean[] descending) {
+        StringBuilder orderBy = new StringBuilder(16 * sortColumns.length);
+
+        for (int i = 0; i < sortColumns.length; i++) {
+            if (i > 0) {
+                orderBy.append(", ");
+            }
+            orderBy.append(sortColumns[i]);
+            orderBy.append(descending[i] ? " DESC" : " ASC");
+        }
+
+        return orderBy.toString();
+    }
+
+    /**
+     * Perform a keyset (seek) query, returning at most limit rows sorted
+     * after the row with the given values of the sort columns, see
+     * {@link #buildSeekSelection(String[], boolean[])}.
+     *
+     * @param db the database to query on
+     * @param projectionIn A list of which columns to return.
+     * @param selection A filter declaring which rows to return, ANDed with
+     *   the seek condition.
+     * @param selectionArgs the arguments of the selection.
+     * @param sortColumns the columns of the sort, the last one unique.
+     * @param descending the direction of every sort column.
+     * @param lastValues the values of the sort columns of the last row of
+     *   the previous page, or null for the first page.
+     * @param limit the maximum number of rows, negative for no limit.
+     * @return a cursor over the result set
+     */
+    public Cursor querySeek(SQLiteDatabase db, String[] projectionIn,
+            String selection, String[] selectionArgs, String[] sortColumns,
+            boolean[] descending, String[] lastValues, int limit) {
+        String sortOrder = buildSeekSortOrder(sortColumns, descending);
+
+        if (lastValues == null) {
+            return query(db, projectionIn, selection, selectionArgs, null, null, sortOrder,
+                    String.valueOf(limit));
+        }
+
+        if (lastValues.length != sortColumns.length) {
+            throw new IllegalArgumentException("Every sort column needs a value");
+        }
+
+        String seekSelection = buildSeekSelection(sortColumns, descending);
+        String[] seekArgs = buildSeekSelectionArgs(lastValues);
+
+        if (!TextUtils.isEmpty(selection)) {
+            seekSelection = "(" + selection + ") AND " + seekSelection;
+            if (selectionArgs != null && selectionArgs.length > 0) {
+                String[] args = new String[selectionArgs.length + seekArgs.length];
+                System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+                System.arraycopy(seekArgs, 0, args, selectionArgs.length, seekArgs.length);
+                seekArgs = args;
+            }
+        }
+
+        return query(db, projectionIn, seekSelection, seekArgs, null, null, sortOrder,
+                String.valueOf(limit));
+    }
+
     /**
      * Perform a query by combining all current settings and the
      * information passed into this method.
@@ -25,9 +25,12 @@
 
 package com.frostwire.httpserver;
 
+import java.io.EOFException;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * a class which allows the caller to write up to a defined
@@ -77,6 +80,46 @@ public class FixedLengthOutputStream extends FilterOutputStream {
         remaining -= len;
     }
 
+    /**
+     * Writes count bytes of the file from position, straight from the file
+     * to the socket when the underlying stream is the raw socket one.
+     */
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        eof = (remaining == 0);
+        if (eof) {
+            throw new StreamClosedException();
+        }
+        if (count > remaining) {
+            throw new IOException("too many bytes to write to stream");
+        }
+        if (out instanceof Request.WriteStream) {
+            ((Request.WriteStream) out).transferFrom(src, position, count);
+        } else {
+            copy(src, position, count, out);
+        }
+        remaining -= count;
+    }
+
+    static void copy(FileChannel src, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        while (count > 0) {
+            buf.clear();
+            if (buf.remaining() > count) {
+                buf.limit((int) count);
+            }
+            int n = src.read(buf, position);
+            if (n == -1) {
+                throw new EOFException("end of file reached");
+            }
+            out.write(buf.array(), 0, n);
+            position += n;
+            count -= n;
+        }
+    }
+
     public void close() throws IOException {
         if (closed) {
             return;
@@ -57,6 +57,10 @@ public class HttpConnection {
     int remaining;
     boolean closed = false;
 
+    /* request and idle accounting, written by the dispatcher thread */
+    int requests;
+    long idleSince;
+
     public HttpConnection() {
     }
 
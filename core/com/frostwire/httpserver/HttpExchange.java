@@ -33,6 +33,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -193,6 +194,23 @@ public class HttpExchange {
         return uos_orig;
     }
 
+    /**
+     * Writes count bytes of the file from position as part of the response
+     * body. With a fixed length response and no stream set by a filter the
+     * bytes go from the file to the socket with FileChannel.transferTo,
+     * otherwise they are copied through the response body.
+     */
+    public void sendFile(FileChannel src, long position, long count) throws IOException {
+        if (!sentHeaders) {
+            throw new IOException("response headers not sent yet");
+        }
+        if (uos == uos_orig && uos_orig.wrapped instanceof FixedLengthOutputStream) {
+            ((FixedLengthOutputStream) uos_orig.wrapped).transferFrom(src, position, count);
+        } else {
+            FixedLengthOutputStream.copy(src, position, count, getResponseBody());
+        }
+    }
+
     public void sendResponseHeaders(int rCode, long contentLen) throws IOException {
         if (sentHeaders) {
             throw new IOException("headers already sent");
@@ -34,6 +34,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -47,7 +48,14 @@ import java.util.List;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -61,9 +69,16 @@ public class HttpServer {
     private static final int CLOCK_TICK = ServerConfig.getClockTick();
     private static final long IDLE_INTERVAL = ServerConfig.getIdleInterval();
     private static final int MAX_IDLE_CONNECTIONS = ServerConfig.getMaxIdleConnections();
+    private static final int MAX_KEEP_ALIVE_REQUESTS = ServerConfig.getMaxKeepAliveRequests();
+
+    /* sent without parsing the request when all the workers are busy */
+    private static final byte[] BUSY_REPLY = ("HTTP/1.1 " + Code.HTTP_UNAVAILABLE + Code.msg(Code.HTTP_UNAVAILABLE) + "\r\n" + "Retry-After: " + ServerConfig.getRetryAfter() + "\r\n" + "Content-Length: 0\r\n" + "Connection: close\r\n\r\n").getBytes();
 
     private String _protocol;
     private Executor _executor;
+    private ThreadPoolExecutor _workers; /* the executor, when created by the server */
+    private int _workerThreads = ServerConfig.getWorkerThreads();
+    private int _workerQueueSize = ServerConfig.getWorkerQueueSize();
     private ContextList _contexts;
     private ServerSocketChannel _schan;
     private Selector _selector;
@@ -85,6 +100,15 @@ public class HttpServer {
 
     private Timer _timer;
 
+    /* metrics */
+    private final AtomicLong _acceptedConnections = new AtomicLong();
+    private final AtomicLong _requests = new AtomicLong();
+    private final AtomicLong _keepAliveRequests = new AtomicLong();
+    private final AtomicLong _pipelinedRequests = new AtomicLong();
+    private final AtomicLong _rejectedRequests = new AtomicLong();
+    private final AtomicLong _idleTimeouts = new AtomicLong();
+    private final AtomicLong _idleTime = new AtomicLong();
+
     public HttpServer(String protocol, InetSocketAddress addr, int backlog) throws IOException {
 
         _protocol = protocol;
@@ -125,7 +149,8 @@ public class HttpServer {
             throw new IllegalStateException("server in wrong state");
         }
         if (_executor == null) {
-            _executor = new DefaultExecutor();
+            _workers = newWorkerPool(_workerThreads, _workerQueueSize);
+            _executor = _workers;
         }
         Thread t = new Thread(dispatcher);
         _started = true;
@@ -139,9 +164,41 @@ public class HttpServer {
         this._executor = executor;
     }
 
-    private static class DefaultExecutor implements Executor {
-        public void execute(Runnable task) {
-            task.run();
+    /**
+     * Sets the size of the worker pool the exchanges run on, used if no
+     * executor is set. When all the workers are busy and the queue is full
+     * the client gets a 503 with a Retry-After.
+     *
+     * @param threads the maximum number of exchanges running at once
+     * @param queueSize the exchanges waiting for a worker, at least one so the
+     *            next request of a persistent connection can wait for the
+     *            worker finishing the previous one
+     */
+    public void setWorkerPool(int threads, int queueSize) {
+        if (_started) {
+            throw new IllegalStateException("server already started");
+        }
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("invalid worker pool size");
+        }
+        _workerThreads = threads;
+        _workerQueueSize = queueSize;
+    }
+
+    private static ThreadPoolExecutor newWorkerPool(int threads, int queueSize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HttpServer-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
         }
     }
 
@@ -182,6 +239,9 @@ public class HttpServer {
         _allConnections.clear();
         _idleConnections.clear();
         _timer.cancel();
+        if (_workers != null) {
+            _workers.shutdownNow();
+        }
     }
 
     Dispatcher dispatcher;
@@ -230,6 +290,72 @@ public class HttpServer {
         }
     }
 
+    /**
+     * @return the number of open connections
+     */
+    public int getConnectionCount() {
+        return _allConnections.size();
+    }
+
+    /**
+     * @return the number of persistent connections waiting for a request
+     */
+    public int getIdleConnectionCount() {
+        return _idleConnections.size();
+    }
+
+    public long getAcceptedConnectionCount() {
+        return _acceptedConnections.get();
+    }
+
+    public long getRequestCount() {
+        return _requests.get();
+    }
+
+    /**
+     * @return the requests served on an already used connection
+     */
+    public long getKeepAliveRequestCount() {
+        return _keepAliveRequests.get();
+    }
+
+    /**
+     * @return the requests already buffered when the previous one finished
+     */
+    public long getPipelinedRequestCount() {
+        return _pipelinedRequests.get();
+    }
+
+    /**
+     * @return the requests answered with a 503 because all workers were busy
+     */
+    public long getRejectedRequestCount() {
+        return _rejectedRequests.get();
+    }
+
+    /**
+     * @return the persistent connections closed for being idle too long
+     */
+    public long getIdleTimeoutCount() {
+        return _idleTimeouts.get();
+    }
+
+    /**
+     * @return the average time in milliseconds a persistent connection waited
+     *         for its next request
+     */
+    public long getAverageIdleTime() {
+        long reuses = _keepAliveRequests.get() - _pipelinedRequests.get();
+        return reuses > 0 ? _idleTime.get() / reuses : 0;
+    }
+
+    /**
+     * @return the exchanges waiting for a worker, 0 with a custom executor
+     */
+    public int getQueuedExchangeCount() {
+        return _workers != null ? _workers.getQueue().size() : 0;
+    }
+
     private int resultSize() {
         synchronized (_lolock) {
             return _events.size();
@@ -258,7 +384,8 @@ public class HttpServer {
                         _allConnections.remove(c);
                     } else {
                         if (is.isDataBuffered()) {
-                            /* don't re-enable the interestops, just handle it */
+                            /* pipelined, don't re-enable the interestops, just handle it */
+                            _pipelinedRequests.incrementAndGet();
                             handle(c.getChannel(), c);
                         } else {
                             /* re-enable interestops */
@@ -267,6 +394,7 @@ public class HttpServer {
                                 key.interestOps(key.interestOps() | SelectionKey.OP_READ);
                             }
                             c.time = getTime() + IDLE_INTERVAL;
+                            c.idleSince = System.currentTimeMillis();
                             _idleConnections.add(c);
                         }
                     }
@@ -315,6 +443,7 @@ public class HttpServer {
                             c.setChannel(chan);
                             newkey.attach(c);
                             _allConnections.add(c);
+                            _acceptedConnections.incrementAndGet();
                         } else {
                             try {
                                 if (key.isReadable()) {
@@ -322,6 +451,13 @@ public class HttpServer {
                                     HttpConnection conn = (HttpConnection) key.attachment();
                                     // interestOps will be restored at end of read
                                     key.interestOps(0);
+                                    if (conn.idleSince > 0) {
+                                        /* back from idle, the timer must not close it now */
+                                        _idleConnections.remove(conn);
+                                        long idle = System.currentTimeMillis() - conn.idleSince;
+                                        _idleTime.addAndGet(idle);
+                                        conn.idleSince = 0;
+                                    }
                                     handle(chan, conn);
                                 } else {
                                     assert false;
@@ -345,8 +481,16 @@ public class HttpServer {
 
         public void handle(SocketChannel chan, HttpConnection conn) throws IOException {
             try {
+                conn.requests++;
+                _requests.incrementAndGet();
+                if (conn.requests > 1) {
+                    _keepAliveRequests.incrementAndGet();
+                }
                 Exchange t = new Exchange(chan, _protocol, conn);
                 _executor.execute(t);
+            } catch (RejectedExecutionException e) {
+                _rejectedRequests.incrementAndGet();
+                rejectBusy(chan, conn);
             } catch (HttpError e1) {
                 LOG.log(Level.WARNING, "Dispatcher (5)", e1);
                 conn.close();
@@ -357,6 +501,20 @@ public class HttpServer {
         }
     }
 
+    /**
+     * Answers with a 503 without blocking the dispatcher, a reply this small
+     * fits in the socket buffer.
+     */
+    private void rejectBusy(SocketChannel chan, HttpConnection conn) {
+        try {
+            chan.write(ByteBuffer.wrap(BUSY_REPLY));
+        } catch (IOException e) {
+            dprint(e);
+        }
+        conn.close();
+        _allConnections.remove(conn);
+    }
+
     static boolean debug = ServerConfig.debugEnabled();
 
     static synchronized void dprint(String s) {
@@ -471,6 +629,10 @@ public class HttpServer {
                         rheaders.set("Keep-Alive", val);
                     }
                 }
+                if (_connection.requests >= MAX_KEEP_ALIVE_REQUESTS) {
+                    _tx.close = true;
+                    rheaders.set("Connection", "close");
+                }
 
                 if (newconnection) {
                     _connection.setParameters(_rawin, _rawout, _channel, protocol, _ctx, _rawin);
@@ -609,6 +771,7 @@ public class HttpServer {
                         toClose.add(c);
                     }
                 }
+                _idleTimeouts.addAndGet(toClose.size());
                 for (HttpConnection c : toClose) {
                     _idleConnections.remove(c);
                     _allConnections.remove(c);
@@ -25,12 +25,14 @@
 
 package com.frostwire.httpserver;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -417,6 +419,27 @@ public class Request {
             }
         }
 
+        /**
+         * Writes count bytes of the file from position straight into the
+         * socket, without copying them through the heap.
+         */
+        public synchronized void transferFrom(FileChannel src, long position, long count) throws IOException {
+            if (closed)
+                throw new IOException("stream is closed");
+
+            while (count > 0) {
+                long n = src.transferTo(position, count, channel);
+                if (n == 0) {
+                    if (position >= src.size())
+                        throw new EOFException("end of file reached");
+                    block();
+                } else {
+                    position += n;
+                    count -= n;
+                }
+            }
+        }
+
         void block() throws IOException {
             long currtime = server.getTime();
             long maxtime = currtime + writeTimeout;
@@ -41,6 +41,12 @@ public class ServerConfig {
     static long defaultIdleInterval = 300; // 5 min
     static long defaultSelCacheTimeout = 120; // seconds
     static int defaultMaxIdleConnections = 200;
+    static int defaultMaxKeepAliveRequests = 100;
+
+    /* enough for the uploads plus a few browse requests at once */
+    static int defaultWorkerThreads = 8;
+    static int defaultWorkerQueueSize = 32;
+    static int defaultRetryAfter = 10; // sec.
 
     static long defaultDrainAmount = 64 * 1024;
 
@@ -50,6 +56,10 @@ public class ServerConfig {
     static long selCacheTimeout;
     static long drainAmount; // max # of bytes to drain from an inputstream
     static int maxIdleConnections;
+    static int maxKeepAliveRequests;
+    static int workerThreads;
+    static int workerQueueSize;
+    static int retryAfter;
     static boolean debug = false;
 
     static {
@@ -57,6 +67,10 @@ public class ServerConfig {
         idleInterval = defaultIdleInterval * 1000;
         clockTick = defaultClockTick;
         maxIdleConnections = defaultMaxIdleConnections;
+        maxKeepAliveRequests = defaultMaxKeepAliveRequests;
+        workerThreads = defaultWorkerThreads;
+        workerQueueSize = defaultWorkerQueueSize;
+        retryAfter = defaultRetryAfter;
         readTimeout = defaultReadTimeout * 1000;
         selCacheTimeout = defaultSelCacheTimeout * 1000;
         writeTimeout = defaultWriteTimeout * 1000;
@@ -88,6 +102,28 @@ public class ServerConfig {
         return maxIdleConnections;
     }
 
+    /**
+     * Requests served on a persistent connection before closing it.
+     */
+    static int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    static int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    static int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    /**
+     * Seconds a client is told to wait when all the workers are busy.
+     */
+    static int getRetryAfter() {
+        return retryAfter;
+    }
+
     static long getWriteTimeout() {
         return writeTimeout;
     }
@@ -23,6 +23,7 @@ import java.io.File;
 import org.limewire.setting.BooleanSetting;
 import org.limewire.setting.FileSetSetting;
 import org.limewire.setting.FileSetting;
+import org.limewire.setting.IntSetting;
 import org.limewire.util.CommonUtils;
 
 import com.limegroup.gnutella.util.FrostWireUtils;
@@ -55,4 +56,9 @@ public class LibrarySettings extends LimeProps {
     public static final FileSetting LIBRARY_FROM_DEVICE_DATA_DIR_SETTING = FACTORY.createFileSetting("LIBRARY_FROM_DEVICE_DATA_DIR_SETTING", DEFAULT_LIBRARY_FROM_DEVICE_DATA_DIR).setAlwaysSave(true);
 
     public static final BooleanSetting LIBRARY_WIFI_SHARING_ENABLED = FACTORY.createBooleanSetting("LIBRARY_WIFI_SHARING_ENABLED", true);
+
+    /**
+     * The cap in KB/s shared by all the downloads from devices, 0 means unlimited.
+     */
+    public static final IntSetting LIBRARY_FROM_DEVICE_MAX_DOWNLOAD_SPEED = FACTORY.createIntSetting("LIBRARY_FROM_DEVICE_MAX_DOWNLOAD_SPEED", 0);
 }
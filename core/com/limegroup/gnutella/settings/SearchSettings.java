@@ -328,9 +328,47 @@ public final class SearchSettings extends LimeProps {
 	
 	public static final IntSetting SMART_SEARCH_MAXIMUM_TORRENTS_TO_SCAN = FACTORY.createIntSetting("SMART_SEARCH_MAXIMUM_TORRENTS_TO_SCAN", 20);
 	
-	public static final IntSetting SMART_SEARCH_DEEP_SEARCH_ROUNDS = FACTORY.createIntSetting("SMART_SEARCH_DEEP_SEARCH_ROUNDS", 3);
-	
 	public static final IntSetting SMART_SEARCH_FULLTEXT_SEARCH_RESULTS_LIMIT = FACTORY.createIntSetting("SMART_SEARCH_FULLTEXT_SEARCH_RESULTS_LIMIT", 256);
 
+    /**
+     * The maximum number of connections opened against the smart search database.
+     */
+    public static final IntSetting SMART_SEARCH_DATABASE_CONNECTIONS = FACTORY.createIntSetting("SMART_SEARCH_DATABASE_CONNECTIONS", 4);
+
+    /**
+     * The number of prepared statements kept open by every smart search database connection.
+     */
+    public static final IntSetting SMART_SEARCH_DATABASE_STATEMENT_CACHE_SIZE = FACTORY.createIntSetting("SMART_SEARCH_DATABASE_STATEMENT_CACHE_SIZE", 32);
+
+    /**
+     * The time in milliseconds between writes of the queued torrents to the smart search database.
+     */
+    public static final IntSetting SMART_SEARCH_INDEX_FLUSH_INTERVAL = FACTORY.createIntSetting("SMART_SEARCH_INDEX_FLUSH_INTERVAL", 1000);
+
+    /**
+     * The number of queued torrent files written in a single transaction, it also forces an early write.
+     */
+    public static final IntSetting SMART_SEARCH_INDEX_BATCH_SIZE = FACTORY.createIntSetting("SMART_SEARCH_INDEX_BATCH_SIZE", 1000);
+
+    /**
+     * The number of info hashes remembered by the deep search in a session, half of them are dropped once it's reached.
+     */
+    public static final IntSetting SMART_SEARCH_KNOWN_INFO_HASHES_LIMIT = FACTORY.createIntSetting("SMART_SEARCH_KNOWN_INFO_HASHES_LIMIT", 10000);
+
     public static final BooleanSetting SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START = FACTORY.createBooleanSetting("SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START", false);
+
+    /**
+     * The number of threads shared by all the web search engine requests.
+     */
+    public static final IntSetting WEB_SEARCH_THREAD_POOL_SIZE = FACTORY.createIntSetting("WEB_SEARCH_THREAD_POOL_SIZE", 10);
+
+    /**
+     * The maximum number of simultaneous requests against a single web search engine.
+     */
+    public static final IntSetting WEB_SEARCH_MAX_REQUESTS_PER_ENGINE = FACTORY.createIntSetting("WEB_SEARCH_MAX_REQUESTS_PER_ENGINE", 2);
+
+    /**
+     * The time in milliseconds a query has to get results from the web search engines.
+     */
+    public static final IntSetting WEB_SEARCH_QUERY_TIMEOUT = FACTORY.createIntSetting("WEB_SEARCH_QUERY_TIMEOUT", 30000);
 }
@@ -19,17 +19,26 @@
 package com.frostwire.gui;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.OSUtils;
+
 import com.frostwire.content.ContentResolver;
 import com.frostwire.content.Context;
 import com.frostwire.core.ConfigurationManager;
@@ -57,11 +66,45 @@ public final class Librarian {
     public static final int FILE_STATE_SHARING = 1;
     public static final int FILE_STATE_SHARED = 2;
 
+    /**
+     * Time between the sweeps removing the files no longer on disk from the
+     * share table.
+     */
+    private static final long SWEEP_INTERVAL = 10 * 60 * 1000;
+
+    /**
+     * Most time the shared files count waits for the share table to be
+     * loaded, the database is counted after that.
+     */
+    private static final long SHARE_TABLE_LOAD_TIMEOUT = 5000;
+
     private final Context context;
 
     //private final Set<String> pathSharedSet;
     private final Set<String> pathSharingSet;
     private final ExecutorService shareFileExec;
+    private final ScheduledExecutorService sweepExec;
+
+    /**
+     * Number of shared files per file type and the shared paths, kept in sync
+     * with the share table.
+     */
+    private final AtomicIntegerArray numSharedFiles;
+    private final SharedPathIndex sharedPaths;
+    private final CountDownLatch shareTableLoaded;
+    private volatile boolean sharedPathsLoaded;
+
+    /**
+     * Incremented on every change of the share table, the browse responses
+     * are tagged with it.
+     */
+    private final AtomicLong shareTableVersion;
+
+    /**
+     * Share state lookups, and how many of them didn't need the database.
+     */
+    private final AtomicLong shareStateLookups;
+    private final AtomicLong shareStateIndexHits;
 
     private static final Librarian instance = new Librarian();
 
@@ -74,6 +117,39 @@ public final class Librarian {
         //this.pathSharedSet = Collections.synchronizedSet(new HashSet<String>());
         this.pathSharingSet = Collections.synchronizedSet(new HashSet<String>());
         this.shareFileExec = Executors.newSingleThreadExecutor();
+        this.sweepExec = Executors.newSingleThreadScheduledExecutor(ExecutorsHelper.daemonThreadFactory("LibrarianSweep"));
+        this.numSharedFiles = new AtomicIntegerArray(Constants.FILE_TYPE_TORRENTS + 1);
+        // default file systems of windows and mac are case insensitive
+        this.sharedPaths = new SharedPathIndex(OSUtils.isWindows() || OSUtils.isMacOSX());
+        this.shareTableLoaded = new CountDownLatch(1);
+        this.shareTableVersion = new AtomicLong();
+        this.shareStateLookups = new AtomicLong();
+        this.shareStateIndexHits = new AtomicLong();
+
+        shareFileExec.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ShareFilesDB.intance().addChangeListener(new ShareTableListener());
+                    sharedPathsLoaded = true;
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Failed to load the shared files", e);
+                } finally {
+                    shareTableLoaded.countDown();
+                }
+            }
+        });
+
+        sweepExec.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweepShareTable();
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error sweeping the share table", e);
+                }
+            }
+        }, 60 * 1000, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     public Finger finger() {
@@ -114,12 +190,34 @@ public final class Librarian {
     }
 
     /**
+     * The files no longer on disk are counted until the next sweep of the
+     * share table. If the share table is not loaded in time, or failed to
+     * load, the shared files are counted in the database.
      * 
      * @param fileType
-     * @param onlyShared - If false, forces getting all files, shared or unshared. 
      * @return
      */
     public int getNumSharedFiles(byte fileType) {
+        if (fileType < 0 || fileType >= numSharedFiles.length()) {
+            return 0;
+        }
+
+        try {
+            if (!shareTableLoaded.await(SHARE_TABLE_LOAD_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warning("Timeout waiting for the share table, counting the shared files in the database");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (sharedPathsLoaded) {
+            return numSharedFiles.get(fileType);
+        }
+
+        return countSharedFiles(fileType);
+    }
+
+    private int countSharedFiles(byte fileType) {
         Cursor c = null;
 
         int numFiles = 0;
@@ -148,7 +246,20 @@ public final class Librarian {
         return numFiles;
     }
 
+    /**
+     * Answered from memory once the share table is loaded, only the lookups
+     * done during the startup go to the database. A file no longer on disk
+     * is reported as shared until the next sweep of the share table.
+     */
     public boolean isFileShared(String filePath) {
+        shareStateLookups.incrementAndGet();
+
+        if (sharedPathsLoaded) {
+            shareStateIndexHits.incrementAndGet();
+
+            return sharedPaths.contains(filePath);
+        }
+
         Cursor c = null;
 
         boolean isShared = false;
@@ -177,6 +288,15 @@ public final class Librarian {
         return isShared;
     }
 
+    /**
+     * @return the fraction of the share state lookups answered without the
+     *         database
+     */
+    public double getShareStateIndexHitRate() {
+        long lookups = shareStateLookups.get();
+        return lookups > 0 ? (double) shareStateIndexHits.get() / lookups : 0;
+    }
+
     private List<FileDescriptor> filteredOutBadRows(Cursor c) {
         int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
 
@@ -186,14 +306,11 @@ public final class Librarian {
 
         List<FileDescriptor> fds = new LinkedList<FileDescriptor>();
 
-        final Set<String> toRemove = new HashSet<String>();
-
         while (c.moveToNext()) {
             String filePath = c.getString(filePathCol);
 
+            // removed from the table in the next sweep
             if (!(new File(filePath)).exists()) {
-                //pathSharedSet.remove(filePath);
-                toRemove.add(filePath);
                 continue;
             }
 
@@ -202,20 +319,59 @@ public final class Librarian {
             fds.add(fd);
         }
 
+        return fds;
+    }
+
+    /**
+     * Removes the files no longer on disk from the share table, the deletes
+     * go through the share executor like any other change.
+     */
+    private void sweepShareTable() {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Share state lookups: " + shareStateLookups.get() + ", answered from memory: " + Math.round(getShareStateIndexHitRate() * 100) + "%");
+        }
+
+        final Set<String> toRemove = new HashSet<String>();
+
+        Cursor c = null;
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            c = db.query(new String[] { Columns.FILE_PATH }, null, null, Columns.ID);
+
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+
+            while (c.moveToNext()) {
+                String filePath = c.getString(filePathCol);
+                if (!(new File(filePath)).exists()) {
+                    toRemove.add(filePath);
+                }
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        if (toRemove.isEmpty()) {
+            return;
+        }
+
         shareFileExec.execute(new Runnable() {
             @Override
             public void run() {
                 try {
                     for (String filePath : toRemove) {
-                        deleteFromShareTable(filePath);
+                        // shared again while sweeping
+                        if (!(new File(filePath)).exists()) {
+                            deleteFromShareTable(filePath);
+                        }
                     }
                 } catch (Throwable e) {
                     LOG.log(Level.WARNING, "Error deleting no existent files", e);
                 }
             }
         });
-
-        return fds;
     }
 
     public List<FileDescriptor> getSharedFiles(byte fileType) {
@@ -247,8 +403,85 @@ public final class Librarian {
         return result;
     }
 
-    public List<FileDescriptor> getFiles(byte fileType, int offset, int pageSize, boolean sharedOnly) {
-        return getFiles(offset, pageSize, TableFetchers.getFetcher(fileType), sharedOnly);
+    /**
+     * Streams the shared files of the given type to the visitor as they come
+     * off the cursor, without holding them in memory.
+     * <p>
+     * The files are visited by id, resuming after afterId if it's not
+     * negative, or skipping offset files otherwise, at most limit files if
+     * it's positive. Without any of them all the files are visited, in the
+     * order of {@link #getSharedFiles(byte)}.
+     *
+     * @return the id to resume the next page after, or -1 if there are no more files
+     */
+    public int getSharedFiles(byte fileType, int afterId, int offset, int limit, SharedFileVisitor visitor) throws IOException {
+        Cursor c = null;
+
+        try {
+            ShareFilesDB db = ShareFilesDB.intance();
+
+            String[] columns = new String[] { Columns.ID, Columns.FILE_TYPE, Columns.FILE_PATH, Columns.FILE_SIZE, Columns.MIME, Columns.DATE_ADDED, Columns.DATE_MODIFIED, Columns.SHARED, Columns.TITLE, Columns.ARTIST, Columns.ALBUM, Columns.YEAR };
+            String where = Columns.FILE_TYPE + " = ? AND " + Columns.SHARED + " = ?";
+            String[] whereArgs = new String[] { String.valueOf(fileType), String.valueOf(true) };
+
+            // a negative LIMIT is no limit
+            int count = limit > 0 ? limit : -1;
+
+            if (afterId >= 0) {
+                c = db.querySeek(columns, where, whereArgs, afterId, count);
+            } else if (limit > 0 || offset > 0) {
+                c = db.query(columns, where, whereArgs, Columns.ID, Math.max(offset, 0) + ", " + count);
+            } else {
+                c = db.query(columns, where, whereArgs, null);
+            }
+
+            if (c == null) {
+                return -1;
+            }
+
+            int idCol = c.getColumnIndex(Columns.ID);
+            int filePathCol = c.getColumnIndex(Columns.FILE_PATH);
+
+            int rows = 0;
+            int lastId = -1;
+
+            while (c.moveToNext()) {
+                rows++;
+                lastId = c.getInt(idCol);
+
+                // removed from the table in the next sweep
+                if (!(new File(c.getString(filePathCol))).exists()) {
+                    continue;
+                }
+
+                visitor.visit(cursorToFileDescriptor(c));
+            }
+
+            return limit > 0 && rows == limit ? lastId : -1;
+
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Changes on every insert, update or delete of the share table, never
+     * goes back while the application is running.
+     */
+    public long getShareTableVersion() {
+        return shareTableVersion.get();
+    }
+
+    /**
+     * Keyset pagination, the page of files sorted after the given one. Every
+     * page costs the same no matter how deep it is in the library.
+     *
+     * @param after the last file of the previous page, or null for the first page
+     */
+    public List<FileDescriptor> getFiles(byte fileType, FileDescriptor after, int pageSize, boolean sharedOnly) {
+        return getFiles(after, pageSize, TableFetchers.getFetcher(fileType), null, null, sharedOnly);
     }
 
     public void scan(File file) {
@@ -283,45 +516,37 @@ public final class Librarian {
         }
     }
 
-    private List<FileDescriptor> getFiles(int offset, int pageSize, TableFetcher fetcher, boolean sharedOnly) {
-        return getFiles(offset, pageSize, fetcher, null, null, sharedOnly);
-    }
-
-    private List<FileDescriptor> getFiles(int offset, int pageSize, TableFetcher fetcher, String where, String[] whereArgs, boolean sharedOnly) {
+    private List<FileDescriptor> getFiles(FileDescriptor after, int pageSize, TableFetcher fetcher, String where, String[] whereArgs, boolean sharedOnly) {
         List<FileDescriptor> result = new ArrayList<FileDescriptor>();
 
         Cursor c = null;
-        //Set<Integer> sharedIds = getSharedFiles(fetcher.getFileType());
 
         try {
 
             ContentResolver cr = context.getContentResolver();
 
             String[] columns = fetcher.getColumns();
-            String sort = fetcher.getSortByExpression();
+            String[] lastValues = after != null ? fetcher.getSeekValues(after) : null;
 
-            c = cr.query(fetcher.getContentUri(), columns, where, whereArgs, sort);
+            c = cr.querySeek(fetcher.getContentUri(), columns, where, whereArgs, fetcher.getSeekColumns(), fetcher.getSeekDescending(), lastValues, pageSize);
 
-            if (c == null || !c.moveToPosition(offset)) {
+            if (c == null) {
                 return result;
             }
 
             fetcher.prepare(c);
 
-            int count = 1;
-
-            do {
+            while (c.moveToNext()) {
                 FileDescriptor fd = fetcher.fetch(c);
 
-                fd.shared = true;//sharedIds.contains(fd.id);
+                fd.shared = true;
 
                 if (sharedOnly && !fd.shared) {
                     continue;
                 }
 
                 result.add(fd);
-
-            } while (c.moveToNext() && count++ < pageSize);
+            }
 
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "General failure getting files", e);
@@ -456,6 +681,39 @@ public final class Librarian {
         return fd;
     }
 
+    /**
+     * Receives the shared files streamed by {@link #getSharedFiles(byte, int, int, int, SharedFileVisitor)}.
+     */
+    public interface SharedFileVisitor {
+
+        public void visit(FileDescriptor fd) throws IOException;
+    }
+
+    /**
+     * Follows the share table to keep the number of shared files per type and
+     * the shared paths.
+     */
+    private final class ShareTableListener implements ShareFilesDB.ChangeListener {
+
+        @Override
+        public void onInsert(byte fileType, String filePath, boolean shared) {
+            if (shared && fileType >= 0 && fileType < numSharedFiles.length()) {
+                numSharedFiles.incrementAndGet(fileType);
+            }
+            sharedPaths.add(filePath);
+            shareTableVersion.incrementAndGet();
+        }
+
+        @Override
+        public void onDelete(byte fileType, String filePath, boolean shared) {
+            if (shared && fileType >= 0 && fileType < numSharedFiles.length()) {
+                numSharedFiles.decrementAndGet(fileType);
+            }
+            sharedPaths.remove(filePath);
+            shareTableVersion.incrementAndGet();
+        }
+    }
+
     public FileDescriptor getSharedFileDescriptor(byte fileType, int fileId) {
         FileDescriptor result = null;
 
@@ -0,0 +1,210 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(TM). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui;
+
+import java.util.Locale;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The paths of the share table, as a trie of path segments so the common
+ * folders are stored once.
+ * <p>
+ * The paths are case insensitive only if the file system is, two files that
+ * differ in case are different files elsewhere. Every node keeps the number
+ * of rows with its path, the share table can have duplicates.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SharedPathIndex {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final boolean ignoreCase;
+    private final Node root;
+    private final ReadWriteLock lock;
+
+    private int size;
+
+    public SharedPathIndex(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.root = new Node("");
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    public void add(String path) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            for (String segment : split(path)) {
+                node = node.getOrAddChild(segment);
+            }
+            node.count++;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            remove(root, split(path), 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String path) {
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (String segment : split(path)) {
+                node = node.getChild(segment);
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.count > 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of paths, counting the duplicates
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the path and prunes the nodes left empty.
+     *
+     * @return true if the node is now empty
+     */
+    private boolean remove(Node node, String[] segments, int index) {
+        if (index == segments.length) {
+            if (node.count > 0) {
+                node.count--;
+                size--;
+            }
+        } else {
+            Node child = node.getChild(segments[index]);
+            if (child != null && remove(child, segments, index + 1)) {
+                node.removeChild(child);
+            }
+        }
+
+        return node.count == 0 && node.children.length == 0;
+    }
+
+    private String[] split(String path) {
+        if (ignoreCase) {
+            path = path.toLowerCase(Locale.US);
+        }
+        return path.split("[/\\\\]+");
+    }
+
+    /**
+     * The children are kept sorted by name in a plain array, most folders
+     * have a few of them.
+     */
+    private static final class Node {
+
+        public final String name;
+        public Node[] children;
+        public int count;
+
+        public Node(String name) {
+            this.name = name;
+            this.children = NO_CHILDREN;
+        }
+
+        public Node getChild(String name) {
+            int index = indexOf(name);
+            return index >= 0 ? children[index] : null;
+        }
+
+        public Node getOrAddChild(String name) {
+            int index = indexOf(name);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            index = -index - 1;
+
+            Node child = new Node(name);
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newChildren[index] = child;
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            children = newChildren;
+
+            return child;
+        }
+
+        public void removeChild(Node child) {
+            int index = indexOf(child.name);
+            if (index < 0) {
+                return;
+            }
+
+            if (children.length == 1) {
+                children = NO_CHILDREN;
+            } else {
+                Node[] newChildren = new Node[children.length - 1];
+                System.arraycopy(children, 0, newChildren, 0, index);
+                System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+                children = newChildren;
+            }
+        }
+
+        /**
+         * Binary search, same contract as Arrays.binarySearch.
+         */
+        private int indexOf(String name) {
+            int low = 0;
+            int high = children.length - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = children[mid].name.compareTo(name);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -(low + 1);
+        }
+    }
+}
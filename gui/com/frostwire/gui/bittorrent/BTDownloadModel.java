@@ -1,6 +1,7 @@
 package com.frostwire.gui.bittorrent;
 
 import java.util.HashSet;
+import java.util.List;
 
 import org.gudy.azureus2.core3.download.DownloadManager;
 
@@ -101,6 +102,24 @@ public class BTDownloadModel extends BasicDataLineModel<BTDownloadDataLine, BTDo
         return super.add(downloader, row);
     }
 
+    @Override
+    public int addDataLines(List<BTDownloadDataLine> lines, int row) {
+        addHashes(lines);
+        return super.addDataLines(lines, row);
+    }
+
+    @Override
+    public int addDataLinesSorted(List<BTDownloadDataLine> lines) {
+        addHashes(lines);
+        return super.addDataLinesSorted(lines);
+    }
+
+    private void addHashes(List<BTDownloadDataLine> lines) {
+        for (BTDownloadDataLine line : lines) {
+            _hashDownloads.add(line.getInitializeObject().getHash());
+        }
+    }
+
     @Override
     public void remove(int i) {
         BTDownloadDataLine line = get(i);
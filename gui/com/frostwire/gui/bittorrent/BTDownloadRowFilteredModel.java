@@ -56,6 +56,31 @@ public class BTDownloadRowFilteredModel extends BTDownloadModel {
 
     }
     
+    @Override
+    public int addDataLines(List<BTDownloadDataLine> lines, int row) {
+        return super.addDataLines(filterLines(lines), row);
+    }
+
+    @Override
+    public int addDataLinesSorted(List<BTDownloadDataLine> lines) {
+        return super.addDataLinesSorted(filterLines(lines));
+    }
+
+    /**
+     * Returns the lines that pass the filter, hiding the rest.
+     */
+    private List<BTDownloadDataLine> filterLines(List<BTDownloadDataLine> lines) {
+        List<BTDownloadDataLine> allowed = new ArrayList<BTDownloadDataLine>(lines.size());
+        for (BTDownloadDataLine tl : lines) {
+            if (allow(tl)) {
+                allowed.add(tl);
+            } else {
+                HIDDEN.add(tl);
+            }
+        }
+        return allowed;
+    }
+
     @Override
     public void clear() {
     	super.clear();
@@ -18,7 +18,10 @@
 
 package com.frostwire.gui.httpserver;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -33,6 +36,18 @@ import com.frostwire.httpserver.HttpExchange;
 import com.frostwire.util.JsonUtils;
 
 /**
+ * Lists the shared files of a type as a FileDescriptorList in JSON. The
+ * files are written to the gzip stream as they are read from the share
+ * table.
+ * <p>
+ * Optional parameters: offset or after, where to start, and limit, the
+ * maximum number of files in the response. Without a limit the response has
+ * all the files from there on, a paged response has a "next" field with the
+ * value of after for the next page while there are more files.
+ * <p>
+ * The ETag changes with the share table, a peer with an up to date list
+ * gets a 304 back.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -41,6 +56,11 @@ class BrowseHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(BrowseHandler.class.getName());
 
+    /**
+     * The share table version starts over on every run.
+     */
+    private static final long ETAG_EPOCH = System.currentTimeMillis();
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         assertUPnPActive();
@@ -48,23 +68,46 @@ class BrowseHandler extends AbstractHandler {
         GZIPOutputStream os = null;
 
         byte type = -1;
+        int offset = 0;
+        int limit = 0;
+        int after = -1;
 
         try {
 
             List<NameValuePair> query = URLEncodedUtils.parse(exchange.getRequestURI(), "UTF-8");
 
-            for (NameValuePair item : query) {
-                if (item.getName().equals("type")) {
-                    type = Byte.parseByte(item.getValue());
+            try {
+                for (NameValuePair item : query) {
+                    if (item.getName().equals("type")) {
+                        type = Byte.parseByte(item.getValue());
+                    }
+                    if (item.getName().equals("offset")) {
+                        offset = Integer.parseInt(item.getValue());
+                    }
+                    if (item.getName().equals("limit")) {
+                        limit = Integer.parseInt(item.getValue());
+                    }
+                    if (item.getName().equals("after")) {
+                        after = Integer.parseInt(item.getValue());
+                    }
                 }
+            } catch (NumberFormatException e) {
+                type = -1;
             }
 
-            if (type == -1) {
+            if (type == -1 || offset < 0 || limit < 0) {
                 exchange.sendResponseHeaders(Code.HTTP_BAD_REQUEST, 0);
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            String etag = "W/\"" + ETAG_EPOCH + "-" + Librarian.instance().getShareTableVersion() + "\"";
+
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
@@ -72,7 +115,8 @@ class BrowseHandler extends AbstractHandler {
 
             os = new GZIPOutputStream(exchange.getResponseBody());
 
-            os.write(response.getBytes("UTF-8"));
+            writeResponse(new BufferedWriter(new OutputStreamWriter(os, "UTF-8")), type, after, offset, limit);
+
             os.finish();
 
         } catch (IOException e) {
@@ -86,16 +130,48 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
+    /**
+     * Same format of a serialized FileDescriptorList, written one file at a
+     * time.
+     */
+    private void writeResponse(final Writer writer, byte fileType, int after, int offset, int limit) throws IOException {
+        writer.write("{\"files\":[");
 
-        FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+        int next = Librarian.instance().getSharedFiles(fileType, after, offset, limit, new Librarian.SharedFileVisitor() {
 
-        return JsonUtils.toJson(list);
+            private boolean first = true;
+
+            @Override
+            public void visit(FileDescriptor fd) throws IOException {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write(JsonUtils.toJson(fd));
+            }
+        });
+
+        writer.write(']');
+        if (next != -1) {
+            writer.write(",\"next\":");
+            writer.write(String.valueOf(next));
+        }
+        writer.write('}');
+        writer.flush();
     }
 
-    static final class FileDescriptorList {
-        public List<FileDescriptor> files;
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 }
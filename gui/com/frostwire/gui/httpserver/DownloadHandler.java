@@ -19,10 +19,13 @@
 package com.frostwire.gui.httpserver;
 
 import java.io.Closeable;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +40,13 @@ import com.frostwire.httpserver.Code;
 import com.frostwire.httpserver.HttpExchange;
 
 /**
+ * Serves a shared file, going from the file to the socket without copying
+ * the bytes through the heap. Supports single and multiple byte ranges, so
+ * an interrupted transfer can be resumed.
+ * <p>
+ * The number of concurrent uploads is bounded, so they can't take all the
+ * workers of the server. A peer gets a 503 over the limit.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -45,25 +55,44 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class.getName());
 
+    private static final int MAX_CONCURRENT_UPLOADS = 6;
+
+    /**
+     * More ranges than this in a request and the whole file is sent.
+     */
+    private static final int MAX_RANGES = 16;
+
+    /**
+     * Bytes transferred between the checks of the upload state.
+     */
+    private static final long CHUNK_SIZE = 256 * 1024;
+
+    private static final Semaphore UPLOAD_SLOTS = new Semaphore(MAX_CONCURRENT_UPLOADS);
+
+    private static final Random BOUNDARY_RANDOM = new Random();
+
     @Override
-    public void handle(final HttpExchange exchange) throws IOException {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    internalHandler(exchange);
-                } catch (IOException e) {
-                    LOG.log(Level.WARNING, "DownloadHandler async handle error", e);
-                }
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!UPLOAD_SLOTS.tryAcquire()) {
+            try {
+                sendBusyResponse(exchange);
+            } finally {
+                exchange.close();
             }
-        }).start();
+            return;
+        }
+
+        try {
+            internalHandler(exchange);
+        } finally {
+            UPLOAD_SLOTS.release();
+        }
     }
-    
+
     public void internalHandler(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
-        OutputStream os = null;
-        FileInputStream fis = null;
+        RandomAccessFile file = null;
 
         byte type = -1;
         int id = -1;
@@ -88,55 +117,70 @@ class DownloadHandler extends AbstractHandler {
                 return;
             }
 
-            //if (TransferManager.instance().getActiveUploads() >= ConfigurationManager.instance().maxConcurrentUploads()) {
-            //    sendBusyResponse(exchange);
-            //    return;
-            //}
-
             FileDescriptor fd = Librarian.instance().getSharedFileDescriptor(type, id);
             if (fd == null) {
                 throw new IOException("There is no such file shared");
             }
 
+            file = new RandomAccessFile(fd.filePath, "r");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+
+            List<long[]> ranges = parseRanges(exchange.getRequestHeaders().getFirst("Range"), size);
+
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            if (ranges != null && ranges.isEmpty()) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                return;
+            }
+
             //upload = TransferManager.instance().upload(fd);
             upload = BTDownloadMediator.instance().upload(fd);
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            exchange.sendResponseHeaders(Code.HTTP_OK, fd.fileSize);
+            if (ranges == null) {
+                exchange.getResponseHeaders().set("Content-Type", fd.mime);
+                exchange.sendResponseHeaders(Code.HTTP_OK, size);
 
-            os = exchange.getResponseBody();
+                sendRange(exchange, channel, 0, size, upload);
+            } else if (ranges.size() == 1) {
+                long[] range = ranges.get(0);
 
-            fis = new FileInputStream(fd.filePath);
+                exchange.getResponseHeaders().set("Content-Type", fd.mime);
+                exchange.getResponseHeaders().set("Content-Range", contentRange(range, size));
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, range[1] - range[0] + 1);
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+                sendRange(exchange, channel, range[0], range[1] - range[0] + 1, upload);
+            } else {
+                String boundary = Long.toHexString(BOUNDARY_RANDOM.nextLong() & Long.MAX_VALUE);
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
-                upload.addBytesSent(n);
-                
-                if (upload.isCanceled()) {
-                    try {
-                        throw new IOException("Upload cancelled");
-                    } finally {
-                        os.close();
-                    }
+                List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+                long contentLength = 0;
+                for (long[] range : ranges) {
+                    byte[] partHeader = ("\r\n--" + boundary + "\r\nContent-Type: " + fd.mime + "\r\nContent-Range: " + contentRange(range, size) + "\r\n\r\n").getBytes("ISO-8859-1");
+                    partHeaders.add(partHeader);
+                    contentLength += partHeader.length + range[1] - range[0] + 1;
                 }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
+                byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1");
+                contentLength += end.length;
+
+                exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, contentLength);
+
+                for (int i = 0; i < ranges.size(); i++) {
+                    long[] range = ranges.get(i);
+                    exchange.getResponseBody().write(partHeaders.get(i));
+                    sendRange(exchange, channel, range[0], range[1] - range[0] + 1, upload);
                 }
+                exchange.getResponseBody().write(end);
             }
 
         } catch (IOException e) {
             LOG.log(Level.INFO, "Error uploading file type=" + type + ", id=" + id);
             throw e;
         } finally {
-            close(os);
-            close(fis);
+            close(file);
 
             try {
                 exchange.close();
@@ -150,6 +194,83 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
+    private void sendRange(HttpExchange exchange, FileChannel channel, long position, long count, PeerHttpUpload upload) throws IOException {
+        while (count > 0) {
+            if (upload.isCanceled()) {
+                throw new IOException("Upload cancelled");
+            }
+
+            long n = Math.min(count, CHUNK_SIZE);
+            exchange.sendFile(channel, position, n);
+            upload.addBytesSent((int) n);
+
+            position += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Parses the byte ranges of a Range header, as {first, last} pairs.
+     *
+     * @return null if the whole file should be sent, or the satisfiable
+     *         ranges, empty if there are none
+     */
+    static List<long[]> parseRanges(String header, long size) {
+        if (header == null) {
+            return null;
+        }
+
+        header = header.trim();
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash == -1) {
+                    return null;
+                }
+
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+
+                if (first.length() == 0) {
+                    // suffix range, the last bytes of the file
+                    long suffix = Long.parseLong(last);
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new long[] { Math.max(0, size - suffix), size - 1 });
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.length() == 0 ? size - 1 : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < size) {
+                        ranges.add(new long[] { start, Math.min(end, size - 1) });
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return ranges;
+    }
+
+    private static String contentRange(long[] range, long size) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + size;
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
@@ -160,8 +281,8 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
-    //    private void sendBusyResponse(HttpExchange exchange) throws IOException {
-    //        exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
-    //        exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, 0);
-    //    }
+    private void sendBusyResponse(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
+        exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, -1);
+    }
 }
@@ -75,6 +75,7 @@ public class HttpServerManager {
         }
 
         try {
+            logMetrics();
             httpServer.stop(0);
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "Something wrong stopping the HTTP server", e);
@@ -82,4 +83,10 @@ public class HttpServerManager {
             httpServer = null;
         }
     }
+
+    private void logMetrics() {
+        if (LOG.isLoggable(Level.INFO)) {
+            LOG.info("HTTP server connections: " + httpServer.getAcceptedConnectionCount() + ", idle timeouts: " + httpServer.getIdleTimeoutCount() + ", average idle: " + httpServer.getAverageIdleTime() + "ms; requests: " + httpServer.getRequestCount() + ", keep-alive: " + httpServer.getKeepAliveRequestCount() + ", pipelined: " + httpServer.getPipelinedRequestCount() + ", rejected: " + httpServer.getRejectedRequestCount());
+        }
+    }
 }
@@ -18,7 +18,11 @@
 
 package com.frostwire.gui.library;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
@@ -37,6 +41,7 @@ import org.limewire.util.NetworkUtils;
 
 import com.frostwire.HttpFetcher;
 import com.frostwire.HttpFetcherListener;
+import com.frostwire.HttpRangeContentHandler;
 import com.frostwire.JsonEngine;
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.library.ProgressFileEntity.ProgressFileEntityListener;
@@ -57,6 +62,11 @@ public class Device {
 
     private static final ExecutorService executor;
 
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final int DOWNLOAD_TIMEOUT = 30000;
+    private static final int DOWNLOAD_MAX_RETRIES = 5;
+    private static final long DOWNLOAD_RETRY_DELAY = 2000;
+
     static {
         //upload files to 3 different devices at the same time.
         executor = ExecutorsHelper.newFixedSizeThreadPool(3, "UploadToDeviceExecutor");
@@ -213,30 +223,155 @@ public class Device {
         return  pingInfo.deviceMajorType;
     }
 
-    public byte[] download(int type, int id) {
+    /**
+     * Downloads the file to disk in chunks, never holding more than a buffer
+     * in memory. If the file already has data, or a transfer breaks, it asks
+     * the device for the rest with a Range request. The file is complete
+     * when its size matches the one announced by the device.
+     * 
+     * @param fd the remote file
+     * @param file where to write, usually a temporary file
+     * @param listener gets the progress, and can cancel the download
+     * @return true if the file was fully downloaded, false if cancelled
+     */
+    public boolean download(FileDescriptor fd, File file, DownloadListener listener) throws IOException {
+        int attempts = 0;
+
+        while (true) {
+            try {
+                if (downloadRange(fd, file, listener)) {
+                    setTimestamp(System.currentTimeMillis());
+                    return true;
+                }
 
-        try {
+                if (listener.isCancelled()) {
+                    return false;
+                }
 
-            URI uri = getDownloadURL(type, id).toURI();
+                throw new IOException("Incomplete download, got " + file.length() + " of " + fd.fileSize + " bytes");
+            } catch (IOException e) {
+                if (listener.isCancelled()) {
+                    return false;
+                }
 
-            HttpFetcher fetcher = new HttpFetcher(uri);
+                attempts++;
+                if (attempts > DOWNLOAD_MAX_RETRIES) {
+                    notifyOnActionFailed(ACTION_DOWNLOAD, e);
+                    throw e;
+                }
 
-            byte[] data = fetcher.fetch();
+                LOG.info("Download of " + fd.filePath + " failed (attempt " + attempts + "), resuming at " + file.length(), e);
 
-            if (data == null) {
-                notifyOnActionFailed(ACTION_DOWNLOAD, null);
-                return null;
+                long delay = e instanceof DeviceBusyException ? ((DeviceBusyException) e).retryAfter : attempts * DOWNLOAD_RETRY_DELAY;
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
             }
+        }
+    }
 
-            setTimestamp(System.currentTimeMillis());
+    /**
+     * One request, from the current size of the file to the end.
+     * 
+     * @return true if the file has the expected size
+     */
+    private boolean downloadRange(FileDescriptor fd, File file, DownloadListener listener) throws IOException {
+        long offset = file.exists() ? file.length() : 0;
 
-            return data;
+        if (fd.fileSize > 0 && offset > fd.fileSize) {
+            // garbage from another file, start over
+            offset = 0;
+        }
 
-        } catch (Exception e) {
-            notifyOnActionFailed(ACTION_DOWNLOAD, e);
+        if (fd.fileSize > 0 && offset == fd.fileSize) {
+            return true;
         }
 
-        return null;
+        URL url = getDownloadURL(fd.fileType, fd.id);
+        if (url == null) {
+            throw new IOException("No download address for device " + this);
+        }
+
+        RangeWriter writer = new RangeWriter(fd, file, listener);
+
+        try {
+            new HttpFetcher(url.toString(), DOWNLOAD_TIMEOUT).streamRange(offset, writer);
+        } catch (HttpFetcher.UnavailableException e) {
+            throw new DeviceBusyException(e.getRetryAfter());
+        }
+
+        return fd.fileSize <= 0 || writer.downloaded == fd.fileSize;
+    }
+
+    /**
+     * Writes the body of a range response at its offset in the file. A cancel
+     * fails the read, so the fetcher drops the connection instead of draining
+     * the rest of the file.
+     */
+    private static final class RangeWriter implements HttpRangeContentHandler {
+
+        private final FileDescriptor fd;
+        private final File file;
+        private final DownloadListener listener;
+
+        public long downloaded;
+
+        public RangeWriter(FileDescriptor fd, File file, DownloadListener listener) {
+            this.fd = fd;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public void handle(InputStream is, long offset) throws IOException {
+            RandomAccessFile out = null;
+
+            try {
+                out = new RandomAccessFile(file, "rw");
+                out.setLength(offset);
+                out.seek(offset);
+
+                DeviceDownloadThrottle throttle = DeviceDownloadThrottle.instance();
+                byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+                int n;
+
+                downloaded = offset;
+
+                listener.onProgress(fd, downloaded);
+
+                while ((n = is.read(buffer)) != -1) {
+                    if (listener.isCancelled()) {
+                        throw new IOException("Download cancelled");
+                    }
+
+                    try {
+                        throttle.acquire(n);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Download interrupted");
+                    }
+
+                    out.write(buffer, 0, n);
+                    downloaded += n;
+
+                    listener.onProgress(fd, downloaded);
+                }
+            } finally {
+                close(out);
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Throwable e) {
+            }
+        }
     }
 
     public void upload(File[] files) {
@@ -354,6 +489,37 @@ public class Device {
         public void onActionFailed(Device device, int action, Exception e);
     }
 
+    public interface DownloadListener {
+
+        /**
+         * @param downloaded the bytes of the file on disk so far, it can go
+         * back to zero if the device can't resume
+         */
+        public void onProgress(FileDescriptor fd, long downloaded);
+
+        public boolean isCancelled();
+    }
+
+    /**
+     * The device answered 503, it is serving too many files right now.
+     */
+    private static final class DeviceBusyException extends IOException {
+
+        private static final long serialVersionUID = -1726453624133423807L;
+
+        private final long retryAfter;
+
+        public DeviceBusyException(String retryAfter) {
+            super("Device busy");
+            long seconds = 10;
+            try {
+                seconds = Long.parseLong(retryAfter.trim());
+            } catch (Throwable e) {
+            }
+            this.retryAfter = Math.min(Math.max(seconds, 1), 60) * 1000;
+        }
+    }
+
     private static List<File> flatFiles(File[] files) {
         Set<File> set = new HashSet<File>();
         for (File f : files) {
@@ -0,0 +1,87 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(TM). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.frostwire.gui.library;
+
+import com.limegroup.gnutella.settings.LibrarySettings;
+
+/**
+ * Token bucket shared by all the downloads from devices, the rate is read
+ * from {@link LibrarySettings#LIBRARY_FROM_DEVICE_MAX_DOWNLOAD_SPEED} every
+ * time so it can be changed while the downloads run.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class DeviceDownloadThrottle {
+
+    private static final DeviceDownloadThrottle INSTANCE = new DeviceDownloadThrottle();
+
+    /**
+     * Never let the bucket hold more than this many milliseconds of traffic.
+     */
+    private static final long MAX_BURST_MILLIS = 500;
+
+    private long available;
+    private long lastRefill;
+
+    private DeviceDownloadThrottle() {
+        lastRefill = System.currentTimeMillis();
+    }
+
+    public static DeviceDownloadThrottle instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Blocks until the given amount of bytes can go under the cap.
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long rate = LibrarySettings.LIBRARY_FROM_DEVICE_MAX_DOWNLOAD_SPEED.getValue() * 1024L;
+
+        if (rate <= 0) {
+            return;
+        }
+
+        long millis;
+
+        synchronized (this) {
+            refill(rate);
+
+            // reserve the bytes right away, the debt includes the reservations
+            // of the threads already sleeping, so this one is last in line
+            available -= bytes;
+
+            millis = available < 0 ? Math.max(1, (-available * 1000) / rate) : 0;
+        }
+
+        // sleep outside the lock, the next caller computes its own deadline
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private void refill(long rate) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            available = Math.min(available + (elapsed * rate) / 1000, (MAX_BURST_MILLIS * rate) / 1000);
+            lastRefill = now;
+        }
+    }
+}
@@ -30,9 +30,9 @@ public abstract class DeviceTask implements Runnable {
 
     private List<OnChangedListener> listeners;
 
-    private int progress;
+    private volatile int progress;
 
-    private boolean running;
+    private volatile boolean running;
 
     public DeviceTask() {
         listeners = new ArrayList<DeviceTask.OnChangedListener>();
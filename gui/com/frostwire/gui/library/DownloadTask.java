@@ -17,12 +17,16 @@
  */
 package com.frostwire.gui.library;
 
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.net.URL;
-
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.FilenameUtils;
 
 import com.frostwire.core.FileDescriptor;
@@ -31,16 +35,24 @@ import com.limegroup.gnutella.gui.I18n;
 
 public class DownloadTask extends DeviceTask {
 
+    /**
+     * Files downloaded at the same time from devices, all of them share the
+     * bandwidth cap of {@link DeviceDownloadThrottle}.
+     */
+    private static final ExecutorService executor = ExecutorsHelper.newFixedSizeThreadPool(3, "DownloadFromDeviceExecutor");
+
     private final File savePath;
     private final Device device;
     private final FileDescriptor[] fds;
 
-    private FileDescriptor currentFD;
+    private final long[] downloaded;
+    private volatile FileDescriptor currentFD;
 
     public DownloadTask(File savePath, Device device, FileDescriptor[] fds) {
         this.savePath = savePath;
         this.device = device;
         this.fds = fds;
+        this.downloaded = new long[fds.length];
     }
 
     public FileDescriptor getCurrentFD() {
@@ -54,6 +66,7 @@ public class DownloadTask extends DeviceTask {
         }
 
         File lastFile = null;
+        List<Future<File>> futures = new ArrayList<Future<File>>(fds.length);
 
         try {
             setProgress(0);
@@ -62,82 +75,147 @@ public class DownloadTask extends DeviceTask {
                 savePath.mkdirs();
             }
 
-            long totalBytes = getTotalBytes();
-            long totalWritten = 0;
+            final long totalBytes = getTotalBytes();
 
             for (int i = 0; i < fds.length; i++) {
-                if (!isRunning()) {
-                    return;
-                }
+                futures.add(executor.submit(new FileDownload(i, totalBytes)));
+            }
 
-                currentFD = fds[i];
+            for (Future<File> f : futures) {
+                File file = f.get();
+                if (file != null) {
+                    lastFile = file;
+                }
+            }
 
-                GUIMediator.safeInvokeLater(new Runnable() {
-                    public void run() {
-                        String status = String.format("%s from %s - %s", I18n.tr("Downloading"), device.getName(), currentFD.title);
-                        LibraryMediator.instance().getLibrarySearch().pushStatus(status);
-                    }
-                });
+            if (isRunning()) {
+                setProgress(100);
+            }
+        } catch (ExecutionException e) {
+            onError(e.getCause());
+        } catch (Throwable e) {
+            onError(e);
+        } finally {
+            for (Future<File> f : futures) {
+                f.cancel(false);
+            }
 
-                URL url = new URL(device.getDownloadURL(currentFD));
+            GUIMediator.safeInvokeLater(new Runnable() {
+                public void run() {
+                    LibraryMediator.instance().getLibrarySearch().revertStatus();
+                }
+            });
 
-                InputStream is = null;
-                FileOutputStream fos = null;
+            if (lastFile != null) {
+                GUIMediator.launchExplorer(lastFile);
+            }
+        }
 
-                try {
-                    is = url.openStream();
+        stop();
+    }
 
-                    File file = buildFile(savePath, FilenameUtils.getName(currentFD.filePath));
-                    File incompleteFile = buildIncompleteFile(file);
-                    lastFile = file.getAbsoluteFile();
+    private void updateProgress(int index, long bytes, long totalBytes) {
+        synchronized (downloaded) {
+            downloaded[index] = bytes;
 
-                    fos = new FileOutputStream(incompleteFile);
+            long total = 0;
+            for (long n : downloaded) {
+                total += n;
+            }
 
-                    byte[] buffer = new byte[4 * 1024];
-                    int n = 0;
+            int progress = totalBytes > 0 ? (int) Math.min((total * 100) / totalBytes, 99) : 0;
 
-                    while ((n = is.read(buffer, 0, buffer.length)) != -1) {
-                        if (!isRunning()) {
-                            return;
-                        }
+            if (progress != getProgress()) {
+                setProgress(progress);
 
-                        fos.write(buffer, 0, n);
-                        totalWritten += n;
-                        setProgress((int) ((totalWritten * 100) / totalBytes));
+                if (progress % 5 == 0) {
+                    pushStatus(progress);
+                }
+            }
+        }
+    }
 
-                        if (getProgress() % 5 == 0) {
-                            GUIMediator.safeInvokeLater(new Runnable() {
-                                public void run() {
-                                    String status = String.format("%d%% %s from %s - %s", getProgress(), I18n.tr("Downloading"), device.getName(), currentFD.title);
-                                    LibraryMediator.instance().getLibrarySearch().pushStatus(status);
-                                }
-                            });
-                        }
-                    }
+    private void pushStatus(final int progress) {
+        final FileDescriptor fd = currentFD;
+        if (fd == null) {
+            return;
+        }
 
-                    close(fos);
-                    incompleteFile.renameTo(file);
-                } finally {
-                    close(is);
+        GUIMediator.safeInvokeLater(new Runnable() {
+            public void run() {
+                String status;
+                if (progress > 0) {
+                    status = String.format("%d%% %s from %s - %s", progress, I18n.tr("Downloading"), device.getName(), fd.title);
+                } else {
+                    status = String.format("%s from %s - %s", I18n.tr("Downloading"), device.getName(), fd.title);
                 }
+                LibraryMediator.instance().getLibrarySearch().pushStatus(status);
             }
+        });
+    }
 
-            setProgress(100);
-        } catch (Throwable e) {
-            onError(e);
-        } finally {
-            GUIMediator.safeInvokeLater(new Runnable() {
-                public void run() {
-                    LibraryMediator.instance().getLibrarySearch().revertStatus();
+    private final class FileDownload implements Callable<File>, Device.DownloadListener {
+
+        private final int index;
+        private final long totalBytes;
+
+        public FileDownload(int index, long totalBytes) {
+            this.index = index;
+            this.totalBytes = totalBytes;
+        }
+
+        public File call() throws Exception {
+            if (!isRunning()) {
+                return null;
+            }
+
+            FileDescriptor fd = fds[index];
+            currentFD = fd;
+            pushStatus(getProgress());
+
+            File file;
+            File incompleteFile;
+
+            // pick the names together, the other downloads of the task run at the same
+            // time, the empty file holds the name until the download is done
+            synchronized (DownloadTask.this) {
+                file = buildFile(savePath, FilenameUtils.getName(fd.filePath));
+                incompleteFile = buildIncompleteFile(file);
+                file.createNewFile();
+            }
+
+            boolean done = false;
+
+            try {
+                if (!device.download(fd, incompleteFile, this)) {
+                    return null;
                 }
-            });
 
-            if (lastFile != null) {
-                GUIMediator.launchExplorer(lastFile);
+                file.delete();
+                if (!incompleteFile.renameTo(file)) {
+                    throw new IOException("Unable to rename " + incompleteFile + " to " + file);
+                }
+                done = true;
+
+                return file.getAbsoluteFile();
+            } catch (Exception e) {
+                // no point in finishing the rest of the task
+                stop();
+                throw e;
+            } finally {
+                if (!done && file.length() == 0) {
+                    file.delete();
+                }
             }
         }
 
-        stop();
+        public void onProgress(FileDescriptor fd, long bytes) {
+            updateProgress(index, bytes, totalBytes);
+        }
+
+        public boolean isCancelled() {
+            return !isRunning();
+        }
     }
 
     private File buildFile(File savePath, String name) {
@@ -166,13 +244,4 @@ public class DownloadTask extends DeviceTask {
         }
         return total;
     }
-
-    private void close(Closeable closable) {
-        if (closable != null) {
-            try {
-                closable.close();
-            } catch (Throwable e) {
-            }
-        }
-    }
 }
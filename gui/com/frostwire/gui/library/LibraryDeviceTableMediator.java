@@ -269,15 +269,13 @@ public class LibraryDeviceTableMediator extends AbstractLibraryTableMediator<Lib
                     return; // selected another node in the tree
                 }
 
-                for (int i = 0; i < fds.size(); i++) {
-                    final FileDescriptor fileDescriptor = fds.get(i);
-                    GUIMediator.safeInvokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            addUnsorted(fileDescriptor);
-                        }
-                    });
-                }
+                final List<LibraryDeviceTableDataLine> lines = DATA_MODEL.getNewDataLines(fds);
+                GUIMediator.safeInvokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        addDataLinesUnsorted(lines);
+                    }
+                });
                 forceResort();
 
                 LibraryMediator.instance().getLibraryExplorer().executePendingRunnables();
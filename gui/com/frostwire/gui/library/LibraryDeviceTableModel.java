@@ -95,6 +95,31 @@ final class LibraryDeviceTableModel extends HashBasedDataLineModel<LibraryDevice
         }
     }
     
+    @Override
+    public int addDataLines(List<LibraryDeviceTableDataLine> lines, int row) {
+        return super.addDataLines(filterLines(lines), row);
+    }
+
+    @Override
+    public int addDataLinesSorted(List<LibraryDeviceTableDataLine> lines) {
+        return super.addDataLinesSorted(filterLines(lines));
+    }
+
+    /**
+     * Returns the lines that pass the filter, hiding the rest.
+     */
+    private List<LibraryDeviceTableDataLine> filterLines(List<LibraryDeviceTableDataLine> lines) {
+        List<LibraryDeviceTableDataLine> allowed = new ArrayList<LibraryDeviceTableDataLine>(lines.size());
+        for (LibraryDeviceTableDataLine o : lines) {
+            if (allow(o)) {
+                allowed.add(o);
+            } else {
+                HIDDEN.add(o);
+            }
+        }
+        return allowed;
+    }
+
     /**
      * Override the dataline add so we can re-initialize files
      * to include the FileDesc.  Necessary for changing pending status
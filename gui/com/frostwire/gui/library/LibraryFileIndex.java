@@ -0,0 +1,439 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(TM). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.frostwire.gui.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.CommonUtils;
+import org.limewire.util.FileUtils;
+import org.limewire.util.StringUtils;
+
+/**
+ * Index of the names of the files under the library folders, so the library
+ * search doesn't walk the disk on every keystroke.
+ * <p>
+ * A folder is scanned the first time it's searched. After that the index is
+ * refreshed in the background comparing the modification time of every
+ * folder, only the folders that changed are listed again. The index is saved
+ * in the settings folder after every refresh that changed something.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryFileIndex {
+
+    private static final Log LOG = LogFactory.getLog(LibraryFileIndex.class);
+
+    /**
+     * Minimum time between two refreshes of the index.
+     */
+    private static final long REFRESH_INTERVAL = 10000;
+
+    private static final int FILE_VERSION = 1;
+
+    private static final LibraryFileIndex INSTANCE = new LibraryFileIndex(new File(CommonUtils.getUserSettingsDir(), "library_index.dat"));
+
+    public static LibraryFileIndex instance() {
+        return INSTANCE;
+    }
+
+    private final File file;
+
+    /**
+     * Every indexed folder, read without locks. The entries are never
+     * modified, a changed folder gets a new one.
+     */
+    private final Map<File, Folder> folders;
+    private final Set<File> roots;
+
+    private final ExecutorService refreshExecutor;
+    private final AtomicBoolean refreshScheduled;
+    private volatile long lastRefresh;
+
+    private final Object saveLock;
+
+    private volatile boolean loaded;
+
+    private LibraryFileIndex(File file) {
+        this.file = file;
+        this.folders = new ConcurrentHashMap<File, Folder>();
+        this.roots = new CopyOnWriteArraySet<File>();
+        this.refreshExecutor = ExecutorsHelper.newProcessingQueue("LibraryFileIndex");
+        this.refreshScheduled = new AtomicBoolean(false);
+        this.saveLock = new Object();
+    }
+
+    /**
+     * Finds the files under root having every word of the query in their
+     * absolute path, case insensitive. Hidden files are never indexed.
+     *
+     * @param excludeFiles files and folders to leave out
+     * @param excludeFolders folders not to look into
+     */
+    public List<File> search(File root, String query, Set<File> excludeFiles, Set<File> excludeFolders) {
+        List<File> results = new ArrayList<File>();
+
+        if (root == null || !root.isDirectory()) {
+            return results;
+        }
+
+        index(root);
+
+        String[] tokens = StringUtils.removeDoubleSpaces(query).toLowerCase(Locale.US).split(" ");
+        search(root, tokens, excludeFiles, excludeFolders, results);
+
+        scheduleRefresh();
+
+        return results;
+    }
+
+    private void search(File dir, String[] tokens, Set<File> excludeFiles, Set<File> excludeFolders, List<File> results) {
+        Folder folder = folders.get(dir);
+        if (folder == null) {
+            return;
+        }
+
+        // the words in the folder path match all its files
+        List<String> nameTokens = new ArrayList<String>(tokens.length);
+        for (String token : tokens) {
+            if (!folder.lowerPath.contains(token)) {
+                nameTokens.add(token);
+            }
+        }
+
+        for (int i = 0; i < folder.fileNames.length; i++) {
+            if (matches(folder, folder.lowerFileNames[i], nameTokens)) {
+                File f = new File(dir, folder.fileNames[i]);
+                // the index could be older than the disk
+                if (!excludeFiles.contains(f) && f.exists()) {
+                    results.add(f);
+                }
+            }
+        }
+
+        for (String name : folder.folderNames) {
+            File subdir = new File(dir, name);
+            if (!excludeFiles.contains(subdir) && !excludeFolders.contains(subdir)) {
+                search(subdir, tokens, excludeFiles, excludeFolders, results);
+            }
+        }
+    }
+
+    private static boolean matches(Folder folder, String lowerName, List<String> tokens) {
+        for (String token : tokens) {
+            if (!lowerName.contains(token)) {
+                // a word crossing the last separator
+                if (token.indexOf(File.separatorChar) == -1 || !(folder.lowerPath + File.separator + lowerName).contains(token)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Scans the root the first time it's searched. Only the first scan of a
+     * root takes the monitor, the file is saved after releasing it.
+     */
+    private void index(File root) {
+        if (loaded && roots.contains(root) && folders.containsKey(root)) {
+            return;
+        }
+
+        synchronized (this) {
+            load();
+
+            if (roots.contains(root) && folders.containsKey(root)) {
+                return;
+            }
+
+            Changes changes = new Changes();
+            refresh(root, changes);
+            changes.apply(folders);
+            roots.add(root);
+        }
+
+        save();
+    }
+
+    private void scheduleRefresh() {
+        if (System.currentTimeMillis() - lastRefresh > REFRESH_INTERVAL && refreshScheduled.compareAndSet(false, true)) {
+            refreshExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Throwable e) {
+                        LOG.error("Error refreshing the library file index", e);
+                    } finally {
+                        lastRefresh = System.currentTimeMillis();
+                        refreshScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Walks the disk without holding the monitor, searches keep using the
+     * index as it is until the changes are applied.
+     */
+    private void refresh() {
+        Set<File> indexedRoots = new HashSet<File>(roots);
+        Set<File> goneRoots = new HashSet<File>();
+
+        Changes changes = new Changes();
+        for (File root : indexedRoots) {
+            if (root.isDirectory()) {
+                refresh(root, changes);
+            } else {
+                goneRoots.add(root);
+            }
+        }
+
+        boolean changed;
+        synchronized (this) {
+            changed = changes.apply(folders);
+
+            changed |= roots.removeAll(goneRoots);
+            indexedRoots.removeAll(goneRoots);
+
+            // the folders of a root indexed meanwhile were not visited
+            if (roots.equals(indexedRoots)) {
+                changed |= folders.keySet().retainAll(changes.visited);
+            }
+        }
+
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Lists again the folders under dir that changed since they were
+     * indexed, the index itself is not modified.
+     */
+    private void refresh(File dir, Changes changes) {
+        if (!changes.visited.add(dir)) {
+            return;
+        }
+
+        Folder folder = folders.get(dir);
+        long lastModified = dir.lastModified();
+
+        if (folder == null || lastModified == 0 || folder.lastModified != lastModified) {
+            folder = scan(dir, lastModified);
+            if (folder == null) {
+                changes.removed.add(dir);
+                return;
+            }
+            changes.updated.put(dir, folder);
+        }
+
+        for (String name : folder.folderNames) {
+            refresh(new File(dir, name), changes);
+        }
+    }
+
+    private static Folder scan(File dir, long lastModified) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return null;
+        }
+
+        List<String> fileNames = new ArrayList<String>();
+        List<String> folderNames = new ArrayList<String>();
+
+        for (File child : children) {
+            if (child.isHidden()) {
+                continue;
+            }
+
+            if (child.isDirectory()) {
+                folderNames.add(child.getName());
+            } else if (child.isFile()) {
+                fileNames.add(child.getName());
+            }
+        }
+
+        return new Folder(dir.getAbsolutePath(), lastModified, fileNames.toArray(new String[fileNames.size()]), folderNames.toArray(new String[folderNames.size()]));
+    }
+
+    /**
+     * Called with the monitor held, searches skip it once loaded is set.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+
+        try {
+            read();
+        } finally {
+            loaded = true;
+        }
+    }
+
+    private void read() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+
+            int numRoots = in.readInt();
+            for (int i = 0; i < numRoots; i++) {
+                roots.add(new File(in.readUTF()));
+            }
+
+            int numFolders = in.readInt();
+            for (int i = 0; i < numFolders; i++) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                String[] fileNames = readNames(in);
+                String[] folderNames = readNames(in);
+                folders.put(new File(path), new Folder(path, lastModified, fileNames, folderNames));
+            }
+        } catch (Throwable e) {
+            LOG.warn("Invalid library file index " + file + ", it will be rebuilt", e);
+            roots.clear();
+            folders.clear();
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+
+    private void save() {
+        synchronized (saveLock) {
+            write();
+        }
+    }
+
+    private void write() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(FILE_VERSION);
+
+            List<File> rootsCopy = new ArrayList<File>(roots);
+            out.writeInt(rootsCopy.size());
+            for (File root : rootsCopy) {
+                out.writeUTF(root.getAbsolutePath());
+            }
+
+            List<Folder> foldersCopy = new ArrayList<Folder>(folders.values());
+            out.writeInt(foldersCopy.size());
+            for (Folder folder : foldersCopy) {
+                out.writeUTF(folder.path);
+                out.writeLong(folder.lastModified);
+                writeNames(out, folder.fileNames);
+                writeNames(out, folder.folderNames);
+            }
+
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            LOG.error("Error saving the library file index to " + file, e);
+            FileUtils.close(out);
+            file.delete();
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * The result of walking the disk, applied to the index at once.
+     */
+    private static final class Changes {
+
+        public final Set<File> visited = new HashSet<File>();
+        public final Map<File, Folder> updated = new HashMap<File, Folder>();
+        public final Set<File> removed = new HashSet<File>();
+
+        /**
+         * @return true if a folder was listed again or is gone
+         */
+        public boolean apply(Map<File, Folder> folders) {
+            folders.putAll(updated);
+            folders.keySet().removeAll(removed);
+            return !updated.isEmpty() || !removed.isEmpty();
+        }
+    }
+
+    private static final class Folder {
+
+        public final String path;
+        public final String lowerPath;
+        public final long lastModified;
+        public final String[] fileNames;
+        public final String[] lowerFileNames;
+        public final String[] folderNames;
+
+        public Folder(String path, long lastModified, String[] fileNames, String[] folderNames) {
+            this.path = path;
+            this.lowerPath = path.toLowerCase(Locale.US);
+            this.lastModified = lastModified;
+            this.fileNames = fileNames;
+            this.lowerFileNames = new String[fileNames.length];
+            for (int i = 0; i < fileNames.length; i++) {
+                lowerFileNames[i] = fileNames[i].toLowerCase(Locale.US);
+            }
+            this.folderNames = folderNames;
+        }
+    }
+}
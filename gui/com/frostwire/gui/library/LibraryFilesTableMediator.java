@@ -403,13 +403,13 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
 
                 @Override
                 public void run() {
-                    for (final File file : fPartition) {
-                        GUIMediator.safeInvokeLater(new Runnable() {
-                            public void run() {
-                                addUnsorted(file);
-                            }
-                        });
-                    }
+                    // build the lines here, initializing them does disk and database work
+                    final List<LibraryFilesTableDataLine> lines = DATA_MODEL.getNewDataLines(fPartition);
+                    GUIMediator.safeInvokeLater(new Runnable() {
+                        public void run() {
+                            addDataLinesUnsorted(lines);
+                        }
+                    });
                     LibraryMediator.instance().getLibrarySearch().addResults(fPartition.size());
 
                 }
@@ -19,6 +19,7 @@
 package com.frostwire.gui.library;
 
 import java.io.File;
+import java.util.List;
 
 import javax.swing.JTable;
 
@@ -83,6 +84,14 @@ final class LibraryFilesTableModel extends HashBasedDataLineModel<LibraryFilesTa
         return addSorted(o);//, getRowCount());
     }
 
+    /**
+     * Bulk adds are sorted too, like add(Object).
+     */
+    @Override
+    public int addDataLines(List<LibraryFilesTableDataLine> lines) {
+        return addDataLinesSorted(lines);
+    }
+
     /**
      * Override the dataline add so we can re-initialize files
      * to include the FileDesc.  Necessary for changing pending status
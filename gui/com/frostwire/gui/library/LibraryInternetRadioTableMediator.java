@@ -288,13 +288,12 @@ final class LibraryInternetRadioTableMediator extends AbstractLibraryTableMediat
         }
 
         clearTable();
-        for (final InternetRadioStation item : items) {
-            GUIMediator.safeInvokeLater(new Runnable() {
-                public void run() {
-                    addUnsorted(item);
-                }
-            });
-        }
+        final List<LibraryInternetRadioTableDataLine> lines = DATA_MODEL.getNewDataLines(items);
+        GUIMediator.safeInvokeLater(new Runnable() {
+            public void run() {
+                addDataLinesUnsorted(lines);
+            }
+        });
 
         forceResort();
     }
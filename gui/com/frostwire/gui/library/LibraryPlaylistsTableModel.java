@@ -19,6 +19,7 @@
 package com.frostwire.gui.library;
 
 import java.io.File;
+import java.util.List;
 
 import com.frostwire.alexandria.PlaylistItem;
 import com.limegroup.gnutella.gui.tables.ColoredCellImpl;
@@ -68,6 +69,14 @@ final class LibraryPlaylistsTableModel extends HashBasedDataLineModel<LibraryPla
         return addSorted(o);//, getRowCount());
     }
 
+    /**
+     * Bulk adds are sorted too, like add(Object).
+     */
+    @Override
+    public int addDataLines(List<LibraryPlaylistsTableDataLine> lines) {
+        return addDataLinesSorted(lines);
+    }
+
 	/**
 	 * Override the dataline add so we can re-initialize files
 	 * to include the FileDesc.  Necessary for changing pending status
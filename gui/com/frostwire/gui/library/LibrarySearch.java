@@ -334,7 +334,7 @@ public class LibrarySearch extends JPanel {
         }
 
         /**
-         * It searches _query in haystackDir.
+         * It searches _query in haystackDir, using the library file index.
          * 
          * @param haystackDir
          * @param excludeFiles - Usually a list of incomplete files.
@@ -348,43 +348,26 @@ public class LibrarySearch extends JPanel {
                 return;
             }
 
-            final List<File> directories = new ArrayList<File>();
             final List<File> results = new ArrayList<File>();
-            SearchFileFilter searchFilter = new SearchFileFilter(_query);
 
-            for (File child : haystackDir.listFiles(searchFilter)) {
+            for (File child : LibraryFileIndex.instance().search(haystackDir, _query, excludeFiles, exludedSubFolders)) {
                 if (canceled) {
                     return;
                 }
 
-                /////
-                //Stop search if the user selected another item in the library tree
-                DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
-                if (!directoryHolder.equals(currentDirectoryHolder)) {
-                    return;
-                }
-                /////
-
-                if (excludeFiles.contains(child)) {
-                    continue;
-                }
-
-                if (child.isHidden()) {
-                    continue;
+                // the index already matched the query
+                if (directoryHolder instanceof SavedFilesDirectoryHolder || directoryHolder.accept(child)) {
+                    results.add(child);
                 }
+            }
 
-                if (child.isDirectory() && !exludedSubFolders.contains(child)) {
-                    directories.add(child);
-                } else if (child.isFile()) {
-                    if (directoryHolder instanceof SavedFilesDirectoryHolder) {
-                        if (searchFilter.accept(child, false)) {
-                            results.add(child);
-                        }
-                    } else if (directoryHolder.accept(child)) {
-                        results.add(child);
-                    }
-                }
+            /////
+            //Stop search if the user selected another item in the library tree
+            DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
+            if (!directoryHolder.equals(currentDirectoryHolder)) {
+                return;
             }
+            /////
 
             Runnable r = new Runnable() {
                 public void run() {
@@ -396,10 +379,6 @@ public class LibrarySearch extends JPanel {
                 }
             };
             GUIMediator.safeInvokeLater(r);
-
-            for (File directory : directories) {
-                search(directory, excludeFiles, exludedSubFolders);
-            }
         }
 
         private void search(List<File> cache) {
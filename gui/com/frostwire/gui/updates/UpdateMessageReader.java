@@ -16,8 +16,9 @@
 package com.frostwire.gui.updates;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -34,6 +35,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import com.frostwire.HttpContentHandler;
+import com.frostwire.HttpFetcher;
 import com.limegroup.gnutella.gui.search.SearchEngine;
 import com.limegroup.gnutella.settings.ApplicationSettings;
 import com.limegroup.gnutella.settings.ChatSettings;
@@ -350,35 +353,29 @@ public final class UpdateMessageReader implements ContentHandler {
 	}
 
 	public void readUpdateFile() {
-		HttpURLConnection connection = null;
-		InputSource src = null;
-
 		try {
 			String userAgent = "FrostWire/" + OSUtils.getOS() + "-" + OSUtils.getArchitecture() + "/"
 					+ FrostWireUtils.getFrostWireVersion();
-			connection = (HttpURLConnection) (new URL(getUpdateURL()))
-					.openConnection();
 			String url = getUpdateURL();
 			System.out.println("Reading update file from " + url);
-			connection.setRequestProperty("User-Agent", userAgent);
-			connection.setRequestProperty("Connection", "close");
-			connection.setReadTimeout(10000); // 10 secs timeout
-
-			if (connection.getResponseCode() >= 400) {
-				// invalid URL for sure
-				connection.disconnect();
-				return;
-			}
-
-			src = new InputSource(connection.getInputStream());
-
-			XMLReader rdr = XMLReaderFactory
-					.createXMLReader("com.sun.org.apache.xerces.internal.parsers.SAXParser");
-			rdr.setContentHandler(this);
 
-			rdr.parse(src);
-			connection.getInputStream().close();
-			connection.disconnect();
+			// shares the kept alive connections of the other fetchers
+			HttpFetcher fetcher = new HttpFetcher(new URI(url), userAgent, 10000); // 10 secs timeout
+			fetcher.stream(false, new HttpContentHandler() {
+				public void handle(InputStream content) throws IOException {
+					try {
+						XMLReader rdr = XMLReaderFactory
+								.createXMLReader("com.sun.org.apache.xerces.internal.parsers.SAXParser");
+						rdr.setContentHandler(UpdateMessageReader.this);
+
+						rdr.parse(new InputSource(content));
+					} catch (SAXException e2) {
+						System.out
+								.println("UpdateMessageReader.readUpdateFile() SAX exception "
+										+ e2.toString());
+					}
+				}
+			});
 		} catch (java.net.SocketTimeoutException e3) {
 			System.out
 					.println("UpdateMessageReadre.readUpdateFile() Socket Timeout Exeception "
@@ -387,10 +384,10 @@ public final class UpdateMessageReader implements ContentHandler {
 			System.out
 					.println("UpdateMessageReader.readUpdateFile() IO exception "
 							+ e.toString());
-		} catch (SAXException e2) {
+		} catch (URISyntaxException e) {
 			System.out
-					.println("UpdateMessageReader.readUpdateFile() SAX exception "
-							+ e2.toString());
+					.println("UpdateMessageReader.readUpdateFile() invalid URL "
+							+ e.toString());
 		}
 	}
 
@@ -24,8 +24,6 @@ import java.io.File;
 
 import javax.swing.JPopupMenu;
 
-import org.gudy.azureus2.core3.torrent.TOTorrentFile;
-
 import com.frostwire.bittorrent.websearch.WebSearchResult;
 import com.limegroup.gnutella.gui.GUIMediator;
 import com.limegroup.gnutella.gui.util.PopupUtils;
@@ -40,13 +38,15 @@ public class DeepSearchResult extends AbstractSearchResult implements Bittorrent
 
     private WebSearchResult _item;
     private SearchEngine _searchEngine;
-    private TOTorrentFile _torrentFile;
+    private String _relativePath;
+    private long _size;
 
-    public DeepSearchResult(TOTorrentFile torrentFile, WebSearchResult item, SearchEngine searchEngine, String query) {
+    public DeepSearchResult(String relativePath, long size, WebSearchResult item, SearchEngine searchEngine, String query) {
         super(query);
         _item = item;
         _searchEngine = searchEngine;
-        _torrentFile = torrentFile;
+        _relativePath = relativePath;
+        _size = size;
     }
 
     @Override
@@ -56,12 +56,12 @@ public class DeepSearchResult extends AbstractSearchResult implements Bittorrent
 
     @Override
     public String getExtension() {
-        return _torrentFile.getRelativePath().substring(_torrentFile.getRelativePath().lastIndexOf(".") + 1);
+        return _relativePath.substring(_relativePath.lastIndexOf(".") + 1);
     }
 
     @Override
     public String getFileName() {
-        String fName = new File(_torrentFile.getRelativePath()).getName();
+        String fName = new File(_relativePath).getName();
         if (fName.startsWith("/")) {
             return fName.substring(1);
         }
@@ -70,8 +70,8 @@ public class DeepSearchResult extends AbstractSearchResult implements Bittorrent
 
     @Override
     public String getDisplayName() {
-        if (_torrentFile.getRelativePath().indexOf("/") != -1) {
-            String fileName = _torrentFile.getRelativePath().substring(_torrentFile.getRelativePath().lastIndexOf("/"));
+        if (_relativePath.indexOf("/") != -1) {
+            String fileName = _relativePath.substring(_relativePath.lastIndexOf("/"));
 
             if (fileName.startsWith("/")) {
                 fileName = fileName.substring(1);
@@ -80,7 +80,7 @@ public class DeepSearchResult extends AbstractSearchResult implements Bittorrent
             return fileName.substring(0, fileName.lastIndexOf("."));
         }
 
-        return _torrentFile.getRelativePath().substring(0, _torrentFile.getRelativePath().lastIndexOf("."));
+        return _relativePath.substring(0, _relativePath.lastIndexOf("."));
     }
 
     @Override
@@ -99,7 +99,7 @@ public class DeepSearchResult extends AbstractSearchResult implements Bittorrent
 
     @Override
     public long getSize() {
-        return _torrentFile.getLength();
+        return _size;
     }
 
     @Override
@@ -119,7 +119,7 @@ public class DeepSearchResult extends AbstractSearchResult implements Bittorrent
 
     @Override
     public void download(boolean partial) {
-        GUIMediator.instance().openTorrentSearchResult(_item, _torrentFile.getRelativePath());
+        GUIMediator.instance().openTorrentSearchResult(_item, _relativePath);
         showDetails(false);
     }
 
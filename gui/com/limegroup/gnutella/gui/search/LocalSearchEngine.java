@@ -19,20 +19,30 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jd.controlling.linkcollector.LinkCollector;
 import jd.controlling.linkcrawler.CrawledLink;
@@ -45,24 +55,23 @@ import jd.plugins.FilePackage;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.gudy.azureus2.core3.torrent.TOTorrent;
-import org.gudy.azureus2.core3.torrent.TOTorrentFile;
 import org.gudy.azureus2.core3.torrentdownloader.TorrentDownloader;
 import org.gudy.azureus2.core3.torrentdownloader.TorrentDownloaderCallBackInterface;
 import org.gudy.azureus2.core3.torrentdownloader.TorrentDownloaderFactory;
-import org.gudy.azureus2.core3.util.TorrentUtils;
-import org.h2.fulltext.FullTextLucene2;
+import org.gudy.azureus2.core3.util.BDecoderView;
+import org.gudy.azureus2.core3.util.FileUtil;
 import org.jdownloader.controlling.filter.LinkFilterController;
 import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.StringUtils;
 
-import com.frostwire.JsonEngine;
 import com.frostwire.bittorrent.websearch.WebSearchResult;
 import com.frostwire.gui.filters.SearchFilter;
 import com.frostwire.websearch.youtube.YouTubeEntry;
 import com.frostwire.websearch.youtube.YouTubeEntryLink;
 import com.frostwire.websearch.youtube.YouTubeSearchResult;
 import com.limegroup.gnutella.GUID;
-import com.limegroup.gnutella.gui.GUIMediator;
+import com.limegroup.gnutella.gui.search.db.InfoHashBloomFilter;
+import com.limegroup.gnutella.gui.search.db.InfoHashSet;
 import com.limegroup.gnutella.gui.search.db.SmartSearchDB;
 import com.limegroup.gnutella.gui.search.db.TorrentDBPojo;
 import com.limegroup.gnutella.gui.search.db.TorrentFileDBPojo;
@@ -78,51 +87,113 @@ public class LocalSearchEngine {
 
     private static final Log LOG = LogFactory.getLog(LocalSearchEngine.class);
 
-    private static final ExecutorService DOWNLOAD_TORRENTS_EXECUTOR;
+    private static final ThreadPoolExecutor DOWNLOAD_TORRENTS_EXECUTOR;
     private static final ExecutorService CRAWL_YOUTUBE_LINKS_EXECUTOR;
-    private static final int MAX_TORRENT_DOWNLOADS = 10;
+    private static final int MIN_TORRENT_DOWNLOADS = 4;
+    private static final int MAX_TORRENT_DOWNLOADS = 16;
 
-    private static final ExecutorService INDEX_TORRENTS_EXECUTOR;
+    /**
+     * Average .torrent download time in milliseconds the concurrency is
+     * adapted to.
+     */
+    private static final long TORRENT_DOWNLOAD_TARGET_LATENCY = 5000;
+
+    private static final ScheduledExecutorService DEEP_SEARCH_EXECUTOR;
+
+    private static final ScheduledExecutorService INDEX_TORRENTS_EXECUTOR;
 
     static {
-        DOWNLOAD_TORRENTS_EXECUTOR = ExecutorsHelper.newFixedSizePriorityThreadPool(MAX_TORRENT_DOWNLOADS, "DownloadTorrentsExecutor");
+        DOWNLOAD_TORRENTS_EXECUTOR = new ThreadPoolExecutor(MIN_TORRENT_DOWNLOADS, MIN_TORRENT_DOWNLOADS, 5L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), ExecutorsHelper.daemonThreadFactory("DownloadTorrentsExecutor"));
+        DOWNLOAD_TORRENTS_EXECUTOR.allowCoreThreadTimeOut(true);
+        DEEP_SEARCH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(ExecutorsHelper.daemonThreadFactory("DeepSearchExecutor"));
         CRAWL_YOUTUBE_LINKS_EXECUTOR = ExecutorsHelper.newFixedSizePriorityThreadPool(2, "CRAWL_YOUTUBE_LINKS_EXECUTOR");
-        INDEX_TORRENTS_EXECUTOR = ExecutorsHelper.newFixedSizeThreadPool(1, "IndexTorrentsExecutor");
+        INDEX_TORRENTS_EXECUTOR = Executors.newSingleThreadScheduledExecutor(ExecutorsHelper.daemonThreadFactory("IndexTorrentsExecutor"));
     }
 
     private final int DEEP_SEARCH_DELAY;
     private final int MAXIMUM_TORRENTS_TO_SCAN;
-    private final int DEEP_SEARCH_ROUNDS;
     private final int LOCAL_SEARCH_RESULTS_LIMIT;
+    private final int INDEX_BATCH_SIZE;
+
+    /**
+     * Longer keywords are truncated, see the KEYWORDS table.
+     */
+    private static final int MAX_KEYWORD_LENGTH = 100;
+
+    /**
+     * Most postings counted to find the rarest keyword of a query.
+     */
+    private static final int KEYWORD_PROBE_LIMIT = 10000;
 
     private static LocalSearchEngine INSTANCE;
 
-    private static final Comparator<SearchResultDataLine> TORRENT_SEED_TABLELINE_COMPARATOR = new Comparator<SearchResultDataLine>() {
+    /**
+     * Saved next to the database on shutdown, see INDEXED_INFO_HASHES.
+     */
+    private static final String INDEXED_INFO_HASHES_FILE = "indexed_info_hashes.bloom";
 
-        @Override
-        public int compare(SearchResultDataLine o1, SearchResultDataLine o2) {
-            return o2.getSeeds() - o1.getSeeds();
-        }
-    };
+    /**
+     * Size of the pages of torrents read to rebuild INDEXED_INFO_HASHES.
+     */
+    private static final int INDEXED_INFO_HASHES_REBUILD_PAGE = 10000;
 
     /**
-     * We'll keep here every info hash we've already processed during the
-     * session
+     * Longest wait on shutdown for the queued torrents to be written, in
+     * milliseconds.
      */
-    private HashSet<String> KNOWN_INFO_HASHES = new HashSet<String>();
+    private static final long INDEX_SHUTDOWN_TIMEOUT = 10000;
+
+    /**
+     * We'll keep here the info hashes we've already processed during the
+     * session, the oldest are forgotten past the limit.
+     */
+    private final InfoHashSet KNOWN_INFO_HASHES;
     private SmartSearchDB DB;
-    private JsonEngine JSON_ENGINE;
 
-    private Queue<IndexTorrentElement> INDEX_TORRENT_QUEUE = new LinkedList<IndexTorrentElement>();
+    /**
+     * Every info hash in the database, so torrents never seen don't cost a
+     * query. It's only trusted once loaded or rebuilt.
+     */
+    private volatile InfoHashBloomFilter INDEXED_INFO_HASHES;
+
+    /**
+     * The searches being deep searched, only used from the deep search
+     * executor.
+     */
+    private final Map<GUID, DeepSearch> DEEP_SEARCHES = new HashMap<GUID, DeepSearch>();
+    private final AtomicInteger DEEP_TASK_ORDER = new AtomicInteger();
+    private long torrentDownloadLatency;
+
+    /**
+     * Write-behind queue of the torrents to index, written in batches by the
+     * IndexTorrentTask.
+     */
+    private final Queue<IndexTorrentElement> INDEX_TORRENT_QUEUE = new ConcurrentLinkedQueue<IndexTorrentElement>();
+    private final AtomicInteger INDEX_PENDING_FILES = new AtomicInteger();
+    private final AtomicBoolean INDEX_FLUSH_REQUESTED = new AtomicBoolean();
+    private final IndexTorrentTask INDEX_TORRENT_TASK = new IndexTorrentTask();
+    private volatile boolean INDEX_CLOSED;
 
     public LocalSearchEngine() {
         DEEP_SEARCH_DELAY = SearchSettings.SMART_SEARCH_START_DELAY.getValue();
         MAXIMUM_TORRENTS_TO_SCAN = SearchSettings.SMART_SEARCH_MAXIMUM_TORRENTS_TO_SCAN.getValue();
-        DEEP_SEARCH_ROUNDS = SearchSettings.SMART_SEARCH_DEEP_SEARCH_ROUNDS.getValue();
         LOCAL_SEARCH_RESULTS_LIMIT = SearchSettings.SMART_SEARCH_FULLTEXT_SEARCH_RESULTS_LIMIT.getValue();
+        INDEX_BATCH_SIZE = Math.max(1, SearchSettings.SMART_SEARCH_INDEX_BATCH_SIZE.getValue());
+
+        KNOWN_INFO_HASHES = new InfoHashSet(SearchSettings.SMART_SEARCH_KNOWN_INFO_HASHES_LIMIT.getValue() / 2);
 
         DB = new SmartSearchDB(SearchSettings.SMART_SEARCH_DATABASE_FOLDER.getValue());
-        JSON_ENGINE = new JsonEngine();
+
+        // the file is removed once loaded, an unclean shutdown means a rebuild from the database
+        File indexedInfoHashesFile = new File(DB.getDatabaseFile(), INDEXED_INFO_HASHES_FILE);
+        INDEXED_INFO_HASHES = InfoHashBloomFilter.load(indexedInfoHashesFile);
+        indexedInfoHashesFile.delete();
+        if (INDEXED_INFO_HASHES == null) {
+            INDEX_TORRENTS_EXECUTOR.execute(new RebuildIndexedInfoHashesTask());
+        }
+
+        long flushInterval = Math.max(100, SearchSettings.SMART_SEARCH_INDEX_FLUSH_INTERVAL.getValue());
+        INDEX_TORRENTS_EXECUTOR.scheduleWithFixedDelay(INDEX_TORRENT_TASK, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
     }
 
     public static LocalSearchEngine instance() {
@@ -154,6 +225,26 @@ public class LocalSearchEngine {
         return StringUtils.removeDoubleSpaces(str);
     }
 
+    /**
+     * Splits the text in the distinct keywords used by the local index,
+     * without the ignorable ones.
+     */
+    private static Set<String> tokenize(String str) {
+        Set<String> tokens = new LinkedHashSet<String>();
+
+        for (String token : stringSanitize(str).toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (token.length() == 0 || IGNORABLE_KEYWORDS.contains(token)) {
+                continue;
+            }
+            if (token.length() > MAX_KEYWORD_LENGTH) {
+                token = token.substring(0, MAX_KEYWORD_LENGTH);
+            }
+            tokens.add(token);
+        }
+
+        return tokens;
+    }
+
     /**
      * Very simple html strip routine. Not for a wide use.
      * 
@@ -169,213 +260,212 @@ public class LocalSearchEngine {
     /**
      * Perform a simple Database Search, immediate results should be available
      * if there are matches.
+     * <p>
+     * The files having every keyword of the query are found in the KEYWORDS
+     * index, best seeded first, and joined with their torrents in the same
+     * query. The query walks the postings of the rarest keyword only, the
+     * other keywords are index probes for each of those files.
      */
     public List<SmartSearchResult> search(String query) {
-        //query = LibraryUtils.fuzzyLuceneQuery(query);
-
-        //FULL TEXT SEARCH, Returns the File IDs we care about.
-        //String fullTextIndexSql = "SELECT * FROM FTL_SEARCH(?, ?, 0)"; //lucene
-        String fullTextIndexSql = "SELECT * FROM FT_SEARCH(?, ?, 0)";
-
-        //System.out.println(fullTextIndexSql);
-        List<List<Object>> matchedFileRows = DB.query(fullTextIndexSql, query, LOCAL_SEARCH_RESULTS_LIMIT);
-
-        int fileIDStrOffset = " PUBLIC   FILES  WHERE  FILEID =".length();
-
-        StringBuilder fileIDSet = new StringBuilder("(");
+        List<SmartSearchResult> results = new ArrayList<SmartSearchResult>();
 
-        int numFilesFound = matchedFileRows.size();
-        int i = 0;
+        Set<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return results;
+        }
 
-        for (List<Object> row : matchedFileRows) {
-            String rowStr = (String) row.get(0);
-            fileIDSet.append(rowStr.substring(fileIDStrOffset));
+        List<String> keywords = new ArrayList<String>(tokens);
+        String rarest = getRarestKeyword(keywords);
+        keywords.remove(rarest);
 
-            if (i++ < (numFilesFound - 1)) {
-                fileIDSet.append(",");
-            }
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT t.infoHash, t.torrentName, t.seeds, t.creationTime, t.size, t.vendor, t.torrentURI, t.detailsURL, t.searchEngineId, f.fileName, f.size ");
+        sql.append("FROM (SELECT k.torrentId, k.fileIndex, k.seeds AS rank FROM Keywords k WHERE k.keyword = ?");
+        for (int i = 0; i < keywords.size(); i++) {
+            sql.append(" AND EXISTS (SELECT 1 FROM Keywords k" + i + " WHERE k" + i + ".keyword = ? AND k" + i + ".torrentId = k.torrentId AND k" + i + ".fileIndex = k.fileIndex)");
         }
-        fileIDSet.append(")");
+        sql.append(" ORDER BY rank DESC LIMIT ?) m ");
+        sql.append("JOIN Files f ON f.torrentId = m.torrentId AND f.fileIndex = m.fileIndex ");
+        sql.append("JOIN Torrents t ON t.torrentId = m.torrentId ORDER BY m.rank DESC");
 
-        String sql = "SELECT Torrents.json, Files.json, torrentName, fileName FROM Torrents JOIN Files ON Torrents.torrentId = Files.torrentId WHERE Files.fileId IN " + fileIDSet.toString() + " ORDER BY seeds DESC LIMIT " + LOCAL_SEARCH_RESULTS_LIMIT;
-        //System.out.println(sql);
-        long start = System.currentTimeMillis();
-        List<List<Object>> rows = DB.query(sql);
-        long delta = System.currentTimeMillis() - start;
-        System.out.print("Found " + rows.size() + " local results in " + delta + "ms. ");
+        List<Object> arguments = new ArrayList<Object>();
+        arguments.add(rarest);
+        arguments.addAll(keywords);
+        arguments.add(LOCAL_SEARCH_RESULTS_LIMIT);
 
-        //no query should ever take this long.
-        if (delta > 3000) {
-            System.out.println("\nWarning: Results took too long, there's something wrong with the database, you might want to delete your 'search_db' folder inside the FrostWire preferences folder.");
+        long start = System.currentTimeMillis();
+        List<List<Object>> rows = DB.query(sql.toString(), arguments.toArray());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Found " + rows.size() + " local results in " + (System.currentTimeMillis() - start) + "ms");
         }
 
-        List<SmartSearchResult> results = new ArrayList<SmartSearchResult>();
         Map<Integer, SearchEngine> searchEngines = SearchEngine.getSearchEngineMap();
 
-        // GUBENE
-        String torrentJSON = null;
         for (List<Object> row : rows) {
             try {
-                torrentJSON = (String) row.get(0);
-                String fileJSON = (String) row.get(1);
-
-                TorrentDBPojo torrentPojo = JSON_ENGINE.toObject(torrentJSON, TorrentDBPojo.class);
-
-                if (!searchEngines.get(torrentPojo.searchEngineID).isEnabled()) {
+                TorrentDBPojo torrentPojo = new TorrentDBPojo();
+                torrentPojo.hash = (String) row.get(0);
+                torrentPojo.fileName = (String) row.get(1);
+                torrentPojo.seeds = ((Number) row.get(2)).intValue();
+                torrentPojo.creationTime = ((Number) row.get(3)).longValue();
+                torrentPojo.size = ((Number) row.get(4)).longValue();
+                torrentPojo.vendor = (String) row.get(5);
+                torrentPojo.torrentURI = (String) row.get(6);
+                torrentPojo.torrentDetailsURL = (String) row.get(7);
+                torrentPojo.searchEngineID = ((Number) row.get(8)).intValue();
+
+                SearchEngine searchEngine = searchEngines.get(torrentPojo.searchEngineID);
+                if (searchEngine == null || !searchEngine.isEnabled()) {
                     continue;
                 }
 
-                TorrentFileDBPojo torrentFilePojo = JSON_ENGINE.toObject(fileJSON, TorrentFileDBPojo.class);
+                TorrentFileDBPojo torrentFilePojo = new TorrentFileDBPojo();
+                torrentFilePojo.relativePath = (String) row.get(9);
+                torrentFilePojo.size = ((Number) row.get(10)).longValue();
 
                 results.add(new SmartSearchResult(torrentPojo, torrentFilePojo, query));
                 KNOWN_INFO_HASHES.add(torrentPojo.hash);
             } catch (Throwable e) {
                 // keep going dude
-                LOG.error("Issues with POJO deserialization -> " + torrentJSON, e);
+                LOG.error("Issues reading local search result -> " + row, e);
             }
         }
 
-        System.out.println("Ended up with " + results.size() + " results");
-
         return results;
     }
 
-    public List<DeepSearchResult> deepSearch(byte[] guid, String query) {
-        SearchResultMediator rp = null;
-
-        // Let's wait for enough search results from different search engines.
-        sleep();
-
-        // Wait for enough results or die if the ResultPanel has been closed.
-        int tries = DEEP_SEARCH_ROUNDS;
-
-        boolean scanYouTube = true;
-
-        for (int i = tries; i > 0; i--) {
-            if ((rp = SearchMediator.getResultPanelForGUID(new GUID(guid))) == null) {
-                return null;
-            }
-
-            if (rp.isStopped()) {
-                return null;
-            }
-
-            scanAvailableResults(guid, query, rp, scanYouTube);
-            scanYouTube = false;
-
-            sleep();
+    /**
+     * Returns the keyword with the fewest postings in the KEYWORDS index.
+     * Postings are only counted up to KEYWORD_PROBE_LIMIT, so a common
+     * keyword costs the same to look at as a rare one.
+     */
+    private String getRarestKeyword(List<String> keywords) {
+        String rarest = keywords.get(0);
+        if (keywords.size() == 1) {
+            return rarest;
         }
 
-        // did they close rp? nothing left to do.
-        if (rp == null) {
-            return null;
+        long rarestCount = Long.MAX_VALUE;
+        for (String keyword : keywords) {
+            List<List<Object>> rows = DB.query("SELECT COUNT(*) FROM (SELECT 1 FROM Keywords WHERE keyword = ? LIMIT ?)", keyword, KEYWORD_PROBE_LIMIT);
+            long count = rows.isEmpty() ? Long.MAX_VALUE : ((Number) rows.get(0).get(0)).longValue();
+            if (count < rarestCount) {
+                rarest = keyword;
+                rarestCount = count;
+            }
         }
 
-        return null;
-    }
-
-    public void sleep() {
-        try {
-            Thread.sleep(DEEP_SEARCH_DELAY);
-        } catch (InterruptedException e1) {
-        }
+        return rarest;
     }
 
-    private void scanAvailableResults(byte[] guid, String query, SearchResultMediator rp, boolean scanYouTube) {
-
-        int foundTorrents = 0;
-
-        List<SearchResultDataLine> allData = rp.getAllData();
-        sortAndStripNonTorrents(allData);
-
-        int order = 0;
-
-        for (int i = 0; i < allData.size(); i++) {
-
-            SearchResultDataLine line = allData.get(i);
-            
-            if (!line.getInitializeObject().allowDeepSearch()) {
-                continue;
+    /**
+     * Feeds the deep search with the results just added to a result panel.
+     * Only the new results are looked at, the first ones wait a bit so the
+     * best seeded torrents of every search engine are picked first.
+     * <p>
+     * Called from the Swing thread, the work is done in the deep search
+     * executor.
+     */
+    public void onResults(final byte[] guid, List<SearchResult> results) {
+        final List<SearchResult> candidates = new ArrayList<SearchResult>();
+        for (SearchResult sr : results) {
+            if (sr.allowDeepSearch() && (sr instanceof SearchEngineSearchResult || sr instanceof YouTubePackageSearchResult)) {
+                candidates.add(sr);
             }
+        }
 
-            if (line.getInitializeObject() instanceof SearchEngineSearchResult) {
-                if (foundTorrents >= MAXIMUM_TORRENTS_TO_SCAN) {
-                    if (!scanYouTube) {
-                        return;
-                    }
-                    continue;
-                }
-                
-                foundTorrents++;
-
-                WebSearchResult webSearchResult = line.getSearchResult().getWebSearchResult();
+        if (candidates.isEmpty()) {
+            return;
+        }
 
-                if (!KNOWN_INFO_HASHES.contains(webSearchResult.getHash())) {
-                    KNOWN_INFO_HASHES.add(webSearchResult.getHash());
-                    SearchEngine searchEngine = line.getSearchEngine();
-                    scanDotTorrent(order++, webSearchResult, guid, query, searchEngine);
-                }
-            } else if (line.getInitializeObject() instanceof YouTubePackageSearchResult) {
-                if (!scanYouTube) {
-                    continue;
+        DEEP_SEARCH_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                try {
+                    getDeepSearch(guid).onResults(candidates);
+                } catch (Throwable e) {
+                    LOG.error("Error processing deep search results", e);
                 }
-                WebSearchResult webSearchResult = line.getSearchResult().getWebSearchResult();
-                SearchEngine searchEngine = line.getSearchEngine();
-
-                CrawlYouTubePackage task = new CrawlYouTubePackage(order++, guid, query, (YouTubeSearchResult) webSearchResult, searchEngine);
-                CRAWL_YOUTUBE_LINKS_EXECUTOR.execute(task);
             }
-        }
+        });
     }
 
     /**
-     * Remove all results that are not torrents and sort them by seed (desc. order)
-     * @param allData
+     * Must be called from the deep search executor.
      */
-    private void sortAndStripNonTorrents(List<SearchResultDataLine> allData) {
-        Collections.sort(allData, TORRENT_SEED_TABLELINE_COMPARATOR);
-        Iterator<SearchResultDataLine> iterator = allData.iterator();
-        while (iterator.hasNext()) {
-            SearchResultDataLine next = iterator.next();
-
-            if (!next.getExtension().toLowerCase().contains("torrent") && !next.getExtension().toLowerCase().contains("youtube")) {
-                iterator.remove();
+    private DeepSearch getDeepSearch(byte[] guid) {
+        // forget the searches of the closed or repeated result panels
+        Iterator<DeepSearch> it = DEEP_SEARCHES.values().iterator();
+        while (it.hasNext()) {
+            DeepSearch ds = it.next();
+            SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(ds.guid));
+            if (rp == null || rp.isStopped()) {
+                it.remove();
             }
         }
+
+        GUID key = new GUID(guid);
+        DeepSearch deepSearch = DEEP_SEARCHES.get(key);
+        if (deepSearch == null) {
+            deepSearch = new DeepSearch(guid);
+            DEEP_SEARCHES.put(key, deepSearch);
+            DEEP_SEARCH_EXECUTOR.schedule(deepSearch, DEEP_SEARCH_DELAY, TimeUnit.MILLISECONDS);
+        }
+
+        return deepSearch;
     }
 
     /**
-     * Will decide wether or not to fetch the .torrent from the DHT.
+     * Queues the .torrent download, the queue is shared by every search and
+     * the best seeded torrents go first.
      * 
-     * If it has to download it, it will use a
-     * LocalSearchTorrentDownloaderListener to start scanning, if the torrent
-     * has already been fetched, it will perform an immediate search.
+     * If the torrent has already been fetched it was found by the local
+     * search, nothing else to do.
      * 
      * @param webSearchResult
      * @param searchEngine
      */
-    private void scanDotTorrent(int order, WebSearchResult webSearchResult, byte[] guid, String query, SearchEngine searchEngine) {
-        if (!torrentHasBeenIndexed(webSearchResult.getHash())) {
-            // download the torrent
+    private void scanDotTorrent(DeepSearch deepSearch, WebSearchResult webSearchResult, String query, SearchEngine searchEngine) {
+        SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(deepSearch.guid));
+        if (rp == null || rp.isStopped()) {
+            return;
+        }
 
-            SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(guid));
-            if (rp != null) {
-                rp.incrementSearchCount();
-            }
+        rp.incrementSearchCount();
+
+        DownloadTorrentTask task = new DownloadTorrentTask(DEEP_TASK_ORDER.getAndIncrement(), deepSearch, query, webSearchResult, searchEngine);
+        DOWNLOAD_TORRENTS_EXECUTOR.execute(task);
+    }
+
+    /**
+     * Grows the .torrent downloads while they are quick and there is work
+     * waiting, and shrinks them when they slow down, most likely because the
+     * connection is saturated.
+     */
+    private synchronized void adaptDownloadConcurrency(long latency) {
+        torrentDownloadLatency = torrentDownloadLatency == 0 ? latency : (torrentDownloadLatency * 7 + latency) / 8;
 
-            DownloadTorrentTask task = new DownloadTorrentTask(order, guid, query, webSearchResult, searchEngine);
-            DOWNLOAD_TORRENTS_EXECUTOR.execute(task);
-        } else {
-            //System.out.println(webSearchResult.getHash() + " indexed");
+        int size = DOWNLOAD_TORRENTS_EXECUTOR.getCorePoolSize();
+
+        if (torrentDownloadLatency < TORRENT_DOWNLOAD_TARGET_LATENCY && size < MAX_TORRENT_DOWNLOADS && !DOWNLOAD_TORRENTS_EXECUTOR.getQueue().isEmpty()) {
+            DOWNLOAD_TORRENTS_EXECUTOR.setMaximumPoolSize(size + 1);
+            DOWNLOAD_TORRENTS_EXECUTOR.setCorePoolSize(size + 1);
+        } else if (torrentDownloadLatency > 3 * TORRENT_DOWNLOAD_TARGET_LATENCY && size > MIN_TORRENT_DOWNLOADS) {
+            DOWNLOAD_TORRENTS_EXECUTOR.setCorePoolSize(size - 1);
+            DOWNLOAD_TORRENTS_EXECUTOR.setMaximumPoolSize(size - 1);
         }
     }
 
     private boolean torrentHasBeenIndexed(String infoHash) {
-        List<List<Object>> rows = DB.query("SELECT indexed FROM Torrents WHERE infoHash LIKE ?", infoHash);
+        InfoHashBloomFilter indexedInfoHashes = INDEXED_INFO_HASHES;
+        if (indexedInfoHashes != null && !indexedInfoHashes.mightContain(infoHash)) {
+            return false;
+        }
+
+        List<List<Object>> rows = DB.query("SELECT indexed FROM Torrents WHERE infoHash = ?", infoHash);
         return rows.size() > 0 && (Boolean) rows.get(0).get(0);
     }
 
-    private void indexTorrent(WebSearchResult searchResult, TOTorrent theTorrent, SearchEngine searchEngine) {
+    private void indexTorrent(WebSearchResult searchResult, TorrentFileDBPojo[] tfPojos, SearchEngine searchEngine) {
         TorrentDBPojo torrentPojo = new TorrentDBPojo();
         torrentPojo.creationTime = searchResult.getCreationTime();
         torrentPojo.fileName = searchResult.getFileName();
@@ -387,19 +477,122 @@ public class LocalSearchEngine {
         torrentPojo.torrentURI = searchResult.getTorrentURI();
         torrentPojo.vendor = searchResult.getSource();
 
-        TOTorrentFile[] files = theTorrent.getFiles();
-        TorrentFileDBPojo[] tfPojos = new TorrentFileDBPojo[files.length];
+        if (INDEX_CLOSED) {
+            return;
+        }
+
+        INDEX_TORRENT_QUEUE.offer(new IndexTorrentElement(torrentPojo, tfPojos));
+
+        // don't wait for the next flush if there is already a full batch
+        if (INDEX_PENDING_FILES.addAndGet(Math.max(1, tfPojos.length)) >= INDEX_BATCH_SIZE && INDEX_FLUSH_REQUESTED.compareAndSet(false, true)) {
+            INDEX_TORRENTS_EXECUTOR.execute(INDEX_TORRENT_TASK);
+        }
+    }
+
+    /**
+     * Reads the paths and sizes of the files of a .torrent through a
+     * BDecoderView, without copying its piece table. The paths are decoded
+     * the same way as TOTorrentFile.getRelativePath().
+     *
+     * @return the files, or null if the torrent is malformed
+     */
+    private static TorrentFileDBPojo[] readTorrentFiles(File torrentFile) throws IOException {
+        Map<String, Object> metaData = BDecoderView.decode(torrentFile);
+
+        if (!(metaData.get("info") instanceof Map)) {
+            return malformedTorrent(torrentFile, "no info dictionary");
+        }
+        Map<?, ?> info = (Map<?, ?>) metaData.get("info");
+
+        Object encodingBytes = metaData.get("encoding");
+        String encoding = encodingBytes instanceof byte[] ? new String((byte[]) encodingBytes, "UTF-8") : null;
+
+        boolean utf8Keys = info.containsKey("name.utf-8") && (encoding == null || encoding.equals(TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS));
+
+        if (info.containsKey("length")) {
+            Object length = info.get("length");
+            String relativePath = getRelativePath(Collections.singletonList(info.get(utf8Keys ? "name.utf-8" : "name")), getTorrentCharset(utf8Keys, encoding));
+            if (!(length instanceof Long) || relativePath == null) {
+                return malformedTorrent(torrentFile, "bad length or name");
+            }
 
-        for (int i = 0; i < files.length; i++) {
-            TOTorrentFile f = files[i];
             TorrentFileDBPojo tfPojo = new TorrentFileDBPojo();
-            tfPojo.relativePath = f.getRelativePath();
-            tfPojo.size = f.getLength();
+            tfPojo.relativePath = relativePath;
+            tfPojo.size = (Long) length;
+            return new TorrentFileDBPojo[] { tfPojo };
+        }
+
+        if (!(info.get("files") instanceof List)) {
+            return malformedTorrent(torrentFile, "no length and no files list");
+        }
+        List<?> files = (List<?>) info.get("files");
+
+        for (int i = 0; i < files.size(); i++) {
+            if (!(files.get(i) instanceof Map)) {
+                return malformedTorrent(torrentFile, "file " + i + " is not a dictionary");
+            }
+            utf8Keys = utf8Keys && ((Map<?, ?>) files.get(i)).containsKey("path.utf-8");
+        }
+
+        Charset charset = getTorrentCharset(utf8Keys, encoding);
+
+        TorrentFileDBPojo[] tfPojos = new TorrentFileDBPojo[files.size()];
+
+        for (int i = 0; i < tfPojos.length; i++) {
+            Map<?, ?> file = (Map<?, ?>) files.get(i);
+            Object length = file.get("length");
+            Object path = file.get(utf8Keys ? "path.utf-8" : "path");
+            String relativePath = path instanceof List ? getRelativePath((List<?>) path, charset) : null;
+            if (!(length instanceof Long) || relativePath == null) {
+                return malformedTorrent(torrentFile, "bad length or path of file " + i);
+            }
+
+            TorrentFileDBPojo tfPojo = new TorrentFileDBPojo();
+            tfPojo.relativePath = relativePath;
+            tfPojo.size = (Long) length;
             tfPojos[i] = tfPojo;
         }
 
-        INDEX_TORRENT_QUEUE.offer(new IndexTorrentElement(torrentPojo, tfPojos));
-        INDEX_TORRENTS_EXECUTOR.execute(new IndexTorrentTask());
+        return tfPojos;
+    }
+
+    private static TorrentFileDBPojo[] malformedTorrent(File torrentFile, String reason) {
+        LOG.warn("Skipping malformed torrent " + torrentFile + ": " + reason);
+        return null;
+    }
+
+    private static Charset getTorrentCharset(boolean utf8Keys, String encoding) {
+        if (!utf8Keys && encoding != null && !encoding.equals(TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS)) {
+            try {
+                return Charset.forName(encoding);
+            } catch (Throwable e) {
+                // unknown encoding, same fallback as the torrent
+            }
+        }
+        return Charset.forName("UTF-8");
+    }
+
+    /**
+     * @return the path, or null if the components are not all byte strings
+     */
+    private static String getRelativePath(List<?> components, Charset charset) {
+        if (components.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < components.size(); i++) {
+            if (!(components.get(i) instanceof byte[])) {
+                return null;
+            }
+            if (i > 0) {
+                sb.append(File.separator);
+            }
+            sb.append(FileUtil.convertOSSpecificChars(new String((byte[]) components.get(i), charset), i != components.size() - 1));
+        }
+
+        return sb.toString();
     }
 
     private class LocalSearchTorrentDownloaderListener implements TorrentDownloaderCallBackInterface {
@@ -429,12 +622,14 @@ public class LocalSearchEngine {
             if (state == TorrentDownloader.STATE_FINISHED && finished.compareAndSet(false, true)) {
                 try {
                     File torrentFile = inf.getFile();
-                    TOTorrent theTorrent = TorrentUtils.readFromFile(torrentFile, false);
+                    TorrentFileDBPojo[] files = readTorrentFiles(torrentFile);
 
-                    // search right away on this torrent.
-                    matchResults(theTorrent);
+                    if (files != null) {
+                        // search right away on this torrent.
+                        matchResults(files);
 
-                    indexTorrent(webSearchResult, theTorrent, searchEngine);
+                        indexTorrent(webSearchResult, files, searchEngine);
+                    }
 
                     torrentFile.delete();
                 } catch (Throwable e) {
@@ -458,13 +653,13 @@ public class LocalSearchEngine {
             }
         }
 
-        private void matchResults(TOTorrent theTorrent) {
+        private void matchResults(TorrentFileDBPojo[] fs) {
 
             if (!searchEngine.isEnabled()) {
                 return;
             }
 
-            final SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(guid));
+            SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(guid));
 
             // user closed the tab.
             if (rp == null || rp.isStopped()) {
@@ -475,17 +670,16 @@ public class LocalSearchEngine {
 
             SearchFilter filter = SearchMediator.getSearchFilterFactory().createFilter();
 
-            TOTorrentFile[] fs = theTorrent.getFiles();
             for (int i = 0; i < fs.length; i++) {
                 try {
-                    final DeepSearchResult result = new DeepSearchResult(fs[i], webSearchResult, searchEngine, query);
+                    DeepSearchResult result = new DeepSearchResult(fs[i].relativePath, fs[i].size, webSearchResult, searchEngine, query);
 
                     if (!filter.allow(result))
                         continue;
 
                     boolean foundMatch = true;
 
-                    String keywords = stringSanitize(result.getFileName() + " " + fs[i].getRelativePath()).toLowerCase();
+                    String keywords = stringSanitize(result.getFileName() + " " + fs[i].relativePath).toLowerCase();
 
                     for (String token : tokens) {
                         if (!keywords.contains(token)) {
@@ -495,11 +689,7 @@ public class LocalSearchEngine {
                     }
 
                     if (foundMatch) {
-                        GUIMediator.safeInvokeAndWait(new Runnable() {
-                            public void run() {
-                                SearchMediator.getSearchResultDisplayer().addQueryResult(guid, result, rp);
-                            }
-                        });
+                        SearchMediator.getSearchResultDisplayer().queueQueryResult(guid, result, rp);
                     }
                 } catch (Throwable e) {
                     LOG.error("Error analysing torrent file", e);
@@ -508,7 +698,34 @@ public class LocalSearchEngine {
         }
     }
 
+    /**
+     * Stops taking torrents to index and writes the queued ones before saving
+     * INDEXED_INFO_HASHES, so the saved filter and the database agree.
+     */
     public void shutdown() {
+        INDEX_CLOSED = true;
+
+        INDEX_TORRENTS_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                INDEX_TORRENT_TASK.drain();
+            }
+        });
+        INDEX_TORRENTS_EXECUTOR.shutdown();
+
+        try {
+            if (!INDEX_TORRENTS_EXECUTOR.awaitTermination(INDEX_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Torrent index not flushed on shutdown, " + INDEX_TORRENT_QUEUE.size() + " torrents left");
+                INDEX_TORRENTS_EXECUTOR.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        InfoHashBloomFilter indexedInfoHashes = INDEXED_INFO_HASHES;
+        if (indexedInfoHashes != null) {
+            indexedInfoHashes.save(new File(DB.getDatabaseFile(), INDEXED_INFO_HASHES_FILE));
+        }
+
         DB.close();
     }
 
@@ -525,23 +742,85 @@ public class LocalSearchEngine {
     public void resetDB() {
         DB.reset();
         KNOWN_INFO_HASHES.clear();
+        INDEXED_INFO_HASHES = new InfoHashBloomFilter();
     }
 
     private interface DeepTask extends Runnable, Comparable<DeepTask> {
         public int getOrder();
+
+        public int getSeeds();
+    }
+
+    /**
+     * The deep search of a single result panel. Results arriving before the
+     * start delay are kept and scanned all at once, the rest as they come.
+     */
+    private class DeepSearch implements Runnable {
+
+        public final byte[] guid;
+
+        /**
+         * Number of .torrent files downloaded for this search.
+         */
+        public final AtomicInteger scannedTorrents = new AtomicInteger();
+
+        private List<SearchResult> pending = new ArrayList<SearchResult>();
+
+        public DeepSearch(byte[] guid) {
+            this.guid = guid;
+        }
+
+        /**
+         * The start delay is over.
+         */
+        @Override
+        public void run() {
+            try {
+                List<SearchResult> results = pending;
+                pending = null;
+                scan(results);
+            } catch (Throwable e) {
+                LOG.error("Error starting deep search", e);
+            }
+        }
+
+        public void onResults(List<SearchResult> results) {
+            if (pending != null) {
+                pending.addAll(results);
+            } else {
+                scan(results);
+            }
+        }
+
+        private void scan(List<SearchResult> results) {
+            for (SearchResult sr : results) {
+                if (sr instanceof SearchEngineSearchResult) {
+                    if (scannedTorrents.get() >= MAXIMUM_TORRENTS_TO_SCAN || KNOWN_INFO_HASHES.contains(sr.getHash())) {
+                        continue;
+                    }
+
+                    scanDotTorrent(this, sr.getWebSearchResult(), sr.getQuery(), sr.getSearchEngine());
+                } else if (sr instanceof YouTubePackageSearchResult) {
+                    CrawlYouTubePackage task = new CrawlYouTubePackage(DEEP_TASK_ORDER.getAndIncrement(), guid, sr.getQuery(), (YouTubeSearchResult) sr.getWebSearchResult(), sr.getSearchEngine());
+                    CRAWL_YOUTUBE_LINKS_EXECUTOR.execute(task);
+                }
+            }
+        }
     }
 
     private class DownloadTorrentTask implements DeepTask {
 
         private final int order;
+        private final DeepSearch deepSearch;
         private final byte[] guid;
         private final String query;
         private final SearchEngine searchEngine;
         private final WebSearchResult webSearchResult;
 
-        public DownloadTorrentTask(int order, byte[] guid, String query, WebSearchResult webSearchResult, SearchEngine searchEngine) {
+        public DownloadTorrentTask(int order, DeepSearch deepSearch, String query, WebSearchResult webSearchResult, SearchEngine searchEngine) {
             this.order = order;
-            this.guid = guid;
+            this.deepSearch = deepSearch;
+            this.guid = deepSearch.guid;
             this.query = query;
             this.searchEngine = searchEngine;
             this.webSearchResult = webSearchResult;
@@ -552,8 +831,19 @@ public class LocalSearchEngine {
             return order;
         }
 
+        @Override
+        public int getSeeds() {
+            return webSearchResult.getSeeds();
+        }
+
+        /**
+         * Best seeded first, of any search.
+         */
         @Override
         public int compareTo(DeepTask o) {
+            if (getSeeds() != o.getSeeds()) {
+                return getSeeds() > o.getSeeds() ? -1 : 1;
+            }
             return Integer.valueOf(getOrder()).compareTo(Integer.valueOf(o.getOrder()));
         }
 
@@ -567,10 +857,20 @@ public class LocalSearchEngine {
                 return;
             }
 
+            // the best seeded torrents of this search are already scanned, or another search got this one
+            if (deepSearch.scannedTorrents.get() >= MAXIMUM_TORRENTS_TO_SCAN || !KNOWN_INFO_HASHES.add(webSearchResult.getHash()) || torrentHasBeenIndexed(webSearchResult.getHash())) {
+                rp.decrementSearchCount();
+                return;
+            }
+
+            deepSearch.scannedTorrents.incrementAndGet();
+
             String saveDir = SearchSettings.SMART_SEARCH_DATABASE_FOLDER.getValue().getAbsolutePath();
 
             CountDownLatch finishSignal = new CountDownLatch(1);
 
+            long start = System.currentTimeMillis();
+
             TorrentDownloaderFactory.create(new LocalSearchTorrentDownloaderListener(guid, query, webSearchResult, searchEngine, finishSignal), webSearchResult.getTorrentURI(), webSearchResult.getDetailsUrl(), saveDir).start();
 
             try {
@@ -578,6 +878,8 @@ public class LocalSearchEngine {
             } catch (InterruptedException e) {
                 LOG.error("Error during await in DownloadTorrentTask", e);
             }
+
+            adaptDownloadConcurrency(System.currentTimeMillis() - start);
         }
     }
 
@@ -602,6 +904,11 @@ public class LocalSearchEngine {
             return order;
         }
 
+        @Override
+        public int getSeeds() {
+            return webSearchResult.getSeeds();
+        }
+
         @Override
         public int compareTo(DeepTask o) {
             return Integer.valueOf(getOrder()).compareTo(Integer.valueOf(o.getOrder()));
@@ -700,7 +1007,7 @@ public class LocalSearchEngine {
                 return;
             }
 
-            final SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(guid));
+            SearchResultMediator rp = SearchMediator.getResultPanelForGUID(new GUID(guid));
 
             // user closed the tab.
             if (rp == null || rp.isStopped()) {
@@ -713,7 +1020,7 @@ public class LocalSearchEngine {
 
             for (FilePackage p : packages) {
                 try {
-                    final YouTubePackageItemSearchResult result = new YouTubePackageItemSearchResult(webSearchResult, p, searchEngine, query);
+                    YouTubePackageItemSearchResult result = new YouTubePackageItemSearchResult(webSearchResult, p, searchEngine, query);
 
                     //youtube mp3 filter
                     if (p.getChildren().get(0).getFileOutput().endsWith(".mp3")) {
@@ -723,11 +1030,7 @@ public class LocalSearchEngine {
                     if (!filter.allow(result))
                         continue;
 
-                    GUIMediator.safeInvokeAndWait(new Runnable() {
-                        public void run() {
-                            SearchMediator.getSearchResultDisplayer().addQueryResult(guid, result, rp);
-                        }
-                    });
+                    SearchMediator.getSearchResultDisplayer().queueQueryResult(guid, result, rp);
                 } catch (Throwable e) {
                     LOG.error("Error analysing youtube package", e);
                 }
@@ -735,65 +1038,147 @@ public class LocalSearchEngine {
         }
     }
 
+    /**
+     * Writes the queued torrents in batches, every batch in a single
+     * transaction, so the keywords index is updated once per batch and not
+     * once per file.
+     */
     private class IndexTorrentTask implements Runnable {
 
         @Override
         public void run() {
             try {
-                int n = 0;
-
-                ArrayList<IndexTorrentElement> list = new ArrayList<IndexTorrentElement>();
-                while (n < 1000) {
-                    IndexTorrentElement e = INDEX_TORRENT_QUEUE.poll();
-                    if (e != null) {
-                        list.add(e);
-                        n += e.files.length;
-                    } else {
-                        break;
-                    }
-                }
+                INDEX_FLUSH_REQUESTED.set(false);
 
-                indexElements(list);
+                List<IndexTorrentElement> list;
+                do {
+                    list = pollElements();
+                    if (!list.isEmpty()) {
+                        indexElements(list);
+                    }
+                } while (!list.isEmpty() && INDEX_PENDING_FILES.get() >= INDEX_BATCH_SIZE);
+            } catch (Throwable e) {
+                LOG.error("General error in torrent index task", e);
+            }
+        }
 
-                if (n > 0) {
-                    Thread.sleep(1000);
+        /**
+         * Writes everything in the queue, full batch or not.
+         */
+        public void drain() {
+            try {
+                List<IndexTorrentElement> list;
+                while (!(list = pollElements()).isEmpty()) {
+                    indexElements(list);
                 }
             } catch (Throwable e) {
-                LOG.error("General error in torrent index task", e);
+                LOG.error("Error draining torrent index queue", e);
+            }
+        }
+
+        /**
+         * Takes whole torrents from the queue until there are enough files for
+         * a batch. A torrent bigger than a batch goes alone.
+         */
+        private List<IndexTorrentElement> pollElements() {
+            List<IndexTorrentElement> list = new ArrayList<IndexTorrentElement>();
+
+            int n = 0;
+            while (n < INDEX_BATCH_SIZE) {
+                IndexTorrentElement e = INDEX_TORRENT_QUEUE.poll();
+                if (e != null) {
+                    list.add(e);
+                    n += Math.max(1, e.files.length);
+                } else {
+                    break;
+                }
             }
+
+            INDEX_PENDING_FILES.addAndGet(-n);
+
+            return list;
         }
 
-        private void indexElements(ArrayList<IndexTorrentElement> list) {
-            // disable lucene indexing
-            FullTextLucene2.enableIndexing("FILES", false);
-            for (int i = 0; i < list.size(); i++) {
-                indexElement(list.get(i), i == list.size() - 1);
+        private void indexElements(final List<IndexTorrentElement> list) {
+            boolean committed = DB.transaction(new SmartSearchDB.TransactionTask() {
+                @Override
+                public void run(SmartSearchDB.Transaction transaction) throws SQLException {
+                    for (IndexTorrentElement e : list) {
+                        indexElement(transaction, e);
+                    }
+                }
+            });
+
+            if (committed) {
+                InfoHashBloomFilter indexedInfoHashes = INDEXED_INFO_HASHES;
+                if (indexedInfoHashes != null) {
+                    for (IndexTorrentElement e : list) {
+                        indexedInfoHashes.add(e.torrent.hash);
+                    }
+                }
+            } else {
+                LOG.warn("Unable to index " + list.size() + " torrents");
             }
         }
 
-        private void indexElement(IndexTorrentElement indexTorrentElement, boolean enableIndexing) {
+        /**
+         * The torrent is inserted as indexed, the transaction makes sure it
+         * never shows up without its files.
+         */
+        private void indexElement(SmartSearchDB.Transaction transaction, IndexTorrentElement indexTorrentElement) throws SQLException {
             TorrentDBPojo torrent = indexTorrentElement.torrent;
             TorrentFileDBPojo[] files = indexTorrentElement.files;
 
-            String torrentJSON = JSON_ENGINE.toJson(torrent);
+            int torrentID = transaction.insert("INSERT INTO Torrents (infoHash, timestamp, torrentName, seeds, indexed, creationTime, size, vendor, torrentURI, detailsURL, searchEngineId) VALUES (?, ?, LEFT(?, 10000), ?, ?, ?, ?, LEFT(?, 500), LEFT(?, 10000), LEFT(?, 10000), ?)", torrent.hash, System.currentTimeMillis(),
+                    torrent.fileName, torrent.seeds, true, torrent.creationTime, torrent.size, torrent.vendor, torrent.torrentURI, torrent.torrentDetailsURL, torrent.searchEngineID);
 
-            int torrentID = DB.insert("INSERT INTO Torrents (infoHash, timestamp, torrentName, seeds, indexed, json) VALUES (?, ?, LEFT(?, 10000), ?, ?, ?)", torrent.hash, System.currentTimeMillis(), torrent.fileName.toLowerCase(), torrent.seeds, false, torrentJSON);
+            Set<String> torrentKeywords = tokenize(torrent.fileName);
 
             for (int i = 0; i < files.length; i++) {
-                if (enableIndexing && i == indexTorrentElement.files.length - 1) {
-                    // enable lucene indexing
-                    FullTextLucene2.enableIndexing("FILES", true);
-                }
-
                 TorrentFileDBPojo file = files[i];
 
-                String fileJSON = JSON_ENGINE.toJson(file);
-                String keywords = stringSanitize(torrent.fileName + " " + file.relativePath).toLowerCase();
+                transaction.addBatch("INSERT INTO Files (torrentId, fileIndex, fileName, size) VALUES (?, ?, LEFT(?, 10000), ?)", torrentID, i, file.relativePath, file.size);
 
-                DB.insert("INSERT INTO Files (torrentId, fileName, json, keywords) VALUES (?, LEFT(?, 10000), ?, ?)", torrentID, file.relativePath, fileJSON, keywords);
+                Set<String> keywords = new HashSet<String>(torrentKeywords);
+                keywords.addAll(tokenize(file.relativePath));
+
+                for (String keyword : keywords) {
+                    transaction.addBatch("INSERT INTO Keywords (keyword, torrentId, fileIndex, seeds) VALUES (?, ?, ?, ?)", keyword, torrentID, i, torrent.seeds);
+                }
             }
+        }
+    }
+
+    /**
+     * Reads every info hash of the database in pages, the filter is only
+     * published when complete.
+     */
+    private class RebuildIndexedInfoHashesTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                InfoHashBloomFilter indexedInfoHashes = new InfoHashBloomFilter();
+
+                int lastTorrentId = -1;
+                List<List<Object>> rows;
+                do {
+                    rows = DB.query("SELECT torrentId, infoHash FROM Torrents WHERE torrentId > ? ORDER BY torrentId LIMIT ?", lastTorrentId, INDEXED_INFO_HASHES_REBUILD_PAGE);
+                    for (List<Object> row : rows) {
+                        lastTorrentId = ((Number) row.get(0)).intValue();
+                        String infoHash = (String) row.get(1);
+                        if (infoHash != null) {
+                            indexedInfoHashes.add(infoHash);
+                        }
+                    }
+                } while (rows.size() == INDEXED_INFO_HASHES_REBUILD_PAGE);
 
-            DB.update("UPDATE Torrents SET indexed=? WHERE torrentId=?", true, torrentID);
+                if (INDEXED_INFO_HASHES == null) {
+                    INDEXED_INFO_HASHES = indexedInfoHashes;
+                }
+            } catch (Throwable e) {
+                LOG.error("Error rebuilding the indexed info hashes filter", e);
+            }
         }
     }
 
@@ -16,6 +16,7 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
@@ -164,6 +165,42 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, SearchRe
         return addedAt;
     }
     
+    /**
+     * Override default so new ones get added to the end
+     */
+    public int addDataLines(List<SearchResultDataLine> lines) {
+        return addDataLines(lines, getRowCount());
+    }
+
+    /**
+     * Maintains the indexes HashMap & counters for bulk adds.
+     */
+    public int addDataLines(List<SearchResultDataLine> lines, int row) {
+        countAdded(lines);
+        int addedAt = super.addDataLines(lines, row);
+        if (addedAt != -1)
+            remapIndexes(addedAt);
+        return addedAt;
+    }
+
+    /**
+     * Maintains the indexes HashMap & counters for bulk sorted adds.
+     */
+    public int addDataLinesSorted(List<SearchResultDataLine> lines) {
+        countAdded(lines);
+        int addedAt = super.addDataLinesSorted(lines);
+        if (addedAt != -1)
+            remapIndexes(addedAt);
+        return addedAt;
+    }
+
+    private void countAdded(List<SearchResultDataLine> lines) {
+        for (SearchResultDataLine tl : lines) {
+            _numSources += tl.getSeeds();
+            _numResults += 1;
+        }
+    }
+
     /**
      * Gets the row this DataLine is at.
      */
@@ -27,6 +27,10 @@ import javax.swing.event.ChangeListener;
 import org.limewire.util.I18NConvert;
 
 import com.frostwire.AzureusStarter;
+import com.frostwire.HttpFetcher;
+import com.frostwire.bittorrent.websearch.StreamingWebSearchPerformer;
+import com.frostwire.bittorrent.websearch.WebSearchListener;
+import com.frostwire.bittorrent.websearch.WebSearchPerformer;
 import com.frostwire.bittorrent.websearch.WebSearchResult;
 import com.frostwire.bittorrent.websearch.soundcloud.SoundcloudTrackSearchResult;
 import com.frostwire.gui.filters.SearchFilter;
@@ -267,93 +271,102 @@ public final class SearchMediator {
     /**
      * Does the actual search.
      * 
-     * 
-     * 
+     * Every enabled engine is queried through the shared {@link SearchScheduler},
+     * which bounds the number of threads and cancels the requests once the
+     * result panel is closed or the query deadline expires.
      */
     private static void doSearch(final byte[] guid, final SearchInformation info) {
         final String query = info.getQuery();
 
-        List<SearchEngine> searchEngines = SearchEngine.getSearchEngines();
-
-        for (final SearchEngine searchEngine : searchEngines) {
+        List<SearchEngine> searchEngines = new ArrayList<SearchEngine>();
+        for (SearchEngine searchEngine : SearchEngine.getSearchEngines()) {
             if (searchEngine.isEnabled()) {
-                Thread t = new Thread(new Runnable() {
-                    public void run() {
-
-                        final SearchResultMediator rp = getResultPanelForGUID(new GUID(guid));
-                        if (rp != null && !rp.isStopped()) {
-                            rp.incrementSearchCount();
-                            List<WebSearchResult> webResults = searchEngine.getPerformer().search(query);
-
-                            if (webResults.size() > 0) {
-                                final List<SearchResult> results = normalizeWebResults(webResults, searchEngine, info);
-
-                                GUIMediator.safeInvokeAndWait(new Runnable() {
-                                    public void run() {
-                                        try {
-                                            SearchFilter filter = getSearchFilterFactory().createFilter();
-                                            for (SearchResult sr : results) {
-                                                if (filter.allow(sr)) {
-                                                    getSearchResultDisplayer().addQueryResult(guid, sr, rp);
-                                                }
-                                            }
-                                        } catch (Exception e) {
-                                            e.printStackTrace();
-                                        } finally {
-                                            SearchResultMediator trp = getResultPanelForGUID(new GUID(guid));
-                                            if (trp != null) {
-                                                trp.decrementSearchCount();
-                                            }
-                                        }
-                                    }
-                                });
-                            }
-                        }
-                    }
-                });
-                t.setDaemon(true);
-                t.start();
+                searchEngines.add(searchEngine);
             }
         }
 
+        SearchScheduler.instance().schedule(guid, searchEngines, new SearchScheduler.EngineTask() {
+            public void run(SearchScheduler.SearchQuery searchQuery, SearchEngine searchEngine, final SearchResultMediator rp) {
+                rp.incrementSearchCount();
+                try {
+                    WebSearchPerformer performer = searchEngine.getPerformer();
+                    if (performer instanceof StreamingWebSearchPerformer) {
+                        streamingSearch((StreamingWebSearchPerformer) performer, searchQuery, searchEngine, guid, info, rp);
+                    } else {
+                        search(performer, searchQuery, searchEngine, guid, info, rp);
+                    }
+                } finally {
+                    rp.decrementSearchCount();
+                }
+            }
+        });
+
         //start local search.
         doLocalSearch(guid, query, info);
     }
 
+    private static void search(WebSearchPerformer performer, SearchScheduler.SearchQuery searchQuery, SearchEngine searchEngine, byte[] guid, SearchInformation info, SearchResultMediator rp) {
+        List<WebSearchResult> webResults = performer.search(info.getQuery());
+
+        if (webResults.size() > 0 && !searchQuery.isCancelled()) {
+            List<SearchResult> results = normalizeWebResults(webResults, searchEngine, info);
+
+            SearchFilter filter = getSearchFilterFactory().createFilter();
+            for (SearchResult sr : results) {
+                if (filter.allow(sr)) {
+                    getSearchResultDisplayer().queueQueryResult(guid, sr, rp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Posts every result to the result panel as soon as the performer parses it,
+     * so the first rows show up before slow engines finish.
+     */
+    private static void streamingSearch(StreamingWebSearchPerformer performer, final SearchScheduler.SearchQuery searchQuery, final SearchEngine searchEngine, final byte[] guid, final SearchInformation info, final SearchResultMediator rp) {
+        final SearchFilter filter = getSearchFilterFactory().createFilter();
+
+        performer.search(info.getQuery(), new WebSearchListener() {
+            public void onResult(WebSearchResult webResult) {
+                if (searchQuery.isCancelled()) {
+                    // we are on the thread reading the response, this makes the next read
+                    // fail and drops the connection instead of downloading the rest
+                    HttpFetcher.abort(Thread.currentThread());
+                    return;
+                }
+
+                SearchResult sr = normalizeWebResult(webResult, searchEngine, info);
+
+                if (filter.allow(sr)) {
+                    getSearchResultDisplayer().queueQueryResult(guid, sr, rp);
+                }
+            }
+        });
+    }
+
     public static void doLocalSearch(final byte[] guid, final String query, final SearchInformation info) {
         Thread t = new Thread(new Runnable() {
             public void run() {
 
-                final SearchResultMediator rp = getResultPanelForGUID(new GUID(guid));
+                SearchResultMediator rp = getResultPanelForGUID(new GUID(guid));
                 if (rp != null && !rp.isStopped()) {
                     rp.incrementSearchCount();
-                    final List<SmartSearchResult> localResults = LocalSearchEngine.instance().search(query);
-
-                    final SearchFilter filter = getSearchFilterFactory().createFilter();
-
-                    if (localResults.size() > 0) {
-                        GUIMediator.safeInvokeLater(new Runnable() {
-                            public void run() {
-                                try {
-                                    for (SearchResult sr : localResults) {
-                                        if (filter.allow(sr)) {
-                                            getSearchResultDisplayer().addQueryResult(guid, sr, rp);
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                } finally {
-                                    SearchResultMediator trp = getResultPanelForGUID(new GUID(guid));
-                                    if (trp != null) {
-                                        trp.decrementSearchCount();
-                                    }
-                                }
+                    try {
+                        List<SmartSearchResult> localResults = LocalSearchEngine.instance().search(query);
+
+                        SearchFilter filter = getSearchFilterFactory().createFilter();
+                        for (SearchResult sr : localResults) {
+                            if (filter.allow(sr)) {
+                                getSearchResultDisplayer().queueQueryResult(guid, sr, rp);
                             }
-                        });
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        rp.decrementSearchCount();
                     }
                 }
-
-                LocalSearchEngine.instance().deepSearch(guid, query);
             }
         });
         t.setDaemon(true);
@@ -365,23 +378,22 @@ public final class SearchMediator {
         List<SearchResult> result = new ArrayList<SearchResult>();
 
         for (WebSearchResult webResult : webResults) {
-
-            SearchResult sr = null;
-
-            if (webResult instanceof YouTubeSearchResult) {
-                sr = new YouTubePackageSearchResult((YouTubeSearchResult) webResult, engine, info.getQuery());
-            } else if (webResult instanceof SoundcloudTrackSearchResult) {
-                sr = new SoundcloudSearchResult((SoundcloudTrackSearchResult)webResult, engine, info.getQuery());
-            } else {
-                sr = new SearchEngineSearchResult(webResult, engine, info.getQuery());
-            }
-
-            result.add(sr);
+            result.add(normalizeWebResult(webResult, engine, info));
         }
 
         return result;
     }
 
+    private static SearchResult normalizeWebResult(WebSearchResult webResult, SearchEngine engine, SearchInformation info) {
+        if (webResult instanceof YouTubeSearchResult) {
+            return new YouTubePackageSearchResult((YouTubeSearchResult) webResult, engine, info.getQuery());
+        } else if (webResult instanceof SoundcloudTrackSearchResult) {
+            return new SoundcloudSearchResult((SoundcloudTrackSearchResult) webResult, engine, info.getQuery());
+        } else {
+            return new SearchEngineSearchResult(webResult, engine, info.getQuery());
+        }
+    }
+
     /**
      * Adds a single result tab for the specified GUID, type,
      * standard query string, and XML query string.
@@ -0,0 +1,135 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+
+import com.limegroup.gnutella.GUID;
+
+/**
+ * Buffers the results coming from every search thread and adds them to the
+ * result panels in coalesced chunks on the event dispatch thread.
+ * <p>
+ * Producers never block waiting for the UI, and every flush does a single
+ * model update and a single tab title update per result panel.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SearchResultBatcher {
+
+    /**
+     * Time between flushes, roughly a frame of the UI.
+     */
+    private static final int FLUSH_DELAY = 100;
+
+    /**
+     * Maximum number of results added in a single flush, to keep the event
+     * dispatch thread responsive. The rest goes in the next flush.
+     */
+    private static final int MAX_RESULTS_PER_FLUSH = 1000;
+
+    private final SearchResultDisplayer displayer;
+    private final Queue<PendingResult> pending;
+    private final AtomicBoolean scheduled;
+    private final Timer timer;
+
+    public SearchResultBatcher(SearchResultDisplayer displayer) {
+        this.displayer = displayer;
+        this.pending = new ConcurrentLinkedQueue<PendingResult>();
+        this.scheduled = new AtomicBoolean(false);
+
+        this.timer = new Timer(FLUSH_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Queues the result to be added to the result panel. Can be called from
+     * any thread.
+     */
+    public void add(byte[] guid, SearchResult sr, SearchResultMediator rp) {
+        pending.offer(new PendingResult(guid, sr, rp));
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+    }
+
+    private void flush() {
+        scheduled.set(false);
+
+        Map<SearchResultMediator, List<SearchResult>> chunks = new LinkedHashMap<SearchResultMediator, List<SearchResult>>();
+
+        PendingResult p;
+        int n = 0;
+        while (n < MAX_RESULTS_PER_FLUSH && (p = pending.poll()) != null) {
+            // the search was stopped or repeated with a new guid
+            if (p.rp.isStopped() || !p.rp.matches(new GUID(p.guid))) {
+                continue;
+            }
+
+            List<SearchResult> chunk = chunks.get(p.rp);
+            if (chunk == null) {
+                chunk = new ArrayList<SearchResult>();
+                chunks.put(p.rp, chunk);
+            }
+            chunk.add(p.sr);
+            n++;
+        }
+
+        for (Map.Entry<SearchResultMediator, List<SearchResult>> e : chunks.entrySet()) {
+            displayer.addQueryResults(e.getKey(), e.getValue());
+        }
+
+        if (!pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private static final class PendingResult {
+
+        public final byte[] guid;
+        public final SearchResult sr;
+        public final SearchResultMediator rp;
+
+        public PendingResult(byte[] guid, SearchResult sr, SearchResultMediator rp) {
+            this.guid = guid;
+            this.sr = sr;
+            this.rp = rp;
+        }
+    }
+}
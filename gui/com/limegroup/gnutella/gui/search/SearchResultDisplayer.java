@@ -118,6 +118,11 @@ public final class SearchResultDisplayer implements ThemeObserver, RefreshListen
 
     private SlideshowPanel promoSlides;
 
+    /**
+     * Coalesces the results coming from the search threads.
+     */
+    private final SearchResultBatcher batcher = new SearchResultBatcher(this);
+
     /**
      * Constructs the search display elements.
      */
@@ -327,35 +332,34 @@ public final class SearchResultDisplayer implements ThemeObserver, RefreshListen
     }
 
     /**
-     * If i rp is no longer the i'th panel of this, returns silently. Otherwise
-     * adds line to rp under the given group. Updates the count on the tab in
-     * this and restarts the spinning lime.
+     * Queues line to be added to rp in the next batch. This can be called
+     * from any thread and never waits for the Swing thread.
+     */
+    void queueQueryResult(byte[] replyGUID, SearchResult line, SearchResultMediator rp) {
+        batcher.add(replyGUID, line, rp);
+    }
+
+    /**
+     * Adds all the lines to rp with a single update of the count on the tab,
+     * and hands them to the deep search.
      * 
-     * @requires this is called from Swing thread, group is null or similar to
-     *           line and already in rp
-     * @modifies this
+     * @requires this is called from Swing thread
      */
-    void addQueryResult(byte[] replyGUID, SearchResult line, SearchResultMediator rp) {
+    void addQueryResults(SearchResultMediator rp, List<SearchResult> lines) {
         if (rp.isStopped()) {
             return;
         }
 
-        //Actually add the line.   Must obtain rp's monitor first.
-        if (!rp.matches(new GUID(replyGUID)))//GUID of rp!=replyGuid
-            throw new IllegalArgumentException("guids don't match");
+        rp.addResults(lines);
 
-        rp.add(line);
+        LocalSearchEngine.instance().onResults(rp.getGUID(), lines);
 
-        int resultPanelIndex = -1;
-        // Search for the ResultPanel to verify it exists.
-        resultPanelIndex = entries.indexOf(rp);
+        int resultPanelIndex = entries.indexOf(rp);
 
         // If we couldn't find it, silently exit.
         if (resultPanelIndex == -1)
             return;
 
-        //Update index on tab.  Don't forget to add 1 since line hasn't
-        //actually been added!
         tabbedPane.setTitleAt(resultPanelIndex, titleOf(rp));
     }
 
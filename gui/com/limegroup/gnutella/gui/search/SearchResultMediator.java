@@ -463,6 +463,13 @@ public class SearchResultMediator extends AbstractTableMediator<TableRowFiltered
         //        window.setVisible(true);
     }
 
+    /**
+     * Adds all the results to the table with a single model update.
+     */
+    void addResults(List<SearchResult> results) {
+        addAll(results);
+    }
+
     /**
      * Determines whether or not this panel is stopped.
      */
@@ -0,0 +1,303 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
+
+import com.frostwire.HttpFetcher;
+import com.limegroup.gnutella.GUID;
+import com.limegroup.gnutella.settings.SearchSettings;
+
+/**
+ * Runs the web search engine requests of every query on a shared, bounded
+ * pool of threads.
+ * <p>
+ * Each engine can only have a limited number of requests in flight, the rest
+ * wait in a per engine queue and are handed to the pool as running requests
+ * finish, so pool threads never wait for an engine. Every query has a
+ * deadline. A watchdog cancels the pending and running requests of a query
+ * once the deadline expires or once its result panel is closed or stopped, so
+ * stale queries don't keep consuming sockets.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SearchScheduler {
+
+    private static final Log LOG = LogFactory.getLog(SearchScheduler.class);
+
+    private static final long WATCHDOG_INTERVAL = 500;
+
+    private static SearchScheduler INSTANCE;
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final int maxRequestsPerEngine;
+    private final Map<Integer, EngineQueue> engineQueues;
+    private final List<SearchQuery> queries;
+
+    private SearchScheduler() {
+        executor = ExecutorsHelper.newFixedSizeThreadPool(SearchSettings.WEB_SEARCH_THREAD_POOL_SIZE.getValue(), "WebSearchExecutor");
+        watchdog = Executors.newSingleThreadScheduledExecutor(ExecutorsHelper.daemonThreadFactory("WebSearchWatchdog"));
+        maxRequestsPerEngine = SearchSettings.WEB_SEARCH_MAX_REQUESTS_PER_ENGINE.getValue();
+        engineQueues = new HashMap<Integer, EngineQueue>();
+        queries = new CopyOnWriteArrayList<SearchQuery>();
+
+        watchdog.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                checkQueries();
+            }
+        }, WATCHDOG_INTERVAL, WATCHDOG_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized SearchScheduler instance() {
+        if (INSTANCE == null) {
+            INSTANCE = new SearchScheduler();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules the given task against every engine for the result panel
+     * identified by guid.
+     */
+    public SearchQuery schedule(byte[] guid, List<SearchEngine> engines, EngineTask task) {
+        SearchQuery query = new SearchQuery(guid, System.currentTimeMillis() + SearchSettings.WEB_SEARCH_QUERY_TIMEOUT.getValue());
+        for (SearchEngine engine : engines) {
+            query.submit(engine, task);
+        }
+        queries.add(query);
+        return query;
+    }
+
+    private EngineQueue getEngineQueue(SearchEngine engine) {
+        synchronized (engineQueues) {
+            EngineQueue queue = engineQueues.get(engine.getId());
+            if (queue == null) {
+                queue = new EngineQueue();
+                engineQueues.put(engine.getId(), queue);
+            }
+            return queue;
+        }
+    }
+
+    private void checkQueries() {
+        try {
+            long now = System.currentTimeMillis();
+            for (SearchQuery query : queries) {
+                if (query.isDone()) {
+                    queries.remove(query);
+                } else if (now > query.deadline || !query.isPanelAlive()) {
+                    query.cancel();
+                    queries.remove(query);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.error("Error checking web search queries", e);
+        }
+    }
+
+    /**
+     * The work to be done against a single engine for a query. Implementations
+     * should check {@link SearchQuery#isCancelled()} before doing anything
+     * expensive, like posting results to the UI.
+     */
+    public interface EngineTask {
+        public void run(SearchQuery query, SearchEngine engine, SearchResultMediator rp);
+    }
+
+    public final class SearchQuery {
+
+        private final byte[] guid;
+        private final long deadline;
+        private final AtomicBoolean cancelled;
+        private final List<EngineRun> runs;
+
+        private SearchQuery(byte[] guid, long deadline) {
+            this.guid = guid;
+            this.deadline = deadline;
+            this.cancelled = new AtomicBoolean(false);
+            this.runs = new CopyOnWriteArrayList<EngineRun>();
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get() || !isPanelAlive();
+        }
+
+        private void submit(SearchEngine engine, EngineTask task) {
+            if (isCancelled()) {
+                return;
+            }
+
+            EngineRun run = new EngineRun(this, engine, task);
+            runs.add(run);
+            getEngineQueue(engine).offer(run);
+        }
+
+        private void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                for (EngineRun run : runs) {
+                    run.cancel();
+                }
+            }
+        }
+
+        private boolean isDone() {
+            for (EngineRun run : runs) {
+                if (!run.done) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isExpired() {
+            return isCancelled() || System.currentTimeMillis() > deadline;
+        }
+
+        private SearchResultMediator getResultPanel() {
+            return SearchMediator.getResultPanelForGUID(new GUID(guid));
+        }
+
+        private boolean isPanelAlive() {
+            SearchResultMediator rp = getResultPanel();
+            return rp != null && !rp.isStopped();
+        }
+    }
+
+    /**
+     * The requests of a single engine. At most maxRequestsPerEngine runs are in
+     * the pool at any time, a finishing run hands its slot to the next pending
+     * one that is still wanted.
+     */
+    private final class EngineQueue {
+
+        private final Queue<EngineRun> pending;
+        private int running;
+
+        public EngineQueue() {
+            this.pending = new LinkedList<EngineRun>();
+            this.running = 0;
+        }
+
+        public void offer(EngineRun run) {
+            synchronized (this) {
+                if (running >= maxRequestsPerEngine) {
+                    pending.add(run);
+                    return;
+                }
+                running++;
+            }
+            execute(run);
+        }
+
+        public void finished() {
+            EngineRun next;
+            synchronized (this) {
+                while ((next = pending.poll()) != null && next.query.isExpired()) {
+                    next.done = true;
+                }
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            execute(next);
+        }
+
+        private void execute(EngineRun run) {
+            try {
+                executor.execute(run);
+            } catch (Throwable e) {
+                LOG.error("Error scheduling search in " + run.engine.getName(), e);
+                run.done = true;
+                finished();
+            }
+        }
+    }
+
+    private final class EngineRun implements Runnable {
+
+        private final SearchQuery query;
+        private final SearchEngine engine;
+        private final EngineTask task;
+
+        private Thread thread;
+        private volatile boolean done;
+
+        public EngineRun(SearchQuery query, SearchEngine engine, EngineTask task) {
+            this.query = query;
+            this.engine = engine;
+            this.task = task;
+        }
+
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+
+            try {
+                SearchResultMediator rp = query.getResultPanel();
+                if (!query.isExpired() && rp != null) {
+                    task.run(query, engine, rp);
+                }
+            } catch (Throwable e) {
+                if (!query.isCancelled()) {
+                    LOG.error("Error performing search in " + engine.getName(), e);
+                }
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // a cancel that raced the end of the task must not hit the next one
+                    Thread.interrupted();
+                }
+                done = true;
+                getEngineQueue(engine).finished();
+            }
+        }
+
+        /**
+         * Aborts the request in flight, interrupting alone doesn't unblock
+         * socket reads. A run still pending is dropped when its turn comes.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (thread != null) {
+                    HttpFetcher.abort(thread);
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+}
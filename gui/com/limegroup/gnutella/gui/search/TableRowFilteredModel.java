@@ -118,6 +118,44 @@ public class TableRowFilteredModel extends ResultPanelModel {
         return -1;
     }
     
+    /**
+     * Determines which of the lines should be added, with the
+     * same rules as add(SearchResultDataLine, int).
+     */
+    public int addDataLines(List<SearchResultDataLine> lines, int row) {
+        return super.addDataLines(filterLines(lines), row);
+    }
+
+    /**
+     * Determines which of the lines should be added, with the
+     * same rules as add(SearchResultDataLine, int).
+     */
+    public int addDataLinesSorted(List<SearchResultDataLine> lines) {
+        return super.addDataLinesSorted(filterLines(lines));
+    }
+
+    /**
+     * Returns the lines that pass the filters, keeping track of the
+     * hidden and junk ones.
+     */
+    private List<SearchResultDataLine> filterLines(List<SearchResultDataLine> lines) {
+        List<SearchResultDataLine> allowed = new ArrayList<SearchResultDataLine>(lines.size());
+        for (SearchResultDataLine tl : lines) {
+            boolean isNotJunk = junkFilter.allow(tl);
+
+            if ((isNotJunk || !SearchSettings.hideJunk()) && allow(tl)) {
+                allowed.add(tl);
+            } else {
+                if (isNotJunk || !SearchSettings.hideJunk()) {
+                    HIDDEN.add(tl);
+                }
+                _numSources += tl.getSeeds();
+                _numResults += 1;
+            }
+        }
+        return allowed;
+    }
+
     /**
      * Intercepts to clear the hidden map.
      */
@@ -0,0 +1,139 @@
+package com.limegroup.gnutella.gui.search.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.limewire.util.FileUtils;
+
+/**
+ * Bloom filter of info hashes, used to know without a database round trip
+ * that a torrent has never been indexed.
+ * <p>
+ * A negative answer is definitive, a positive one has to be confirmed
+ * against the database. The bit indexes come from the info hash itself, it
+ * is already a well distributed SHA-1.
+ * <p>
+ * This class is thread safe.
+ */
+public class InfoHashBloomFilter {
+
+    private static final Log LOG = LogFactory.getLog(InfoHashBloomFilter.class);
+
+    /**
+     * 2MB, under 0.1% of false positives with a million torrents.
+     */
+    public static final int DEFAULT_NUM_BITS = 1 << 24;
+    public static final int DEFAULT_NUM_HASHES = 7;
+
+    private static final int FILE_VERSION = 1;
+
+    private final int numBits;
+    private final int numHashes;
+    private final long[] bits;
+
+    public InfoHashBloomFilter(int numBits, int numHashes) {
+        if (Integer.bitCount(numBits) != 1 || numBits < 64) {
+            throw new IllegalArgumentException("The number of bits must be a power of two, at least 64");
+        }
+        if (numHashes < 1) {
+            throw new IllegalArgumentException("At least one hash is needed");
+        }
+
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+        this.bits = new long[numBits / 64];
+    }
+
+    public InfoHashBloomFilter() {
+        this(DEFAULT_NUM_BITS, DEFAULT_NUM_HASHES);
+    }
+
+    public synchronized void add(String infoHash) {
+        byte[] key = InfoHashKey.toKey(infoHash);
+        long h1 = InfoHashKey.getLong(key, 0);
+        long h2 = InfoHashKey.getLong(key, 8) | 1;
+
+        for (int i = 0; i < numHashes; i++) {
+            int index = (int) ((h1 + i * h2) & (numBits - 1));
+            bits[index >>> 6] |= 1L << index;
+        }
+    }
+
+    public synchronized boolean mightContain(String infoHash) {
+        byte[] key = InfoHashKey.toKey(infoHash);
+        long h1 = InfoHashKey.getLong(key, 0);
+        long h2 = InfoHashKey.getLong(key, 8) | 1;
+
+        for (int i = 0; i < numHashes; i++) {
+            int index = (int) ((h1 + i * h2) & (numBits - 1));
+            if ((bits[index >>> 6] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 0;
+        }
+    }
+
+    public synchronized boolean save(File file) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(numBits);
+            out.writeInt(numHashes);
+            for (long l : bits) {
+                out.writeLong(l);
+            }
+            out.close();
+            out = null;
+            return true;
+        } catch (IOException e) {
+            LOG.error("Error saving info hash filter to " + file, e);
+            FileUtils.close(out);
+            file.delete();
+            return false;
+        }
+    }
+
+    /**
+     * @return the filter saved in the file, or <code>null</code> if the file
+     *         is missing or not valid
+     */
+    public static InfoHashBloomFilter load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            InfoHashBloomFilter filter = new InfoHashBloomFilter(in.readInt(), in.readInt());
+            for (int i = 0; i < filter.bits.length; i++) {
+                filter.bits[i] = in.readLong();
+            }
+            return filter;
+        } catch (Throwable e) {
+            LOG.warn("Invalid info hash filter " + file, e);
+            return null;
+        } finally {
+            FileUtils.close(in);
+        }
+    }
+}
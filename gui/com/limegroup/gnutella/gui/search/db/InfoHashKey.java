@@ -0,0 +1,60 @@
+package com.limegroup.gnutella.gui.search.db;
+
+import java.security.MessageDigest;
+import java.util.Locale;
+
+/**
+ * Turns the info hashes reported by the search engines into 20 bytes keys.
+ * <p>
+ * Hex hashes are decoded as they are, anything else (base32, garbage) is
+ * reduced with SHA-1, so the same string always maps to the same key.
+ */
+final class InfoHashKey {
+
+    public static final int LENGTH = 20;
+
+    private InfoHashKey() {
+    }
+
+    public static byte[] toKey(String infoHash) {
+        String str = infoHash.trim().toLowerCase(Locale.US);
+
+        if (str.length() == LENGTH * 2) {
+            byte[] key = new byte[LENGTH];
+            boolean hex = true;
+            for (int i = 0; i < LENGTH && hex; i++) {
+                int hi = Character.digit(str.charAt(2 * i), 16);
+                int lo = Character.digit(str.charAt(2 * i + 1), 16);
+                hex = hi != -1 && lo != -1;
+                key[i] = (byte) ((hi << 4) | lo);
+            }
+            if (hex) {
+                return key;
+            }
+        }
+
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8"));
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads 8 bytes of the key, big endian.
+     */
+    public static long getLong(byte[] key, int offset) {
+        long l = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            l = (l << 8) | (key[i] & 0xFF);
+        }
+        return l;
+    }
+
+    /**
+     * Reads the last 4 bytes of the key, big endian.
+     */
+    public static int getTail(byte[] key) {
+        return ((key[16] & 0xFF) << 24) | ((key[17] & 0xFF) << 16) | ((key[18] & 0xFF) << 8) | (key[19] & 0xFF);
+    }
+}
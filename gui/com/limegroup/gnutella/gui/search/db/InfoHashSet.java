@@ -0,0 +1,117 @@
+package com.limegroup.gnutella.gui.search.db;
+
+/**
+ * A bounded set of info hashes, kept as 20 bytes keys in primitive arrays.
+ * <p>
+ * The hashes are held in two generations of at most <code>limit</code>
+ * entries. Once the current generation is full it becomes the previous one
+ * and the oldest generation is dropped, so the memory used never grows past
+ * two tables and the recently seen hashes are the ones remembered.
+ * <p>
+ * This class is thread safe.
+ */
+public class InfoHashSet {
+
+    private final int limit;
+
+    private Table current;
+    private Table previous;
+
+    public InfoHashSet(int limit) {
+        this.limit = Math.max(1, limit);
+        this.current = new Table(this.limit);
+        this.previous = new Table(this.limit);
+    }
+
+    /**
+     * Adds the info hash to the set.
+     *
+     * @return <code>true</code> if the info hash was not known
+     */
+    public synchronized boolean add(String infoHash) {
+        byte[] key = InfoHashKey.toKey(infoHash);
+
+        if (current.contains(key)) {
+            return false;
+        }
+
+        boolean known = previous.contains(key);
+
+        // keep it in the live generation, known or not
+        current.add(key);
+        if (current.size() >= limit) {
+            previous = current;
+            current = new Table(limit);
+        }
+
+        return !known;
+    }
+
+    public synchronized boolean contains(String infoHash) {
+        byte[] key = InfoHashKey.toKey(infoHash);
+        return current.contains(key) || previous.contains(key);
+    }
+
+    public synchronized void clear() {
+        current = new Table(limit);
+        previous = new Table(limit);
+    }
+
+    /**
+     * Open addressing table, three longs per slot. The tail of the key is
+     * stored with an extra bit set, so an empty slot is always zero.
+     */
+    private static final class Table {
+
+        private static final long OCCUPIED = 1L << 32;
+
+        private final long[] slots;
+        private final int mask;
+        private int size;
+
+        public Table(int limit) {
+            int capacity = Integer.highestOneBit(Math.max(2, limit + limit / 3) - 1) << 1;
+            slots = new long[capacity * 3];
+            mask = capacity - 1;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(byte[] key) {
+            return find(key) >= 0;
+        }
+
+        public void add(byte[] key) {
+            int index = find(key);
+            if (index < 0) {
+                int slot = -index - 1;
+                slots[slot * 3] = InfoHashKey.getLong(key, 0);
+                slots[slot * 3 + 1] = InfoHashKey.getLong(key, 8);
+                slots[slot * 3 + 2] = (InfoHashKey.getTail(key) & 0xFFFFFFFFL) | OCCUPIED;
+                size++;
+            }
+        }
+
+        /**
+         * @return the slot of the key, or <code>-(free slot + 1)</code> if
+         *         it's not in the table
+         */
+        private int find(byte[] key) {
+            long a = InfoHashKey.getLong(key, 0);
+            long b = InfoHashKey.getLong(key, 8);
+            long c = (InfoHashKey.getTail(key) & 0xFFFFFFFFL) | OCCUPIED;
+
+            int slot = (int) (a ^ (a >>> 32)) & mask;
+            while (slots[slot * 3 + 2] != 0) {
+                if (slots[slot * 3] == a && slots[slot * 3 + 1] == b && slots[slot * 3 + 2] == c) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            return -slot - 1;
+        }
+    }
+}
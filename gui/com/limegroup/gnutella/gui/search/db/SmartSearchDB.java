@@ -10,26 +10,57 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.limewire.util.FileUtils;
 
+import com.limegroup.gnutella.settings.SearchSettings;
+
+/**
+ * The smart search database.
+ * <p>
+ * Statements run on a small pool of connections, so read queries don't wait
+ * for the background indexing. Every connection keeps its most used prepared
+ * statements open. Writes are still serialized, since <code>IDENTITY()</code>
+ * has to be read on the same connection right after the insert.
+ */
 public class SmartSearchDB {
-    
+
     private static final Log LOG = LogFactory.getLog(SmartSearchDB.class);
 
     public static final int OBJECT_NOT_SAVED_ID = -1;
     public static final int OBJECT_INVALID_ID = -2;
-    
-    public static final int SMART_SEARCH_DATABASE_VERSION = 7;
+
+    public static final int SMART_SEARCH_DATABASE_VERSION = 9;
+
+    /**
+     * Time to wait for a free connection before giving up the statement.
+     */
+    private static final long ACQUIRE_TIMEOUT = 10000;
 
     private final File _databaseFile;
     private final String _name;
 
+    private final int _maxConnections;
+    private final int _statementCacheSize;
+
+    /**
+     * Every open connection of the pool, guarded by itself.
+     */
+    private final List<PooledConnection> _connections;
+    private final BlockingQueue<PooledConnection> _idleConnections;
+    private final ReentrantLock _writeLock;
+
     private Connection _connection;
 
     private final AtomicBoolean closed = new AtomicBoolean(true);
@@ -48,7 +79,15 @@ public class SmartSearchDB {
         File path = databaseFile;
         _name = databaseFile.getName();
 
+        _maxConnections = Math.max(1, SearchSettings.SMART_SEARCH_DATABASE_CONNECTIONS.getValue());
+        _statementCacheSize = Math.max(1, SearchSettings.SMART_SEARCH_DATABASE_STATEMENT_CACHE_SIZE.getValue());
+
+        _connections = new ArrayList<PooledConnection>();
+        _idleConnections = new LinkedBlockingQueue<PooledConnection>();
+        _writeLock = new ReentrantLock();
+
         _connection = openOrCreateDatabase(path, _name);
+        initPool(_connection);
     }
 
     public File getDatabaseFile() {
@@ -62,43 +101,31 @@ public class SmartSearchDB {
     public boolean isClosed() {
         return closed.get();
     }
-    
+
     public List<List<Object>> query(String statementSql, Object... arguments) {
         if (isClosed()) {
             return new ArrayList<List<Object>>();
         }
 
-        PreparedStatement statement = null;
-        ResultSet resultSet = null;
+        PooledConnection connection = null;
 
         try {
-            synchronized (_connection) {
-                statement = _connection.prepareStatement(statementSql);
-    
-                if (arguments != null) {
-                    for (int i = 0; i < arguments.length; i++) {
-                        statement.setObject(i + 1, arguments[i]);
-                    }
-                }
-    
-                resultSet = statement.executeQuery();
-    
-                return convertResultSetToList(resultSet);
+            connection = acquire();
+
+            if (connection != null) {
+                return connection.query(statementSql, arguments);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Throwable e) {
             LOG.error("Error performing SQL statement", e);
         } finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e) {
-                }
-            }
+            release(connection);
         }
 
         return new ArrayList<List<Object>>();
     }
-    
+
     /**
      * @param expression
      * @return
@@ -112,31 +139,54 @@ public class SmartSearchDB {
             return OBJECT_INVALID_ID;
         }
 
-        synchronized (_connection) {
-            if (update(_connection, statementSql, arguments) > 0) {
-                return getIdentity(_connection);
-            }
-        }
-
-        return OBJECT_INVALID_ID;
+        return executeUpdate(statementSql, arguments);
     }
-    
+
     public int update(String statementSql, Object... arguments) {
         if (isClosed()) {
             return OBJECT_INVALID_ID;
         }
-        
-        synchronized (_connection) {
-            if (update(_connection, statementSql, arguments) > 0) {
-                return getIdentity(_connection);
+
+        return executeUpdate(statementSql, arguments);
+    }
+
+    /**
+     * Runs the task inside a single transaction, with every batched statement
+     * executed right before the commit. Everything is rolled back if the task
+     * or any statement fails.
+     *
+     * @return true if the transaction was committed
+     */
+    public boolean transaction(TransactionTask task) {
+        if (isClosed()) {
+            return false;
+        }
+
+        PooledConnection connection = null;
+
+        try {
+            connection = acquire();
+
+            if (connection != null) {
+                _writeLock.lock();
+                try {
+                    return connection.transaction(task);
+                } finally {
+                    _writeLock.unlock();
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            release(connection);
         }
 
-        return OBJECT_INVALID_ID;
+        return false;
     }
 
     public void close() {
         if (closed.compareAndSet(false, true)) {
+            closePool();
             try {
                 Statement statement = _connection.createStatement();
                 statement.execute("SHUTDOWN");
@@ -146,36 +196,181 @@ public class SmartSearchDB {
             }
         }
     }
-    
+
     public synchronized Connection reset() {
         try {
             close();
             FileUtils.deleteRecursive(_databaseFile);
             _connection = createDatabase(_databaseFile, _name);
-            return _connection; 
+            initPool(_connection);
+            return _connection;
         } catch (Throwable e) {
             LOG.error("Error reseting smart search database", e);
         }
-        
+
         return null;
     }
-    
+
     protected Connection onUpdateDatabase() {
         return reset();
     }
 
-    private Connection openConnection(File path, String name, boolean createIfNotExists) {
+    private int executeUpdate(String statementSql, Object... arguments) {
+        PooledConnection connection = null;
+
         try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("jdbc:h2:");
-            sb.append(new File(path, name).getAbsolutePath());
+            connection = acquire();
+
+            if (connection != null) {
+                _writeLock.lock();
+                try {
+                    if (connection.update(statementSql, arguments) > 0) {
+                        return connection.getIdentity();
+                    }
+                } finally {
+                    _writeLock.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            release(connection);
+        }
+
+        return OBJECT_INVALID_ID;
+    }
+
+    /**
+     * Takes an idle connection from the pool, opening a new one if the pool
+     * is not full yet. Returns null if the database is closed or no connection
+     * became available in time.
+     */
+    private PooledConnection acquire() throws InterruptedException {
+        PooledConnection connection = _idleConnections.poll();
+        if (connection != null) {
+            return connection;
+        }
 
-            if (!createIfNotExists) {
-                sb.append(";ifexists=true");
+        synchronized (_connections) {
+            if (!isClosed() && _connections.size() < _maxConnections) {
+                Connection c = openPooledConnection();
+                if (c != null) {
+                    connection = new PooledConnection(c);
+                    _connections.add(connection);
+                    return connection;
+                }
             }
-            
+        }
+
+        connection = _idleConnections.poll(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (connection == null && !isClosed()) {
+            LOG.warn("Timeout waiting for a smart search database connection");
+        }
+
+        return connection;
+    }
+
+    private void release(PooledConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        boolean pooled;
+        synchronized (_connections) {
+            pooled = !isClosed() && _connections.contains(connection) && !connection.isBroken();
+            if (!pooled) {
+                _connections.remove(connection);
+                // closePool waits for the connections in use to come back
+                _connections.notifyAll();
+            }
+        }
+
+        if (pooled) {
+            _idleConnections.offer(connection);
+        } else if (connection.connection != _connection) {
+            connection.close();
+        } else {
+            connection.closeStatements();
+        }
+    }
+
+    private void initPool(Connection connection) {
+        synchronized (_connections) {
+            _connections.clear();
+            _idleConnections.clear();
+
+            if (connection != null) {
+                PooledConnection primary = new PooledConnection(connection);
+                _connections.add(primary);
+                _idleConnections.offer(primary);
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections, but only the cached statements of the
+     * primary, which is used to shut down the database. The connections in
+     * use are closed by release when they come back, this waits for them
+     * so the shutdown doesn't fail the statements in flight.
+     * <p>
+     * The pool must already be marked closed, so no connection goes back
+     * to the idle queue or is opened meanwhile.
+     */
+    private void closePool() {
+        List<PooledConnection> idle = new ArrayList<PooledConnection>();
+        synchronized (_connections) {
+            _idleConnections.drainTo(idle);
+            _connections.removeAll(idle);
+        }
+
+        for (PooledConnection connection : idle) {
+            if (connection.connection == _connection) {
+                connection.closeStatements();
+            } else {
+                connection.close();
+            }
+        }
+
+        synchronized (_connections) {
+            long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT;
+            long remaining;
+            while (!_connections.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    _connections.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (!_connections.isEmpty()) {
+                LOG.warn("Closing the smart search database with " + _connections.size() + " connections in use");
+                _connections.clear();
+            }
+        }
+    }
+
+    private String getConnectionUrl(File path, String name, boolean createIfNotExists) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("jdbc:h2:");
+        sb.append(new File(path, name).getAbsolutePath());
+
+        // readers don't wait for the table locks of the indexing writes
+        sb.append(";MVCC=TRUE");
+
+        if (!createIfNotExists) {
+            sb.append(";ifexists=true");
+        }
+
+        return sb.toString();
+    }
+
+    private Connection openConnection(File path, String name, boolean createIfNotExists) {
+        try {
+            String url = getConnectionUrl(path, name, createIfNotExists);
+
             closed.set(false);
-            return DriverManager.getConnection(sb.toString(), "SA", "");
+            return DriverManager.getConnection(url, "SA", "");
         } catch (Throwable e) {
             if (createIfNotExists) {
                 LOG.error("Error opening the database", e);
@@ -185,36 +380,46 @@ public class SmartSearchDB {
         }
     }
 
+    /**
+     * Opens an additional connection to the already open database, it never
+     * creates the database.
+     */
+    private Connection openPooledConnection() {
+        try {
+            return DriverManager.getConnection(getConnectionUrl(_databaseFile, _name, false), "SA", "");
+        } catch (Throwable e) {
+            LOG.error("Error opening a new connection to the database", e);
+            return null;
+        }
+    }
+
     private Connection createDatabase(File path, String name) {
         Connection connection = openConnection(path, name, true);
 
         update(connection, "SET IGNORECASE TRUE");
-        
+
         //TORRENTS
-        update(connection, "CREATE TABLE TORRENTS (torrentId INTEGER IDENTITY, infoHash VARCHAR(60), timestamp BIGINT, torrentName VARCHAR(10000), seeds INTEGER, indexed BOOLEAN, json VARCHAR(131072))");
+        update(connection, "CREATE TABLE TORRENTS (torrentId INTEGER IDENTITY, infoHash VARCHAR(60), timestamp BIGINT, torrentName VARCHAR(10000), seeds INTEGER, indexed BOOLEAN, creationTime BIGINT, size BIGINT, vendor VARCHAR(500), torrentURI VARCHAR(10000), detailsURL VARCHAR(10000), searchEngineId INTEGER)");
         update(connection, "CREATE INDEX idxTorrents ON TORRENTS (infoHash)");
         update(connection, "CREATE INDEX idxSeeds ON TORRENTS(seeds)");
-        
+
         //FILES
-        // Lucene Full Text Search, 100% CPU Intensive
-        //update(connection, "CREATE ALIAS IF NOT EXISTS FTL_INIT FOR \"org.h2.fulltext.FullTextLucene2.init\"");
-        update(connection, "CREATE ALIAS IF NOT EXISTS FT_INIT FOR \"org.h2.fulltext.FullText.init\"");
-        //update(connection, "CALL FTL_INIT()"); //lucene
-        update(connection, "CALL FT_INIT()");
-        
-        update(connection, "CREATE TABLE FILES (fileId INTEGER IDENTITY, torrentId INTEGER, fileName VARCHAR(10000), json VARCHAR(131072), keywords VARCHAR(131072))");
-        //update(connection, "CREATE INDEX idxFiles ON Files (fileName)");
-        //update(connection, "CALL FTL_CREATE_INDEX('PUBLIC', 'FILES', 'FILENAME, KEYWORDS')"); //lucene
-        update(connection, "CALL FT_CREATE_INDEX('PUBLIC', 'FILES', 'FILENAME, KEYWORDS')");
-        update(connection, "CREATE INDEX idxTorrentId ON FILES (torrentId)");
-        
+        update(connection, "CREATE TABLE FILES (torrentId INTEGER, fileIndex INTEGER, fileName VARCHAR(10000), size BIGINT, PRIMARY KEY (torrentId, fileIndex))");
+
+        //KEYWORDS - Inverted index of the torrent and file names, one row per distinct keyword of every file.
+        // The seeds are copied here so the best matches are found without touching the other tables.
+        update(connection, "CREATE TABLE KEYWORDS (keyword VARCHAR(100), torrentId INTEGER, fileIndex INTEGER, seeds INTEGER)");
+        update(connection, "CREATE INDEX idxKeywords ON KEYWORDS (keyword, seeds)");
+        // probes for the other keywords of a query, see LocalSearchEngine.search
+        update(connection, "CREATE INDEX idxKeywordsFile ON KEYWORDS (keyword, torrentId, fileIndex)");
+
         //SNAPSHOTS - (Created right before user imports a DB, this way the user can delete (rollback) all new insertions after the snapshot)
         update(connection, "CREATE TABLE Snapshots (snapshotId INTEGER IDENTITY, timestamp BIGINT)");
 
         /** This table keeps only a single row to identify what version of the database we have */
         update(connection, "CREATE TABLE SmartSearchMetaData (smartSearchId INTEGER IDENTITY, name VARCHAR(500), version INTEGER)");
         update(connection, "INSERT INTO SmartSearchMetaData (name , version) VALUES (?, ?)", name, SMART_SEARCH_DATABASE_VERSION);
-        
+
         return connection;
     }
 
@@ -224,7 +429,7 @@ public class SmartSearchDB {
             return createDatabase(path, name);
         } else {
             _connection = connection; // not the best solution
-            int databaseVersion = getDatabaseVersion();
+            int databaseVersion = getDatabaseVersion(connection);
             if (databaseVersion < SMART_SEARCH_DATABASE_VERSION) {
                 return onUpdateDatabase();
             } else {
@@ -233,7 +438,7 @@ public class SmartSearchDB {
         }
     }
 
-    private List<List<Object>> convertResultSetToList(ResultSet resultSet) throws SQLException {
+    private static List<List<Object>> convertResultSetToList(ResultSet resultSet) throws SQLException {
         ResultSetMetaData meta = resultSet.getMetaData();
         int numColums = meta.getColumnCount();
         int i;
@@ -250,19 +455,52 @@ public class SmartSearchDB {
         return result;
     }
 
-    private static int getIdentity(Connection connection) {
+    private static void setArguments(PreparedStatement statement, Object... arguments) throws SQLException {
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                statement.setObject(i + 1, arguments[i]);
+            }
+        }
+    }
+
+    private static void logStatementError(Throwable e, String statementSql, Object... arguments) {
+        LOG.error("Error performing SQL statement: ", e);
+        LOG.error("SQL: " + statementSql);
+        LOG.error("Arguments: " + (arguments != null ? Arrays.asList(arguments) : null));
+    }
+
+    private int update(Connection connection, String statementSql, Object... arguments) {
+
+        PreparedStatement statement = null;
+
+        try {
+            statement = connection.prepareStatement(statementSql);
+            setArguments(statement, arguments);
+            return statement.executeUpdate();
+        } catch (Throwable e) {
+            logStatementError(e, statementSql, arguments);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private int getDatabaseVersion(Connection connection) {
         Statement statement = null;
-        ResultSet resultSet = null;
 
         try {
             statement = connection.createStatement();
-            resultSet = statement.executeQuery("CALL IDENTITY()");
-
+            ResultSet resultSet = statement.executeQuery("SELECT version FROM SmartSearchMetaData");
             resultSet.next();
-
             return resultSet.getInt(1);
         } catch (Throwable e) {
-            LOG.error("Error performing SQL statement", e);
+            LOG.error("Error reading the smart search database version", e);
         } finally {
             if (statement != null) {
                 try {
@@ -272,27 +510,168 @@ public class SmartSearchDB {
             }
         }
 
-        return OBJECT_INVALID_ID;
+        return -1;
     }
-    
-    private int update(Connection connection, String statementSql, Object... arguments) {
 
-        PreparedStatement statement = null;
+    /**
+     * The work done by {@link SmartSearchDB#transaction(TransactionTask)}.
+     */
+    public interface TransactionTask {
+        public void run(Transaction transaction) throws SQLException;
+    }
 
-        try {
-            statement = connection.prepareStatement(statementSql);
+    /**
+     * The statements available inside a transaction.
+     */
+    public interface Transaction {
+
+        /**
+         * Executes the insert right away and returns the generated id.
+         */
+        public int insert(String statementSql, Object... arguments) throws SQLException;
+
+        /**
+         * Adds the statement to a JDBC batch, executed before the commit.
+         */
+        public void addBatch(String statementSql, Object... arguments) throws SQLException;
+    }
+
+    /**
+     * A connection of the pool, with a LRU cache of its prepared statements.
+     * It's used by one thread at a time.
+     */
+    private final class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(_statementCacheSize, 0.75f, true) {
+
+                private static final long serialVersionUID = 3874536418231254561L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > _statementCacheSize) {
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
 
-            if (arguments != null) {
-                for (int i = 0; i < arguments.length; i++) {
-                    statement.setObject(i + 1, arguments[i]);
+        public List<List<Object>> query(String statementSql, Object... arguments) throws SQLException {
+            ResultSet resultSet = null;
+
+            try {
+                PreparedStatement statement = prepare(statementSql);
+                setArguments(statement, arguments);
+                resultSet = statement.executeQuery();
+                return convertResultSetToList(resultSet);
+            } catch (SQLException e) {
+                evict(statementSql);
+                throw e;
+            } finally {
+                if (resultSet != null) {
+                    try {
+                        resultSet.close();
+                    } catch (SQLException e) {
+                    }
                 }
             }
-            return statement.executeUpdate();
-        } catch (Throwable e) {
-            LOG.error("Error performing SQL statement: ", e);
-            LOG.error("SQL: " + statementSql);
-            LOG.error("Arguments: " + Arrays.asList(arguments));
-        } finally {
+        }
+
+        public int update(String statementSql, Object... arguments) {
+            try {
+                PreparedStatement statement = prepare(statementSql);
+                setArguments(statement, arguments);
+                return statement.executeUpdate();
+            } catch (Throwable e) {
+                evict(statementSql);
+                logStatementError(e, statementSql, arguments);
+            }
+
+            return -1;
+        }
+
+        public boolean transaction(TransactionTask task) {
+            BatchTransaction transaction = new BatchTransaction(this);
+
+            try {
+                connection.setAutoCommit(false);
+                task.run(transaction);
+                transaction.executeBatches();
+                connection.commit();
+                return true;
+            } catch (Throwable e) {
+                LOG.error("Error performing SQL transaction", e);
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                }
+            } finally {
+                transaction.close();
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                }
+            }
+
+            return false;
+        }
+
+        public int getIdentity() {
+            try {
+                List<List<Object>> rows = query("CALL IDENTITY()");
+                return ((Number) rows.get(0).get(0)).intValue();
+            } catch (Throwable e) {
+                LOG.error("Error performing SQL statement", e);
+            }
+
+            return OBJECT_INVALID_ID;
+        }
+
+        public boolean isBroken() {
+            try {
+                return connection.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        public void closeStatements() {
+            for (PreparedStatement statement : statements.values()) {
+                closeStatement(statement);
+            }
+            statements.clear();
+        }
+
+        public void close() {
+            closeStatements();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+            }
+        }
+
+        PreparedStatement prepare(String statementSql) throws SQLException {
+            PreparedStatement statement = statements.get(statementSql);
+            if (statement == null) {
+                statement = connection.prepareStatement(statementSql);
+                statements.put(statementSql, statement);
+            } else {
+                statement.clearParameters();
+            }
+            return statement;
+        }
+
+        void evict(String statementSql) {
+            closeStatement(statements.remove(statementSql));
+        }
+
+        private void closeStatement(PreparedStatement statement) {
             if (statement != null) {
                 try {
                     statement.close();
@@ -300,12 +679,67 @@ public class SmartSearchDB {
                 }
             }
         }
-
-        return -1;
     }
-    
-    private int getDatabaseVersion() {
-        List<List<Object>> query = query("SELECT version FROM SmartSearchMetaData");
-        return (Integer) query.get(0).get(0);
+
+    /**
+     * The batched statements are kept apart from the cache of the connection,
+     * so an eviction never drops a pending batch.
+     */
+    private static final class BatchTransaction implements Transaction {
+
+        private final PooledConnection connection;
+        private final Map<String, PreparedStatement> batches;
+
+        public BatchTransaction(PooledConnection connection) {
+            this.connection = connection;
+            this.batches = new LinkedHashMap<String, PreparedStatement>();
+        }
+
+        @Override
+        public int insert(String statementSql, Object... arguments) throws SQLException {
+            try {
+                PreparedStatement statement = connection.prepare(statementSql);
+                setArguments(statement, arguments);
+                if (statement.executeUpdate() <= 0) {
+                    throw new SQLException("Nothing inserted by: " + statementSql);
+                }
+            } catch (SQLException e) {
+                connection.evict(statementSql);
+                throw e;
+            }
+
+            int id = connection.getIdentity();
+            if (id == OBJECT_INVALID_ID) {
+                throw new SQLException("Unable to read the generated id of: " + statementSql);
+            }
+            return id;
+        }
+
+        @Override
+        public void addBatch(String statementSql, Object... arguments) throws SQLException {
+            PreparedStatement statement = batches.get(statementSql);
+            if (statement == null) {
+                statement = connection.connection.prepareStatement(statementSql);
+                batches.put(statementSql, statement);
+            }
+            setArguments(statement, arguments);
+            statement.addBatch();
+        }
+
+        public void executeBatches() throws SQLException {
+            for (PreparedStatement statement : batches.values()) {
+                statement.executeBatch();
+            }
+        }
+
+        public void close() {
+            for (PreparedStatement statement : batches.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+            batches.clear();
+        }
     }
 }
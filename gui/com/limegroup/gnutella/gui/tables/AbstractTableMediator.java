@@ -25,7 +25,9 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -529,6 +531,57 @@ public abstract class AbstractTableMediator<T extends DataLineModel<E, I>, E ext
         fixSelection(addedAt, inView);
     }
 
+    /**
+     * Adds new DataLines initialized by the objects with a single
+     * model event. If the list is sorted the lines are merged into
+     * their sorted positions in one pass.
+     */
+    public void addAll(Collection<? extends I> objects) {
+        addDataLines(DATA_MODEL.getNewDataLines(objects));
+    }
+
+    /**
+     * Adds DataLines that were already built, possibly outside the Swing
+     * thread with the model's getNewDataLines, with a single model event.
+     */
+    public void addDataLines(List<E> lines) {
+        if (lines.isEmpty())
+            return;
+
+        if (TABLE.isEditing()) {
+            CellEditor editor = TABLE.getCellEditor();
+            editor.cancelCellEditing();
+        }
+
+        boolean inView = TABLE.isSelectionVisible();
+
+        int addedAt;
+        if (SETTINGS.REAL_TIME_SORT.getValue() && DATA_MODEL.isSorted())
+            addedAt = DATA_MODEL.addDataLinesSorted(lines);
+        else
+            addedAt = DATA_MODEL.addDataLines(lines);
+
+        fixSelection(addedAt, inView);
+    }
+
+    /**
+     * Forces the DataLines to be added unsorted, where add(Object)
+     * would put them.
+     */
+    public void addDataLinesUnsorted(List<E> lines) {
+        if (lines.isEmpty())
+            return;
+
+        if (TABLE.isEditing()) {
+            CellEditor editor = TABLE.getCellEditor();
+            editor.cancelCellEditing();
+        }
+
+        boolean inView = TABLE.isSelectionVisible();
+        int addedAt = DATA_MODEL.addDataLines(lines);
+        fixSelection(addedAt, inView);
+    }
+
     /**
      * Removes the selection from where the row was added,
      * and puts the focus on a previously selected row.
@@ -16,6 +16,7 @@
 package com.limegroup.gnutella.gui.tables;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -340,6 +341,136 @@ public class BasicDataLineModel<T extends DataLine<E>, E> extends AbstractTableM
         return add(dl, getSortedPosition(dl));
     }
 
+    /**
+     * Returns initialized new datalines for all the objects, skipping
+     * the ones that failed to create a DataLine.
+     *
+     * This doesn't touch the model, so it can be used to build the
+     * lines outside the Swing thread before calling addDataLines.
+     */
+    public List<T> getNewDataLines(Collection<? extends E> objects) {
+        List<T> lines = new ArrayList<T>(objects.size());
+        for (E o : objects) {
+            T dl = getNewDataLine(o);
+            if (dl != null)
+                lines.add(dl);
+        }
+        return lines;
+    }
+
+    /**
+     * Helper function.
+     *
+     * Adds DataLines initialized by the objects.
+     *
+     * Delegates to addDataLines(List).
+     */
+    public int addAll(Collection<? extends E> objects) {
+        return addDataLines(getNewDataLines(objects));
+    }
+
+    /**
+     * Helper function.
+     *
+     * Adds DataLines initialized by the objects in whatever rows
+     * will keep the list sorted.
+     *
+     * Delegates to addDataLinesSorted(List).
+     */
+    public int addAllSorted(Collection<? extends E> objects) {
+        return addDataLinesSorted(getNewDataLines(objects));
+    }
+
+    /**
+     * Helper function.
+     *
+     * Adds the DataLines starting at row 0, the same place
+     * add(Object) puts a single line.
+     *
+     * This should be overriden only if you want the default,
+     * non-sorting bulk add to go someplace other than row 0.
+     *
+     * Delegates to addDataLines(List, int).
+     */
+    public int addDataLines(List<T> lines) {
+        return addDataLines(lines, 0);
+    }
+
+    /**
+     * Adds the DataLines to the list starting at a row, keeping
+     * their order, and fires a single insert event.
+     *
+     * All unsorted forms of addAll(..) eventually end up here.
+     *
+     * Extending classes that override add(DataLine, int) to maintain
+     * a HashMap should override this too.
+     *
+     * @return the first row the lines were added at, or -1 if
+     *  nothing was added.
+     */
+    public int addDataLines(List<T> lines, int row) {
+        if (lines.isEmpty())
+            return -1;
+        _list.addAll(row, lines);
+        fireTableRowsInserted(row, row + lines.size() - 1);
+        return row;
+    }
+
+    /**
+     * Adds the DataLines in whatever rows will keep the list sorted.
+     *
+     * Instead of doing a binary search and an insert per line, the new lines
+     * are sorted among themselves and merged with the list in a single pass.
+     * An insert event is fired for each run of new rows that ended up next
+     * to each other, so the table keeps the selection on the right rows.
+     *
+     * Extending classes that override add(DataLine, int) to maintain
+     * a HashMap should override this too.
+     *
+     * @return the first row a line was added at, or -1 if
+     *  nothing was added.
+     */
+    public int addDataLinesSorted(List<T> lines) {
+        if (lines.isEmpty())
+            return -1;
+
+        List<T> added = new ArrayList<T>(lines);
+        Collections.sort(added, this);
+
+        int size = _list.size();
+        List<T> merged = new ArrayList<T>(size + added.size());
+        // first and last row of each run of new rows, in the merged list
+        List<int[]> runs = new ArrayList<int[]>();
+        int[] run = null;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < added.size()) {
+            // new lines go after the existing lines they compare equal to,
+            // like getSortedPosition does.
+            if (j == added.size() || (i < size && compare(_list.get(i), added.get(j)) <= 0)) {
+                merged.add(_list.get(i++));
+                run = null;
+            } else {
+                if (run == null) {
+                    run = new int[] { merged.size(), merged.size() };
+                    runs.add(run);
+                } else {
+                    run[1] = merged.size();
+                }
+                merged.add(added.get(j++));
+            }
+        }
+
+        _list.clear();
+        _list.addAll(merged);
+
+        // in ascending order every event sees the rows above it already
+        // inserted, so the merged positions are the right ones
+        for (int[] r : runs)
+            fireTableRowsInserted(r[0], r[1]);
+        return runs.get(0)[0];
+    }
+
     //Implements the DataLineModel interface.
     public T get(int row) {
         if(row == -1)
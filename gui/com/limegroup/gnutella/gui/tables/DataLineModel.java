@@ -1,7 +1,9 @@
 
 package com.limegroup.gnutella.gui.tables;
 
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
 import javax.swing.table.TableModel;
 
@@ -101,6 +103,25 @@ public interface DataLineModel<T extends DataLine<E>, E> extends Comparator<T>,
      */
     public int add(T dl, int row);
 
+    /**
+     * Returns new DataLines initialized by the objects, without
+     * adding them to the info.
+     */
+    public List<T> getNewDataLines(Collection<? extends E> objects);
+
+    /**
+     * Adds new DataLines to the info with a single event.
+     * Return the first row they were added at, or -1 if none was added.
+     */
+    public int addDataLines(List<T> lines);
+
+    /**
+     * Adds new DataLines to the info with a single event, in whatever
+     * rows will keep the DataLines sorted.
+     * Return the first row they were added at, or -1 if none was added.
+     */
+    public int addDataLinesSorted(List<T> lines);
+
     /**
      * Get the DataLine associated with the row.
      */
@@ -1,6 +1,10 @@
 package com.limegroup.gnutella.gui.tables;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /** 
  * This class extends the BasicDataLineModel
@@ -61,6 +65,45 @@ public class HashBasedDataLineModel<T extends DataLine<E>, E> extends BasicDataL
         }
     }
     
+    /**
+     * Override of the bulk add so we can skip the objects that are
+     * already added and maintain the HashMap.
+     */
+    public int addDataLines(List<T> lines, int row) {
+        int addedAt = super.addDataLines(filterAdded(lines), row);
+        if (addedAt != -1)
+            remapIndexes(addedAt);
+        return addedAt;
+    }
+
+    /**
+     * Override of the bulk sorted add so we can skip the objects that are
+     * already added and maintain the HashMap.
+     */
+    public int addDataLinesSorted(List<T> lines) {
+        int addedAt = super.addDataLinesSorted(filterAdded(lines));
+        if (addedAt != -1)
+            remapIndexes(addedAt);
+        return addedAt;
+    }
+
+    /**
+     * Returns the lines whose objects are not in the model yet,
+     * dropping duplicates within the lines themselves.
+     */
+    private List<T> filterAdded(List<T> lines) {
+        List<T> result = new ArrayList<T>(lines.size());
+        Set<E> seen = new HashSet<E>();
+        for (T dl : lines) {
+            E init = dl.getInitializeObject();
+            if (!_indexes.containsKey(init) && seen.add(init))
+                result.add(dl);
+            else
+                dl.cleanup(); // we aren't going to use this dl
+        }
+        return result;
+    }
+
     /** 
      * Overrides the default remove to remove the index from the hashmap.
      *